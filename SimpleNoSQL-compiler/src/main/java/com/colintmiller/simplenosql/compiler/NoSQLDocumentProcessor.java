@@ -0,0 +1,730 @@
+package com.colintmiller.simplenosql.compiler;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a GeneratedSerialization for every class annotated with NoSQLDocument. The generated code writes and reads
+ * each field with Gson's streaming JsonWriter and JsonReader, producing the same JSON that Gson's reflective binding
+ * would. Field types without direct support (arrays, maps with non-String keys, other library classes...) fall back to
+ * a Gson TypeAdapter for just that field.
+ */
+public class NoSQLDocumentProcessor extends AbstractProcessor {
+    static final String ANNOTATION = "com.colintmiller.simplenosql.NoSQLDocument";
+    static final String SUFFIX = "_NoSQLSerialization";
+    private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+
+    private Elements elements;
+    private Types types;
+    private Messager messager;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ANNOTATION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+        messager = processingEnv.getMessager();
+
+        TypeElement annotation = elements.getTypeElement(ANNOTATION);
+        if (annotation == null) {
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "@NoSQLDocument can only be used on classes", element);
+                continue;
+            }
+            TypeElement document = (TypeElement) element;
+            try {
+                generate(document);
+            } catch (ProcessingException e) {
+                messager.printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+            } catch (IOException e) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Unable to write serialization: " + e.getMessage(),
+                        document);
+            }
+        }
+        return true;
+    }
+
+    private void generate(TypeElement document) throws IOException {
+        checkInstantiable(document);
+        String packageName = elements.getPackageOf(document).getQualifiedName().toString();
+        String className = generatedName(document);
+        String documentType = document.getQualifiedName().toString();
+
+        List<StoredField> fields = getFields(document, packageName);
+        CodeWriter code = new CodeWriter();
+        Generator generator = new Generator();
+
+        StringBuilder writeMethod = new StringBuilder();
+        StringBuilder readMethod = new StringBuilder();
+        generator.writeMethod(writeMethod, fields, documentType);
+        generator.readMethod(readMethod, fields, documentType);
+
+        code.line("// Generated by the SimpleNoSQL annotation processor. Do not edit.");
+        if (!packageName.isEmpty()) {
+            code.line("package " + packageName + ";");
+        }
+        code.line("");
+        code.line("import com.colintmiller.simplenosql.GeneratedSerialization;");
+        code.line("import com.google.gson.reflect.TypeToken;");
+        code.line("import com.google.gson.stream.JsonReader;");
+        code.line("import com.google.gson.stream.JsonToken;");
+        code.line("import com.google.gson.stream.JsonWriter;");
+        code.line("import java.io.IOException;");
+        code.line("");
+        code.line("/**");
+        code.line(" * Serialization for {@link " + documentType + "}, generated from its fields.");
+        code.line(" */");
+        code.line("public final class " + className + " extends GeneratedSerialization<" + documentType + "> {");
+        code.line("    public static final " + className + " INSTANCE = new " + className + "();");
+        for (Map.Entry<String, String> token : generator.typeTokens.entrySet()) {
+            code.line("    private static final TypeToken<" + token.getKey() + "> " + token.getValue()
+                    + " = new TypeToken<" + token.getKey() + ">() {};");
+        }
+        code.line("");
+        code.line("    public " + className + "() {");
+        code.line("        super(" + documentType + ".class);");
+        code.line("    }");
+        code.line("");
+        code.append(writeMethod);
+        code.line("");
+        code.append(readMethod);
+        code.line("}");
+
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, document);
+        Writer writer = file.openWriter();
+        try {
+            writer.write(code.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    static String generatedName(TypeElement document) {
+        StringBuilder name = new StringBuilder(document.getSimpleName());
+        Element enclosing = document.getEnclosingElement();
+        while (enclosing instanceof TypeElement) {
+            name.insert(0, enclosing.getSimpleName() + "_");
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name.append(SUFFIX).toString();
+    }
+
+    private void checkInstantiable(TypeElement document) {
+        if (document.getModifiers().contains(Modifier.ABSTRACT)) {
+            throw new ProcessingException(document, "@NoSQLDocument classes can't be abstract");
+        }
+        if (!document.getTypeParameters().isEmpty()) {
+            throw new ProcessingException(document, "@NoSQLDocument classes can't have type parameters");
+        }
+        for (Element current = document; current instanceof TypeElement; current = current.getEnclosingElement()) {
+            if (current.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new ProcessingException(document, "@NoSQLDocument classes can't be private");
+            }
+            if (((TypeElement) current).getNestingKind() == NestingKind.MEMBER
+                    && !current.getModifiers().contains(Modifier.STATIC)) {
+                throw new ProcessingException(document, "Nested @NoSQLDocument classes must be static");
+            }
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(document.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return;
+            }
+        }
+        throw new ProcessingException(document, "@NoSQLDocument classes need a non-private no-argument constructor");
+    }
+
+    private List<StoredField> getFields(TypeElement document, String packageName) {
+        List<StoredField> fields = new ArrayList<StoredField>();
+        Set<String> seen = new HashSet<String>();
+        TypeElement current = document;
+        while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)
+                        || !seen.add(field.getSimpleName().toString())) {
+                    continue;
+                }
+                fields.add(storedField(document, current, field, packageName));
+            }
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) types.asElement(superclass) : null;
+        }
+        return fields;
+    }
+
+    private StoredField storedField(TypeElement document, TypeElement owner, VariableElement field,
+                                    String packageName) {
+        String name = field.getSimpleName().toString();
+        TypeMirror type = types.asMemberOf((DeclaredType) document.asType(), field);
+        boolean accessible = isAccessible(field, packageName);
+
+        String getter = null;
+        String setter = null;
+        if (!accessible) {
+            getter = findAccessor(owner, packageName, type, name, true);
+            setter = findAccessor(owner, packageName, type, name, false);
+        } else if (field.getModifiers().contains(Modifier.FINAL)) {
+            setter = findAccessor(owner, packageName, type, name, false);
+        }
+        if ((!accessible && getter == null) || ((!accessible || field.getModifiers().contains(Modifier.FINAL))
+                && setter == null)) {
+            throw new ProcessingException(field, "Field " + name + " of " + document.getQualifiedName()
+                    + " must be non-private and non-final, or have a getter and setter");
+        }
+
+        List<String> jsonNames = new ArrayList<String>();
+        jsonNames.add(name);
+        for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+            if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName()
+                    .contentEquals(SERIALIZED_NAME)) {
+                readSerializedName(annotation, jsonNames);
+            }
+        }
+        return new StoredField(type, jsonNames, accessible ? name : null, getter, setter);
+    }
+
+    private void readSerializedName(AnnotationMirror annotation, List<String> jsonNames) {
+        jsonNames.clear();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : annotation.getElementValues().entrySet()) {
+            String key = entry.getKey().getSimpleName().toString();
+            if (key.equals("value")) {
+                jsonNames.add(0, (String) entry.getValue().getValue());
+            } else if (key.equals("alternate")) {
+                @SuppressWarnings("unchecked")
+                List<? extends AnnotationValue> alternates = (List<? extends AnnotationValue>) entry.getValue()
+                        .getValue();
+                for (AnnotationValue alternate : alternates) {
+                    jsonNames.add((String) alternate.getValue());
+                }
+            }
+        }
+    }
+
+    private boolean isAccessible(Element member, String packageName) {
+        Set<Modifier> modifiers = member.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        PackageElement memberPackage = elements.getPackageOf(member);
+        return memberPackage.getQualifiedName().contentEquals(packageName);
+    }
+
+    private String findAccessor(TypeElement owner, String packageName, TypeMirror type, String name, boolean getter) {
+        String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(owner))) {
+            if (method.getModifiers().contains(Modifier.STATIC) || !isAccessible(method, packageName)) {
+                continue;
+            }
+            String methodName = method.getSimpleName().toString();
+            if (getter) {
+                boolean named = methodName.equals("get" + capitalized)
+                        || (type.getKind() == TypeKind.BOOLEAN && methodName.equals("is" + capitalized));
+                if (named && method.getParameters().isEmpty() && types.isSameType(method.getReturnType(), type)) {
+                    return methodName;
+                }
+            } else if (methodName.equals("set" + capitalized) && method.getParameters().size() == 1
+                    && types.isSameType(method.getParameters().get(0).asType(), type)) {
+                return methodName;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A field to store, and how to get at it from generated code.
+     */
+    static class StoredField {
+        final TypeMirror type;
+        final List<String> jsonNames;
+        final String fieldName;
+        final String getter;
+        final String setter;
+
+        StoredField(TypeMirror type, List<String> jsonNames, String fieldName, String getter, String setter) {
+            this.type = type;
+            this.jsonNames = jsonNames;
+            this.fieldName = fieldName;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        String get(String object) {
+            return getter != null ? object + "." + getter + "()" : object + "." + fieldName;
+        }
+
+        String set(String object, String value) {
+            return setter != null ? object + "." + setter + "(" + value + ");" : object + "." + fieldName + " = "
+                    + value + ";";
+        }
+    }
+
+    /**
+     * Writes the bodies of the generated write and read methods.
+     */
+    private class Generator {
+        // Field types that fall back to a Gson adapter, and the names of their TypeToken constants.
+        private final Map<String, String> typeTokens = new LinkedHashMap<String, String>();
+        private int variables;
+
+        private void writeMethod(StringBuilder out, List<StoredField> fields, String documentType) {
+            out.append("    @Override\n");
+            out.append("    public void write(JsonWriter writer, ").append(documentType).append(" value)")
+                    .append(" throws IOException {\n");
+            out.append("        writer.beginObject();\n");
+            for (StoredField field : fields) {
+                String indent = "        ";
+                String value = field.get("value");
+                if (!field.type.getKind().isPrimitive()) {
+                    String local = variable();
+                    out.append(indent).append(typeName(field.type)).append(' ').append(local).append(" = ")
+                            .append(value).append(";\n");
+                    out.append(indent).append("if (").append(local).append(" != null) {\n");
+                    value = local;
+                    indent += "    ";
+                }
+                out.append(indent).append("writer.name(").append(literal(field.jsonNames.get(0))).append(");\n");
+                writeValue(out, field.type, value, indent);
+                if (!field.type.getKind().isPrimitive()) {
+                    out.append("        }\n");
+                }
+            }
+            out.append("        writer.endObject();\n");
+            out.append("    }\n");
+        }
+
+        private void readMethod(StringBuilder out, List<StoredField> fields, String documentType) {
+            out.append("    @Override\n");
+            out.append("    public ").append(documentType).append(" read(JsonReader reader) throws IOException {\n");
+            out.append("        ").append(documentType).append(" value = new ").append(documentType).append("();\n");
+            out.append("        reader.beginObject();\n");
+            out.append("        while (reader.hasNext()) {\n");
+            out.append("            switch (reader.nextName()) {\n");
+            for (StoredField field : fields) {
+                for (String jsonName : field.jsonNames) {
+                    out.append("                case ").append(literal(jsonName)).append(":\n");
+                }
+                String indent = "                    ";
+                out.append("                {\n");
+                out.append(indent).append("if (reader.peek() == JsonToken.NULL) {\n");
+                out.append(indent).append("    reader.nextNull();\n");
+                out.append(indent).append("    break;\n");
+                out.append(indent).append("}\n");
+                String local = readValue(out, field.type, indent);
+                out.append(indent).append(field.set("value", local)).append("\n");
+                out.append(indent).append("break;\n");
+                out.append("                }\n");
+            }
+            out.append("                default:\n");
+            out.append("                    reader.skipValue();\n");
+            out.append("                    break;\n");
+            out.append("            }\n");
+            out.append("        }\n");
+            out.append("        reader.endObject();\n");
+            out.append("        return value;\n");
+            out.append("    }\n");
+        }
+
+        /**
+         * Write a non-null value.
+         */
+        private void writeValue(StringBuilder out, TypeMirror type, String value, String indent) {
+            switch (type.getKind()) {
+                case BOOLEAN:
+                case DOUBLE:
+                    out.append(indent).append("writer.value(").append(value).append(");\n");
+                    return;
+                case BYTE:
+                case SHORT:
+                case INT:
+                case LONG:
+                    out.append(indent).append("writer.value((long) ").append(value).append(");\n");
+                    return;
+                case FLOAT:
+                    out.append(indent).append("writer.value((Number) Float.valueOf(").append(value).append("));\n");
+                    return;
+                case CHAR:
+                    out.append(indent).append("writer.value(String.valueOf(").append(value).append("));\n");
+                    return;
+                default:
+                    break;
+            }
+
+            String name = erasedName(type);
+            if (name.equals("java.lang.Boolean")) {
+                out.append(indent).append("writer.value(").append(value).append(".booleanValue());\n");
+            } else if (name.equals("java.lang.Byte") || name.equals("java.lang.Short")
+                    || name.equals("java.lang.Integer") || name.equals("java.lang.Long")) {
+                out.append(indent).append("writer.value(").append(value).append(".longValue());\n");
+            } else if (name.equals("java.lang.Double")) {
+                out.append(indent).append("writer.value(").append(value).append(".doubleValue());\n");
+            } else if (name.equals("java.lang.Float")) {
+                out.append(indent).append("writer.value((Number) ").append(value).append(");\n");
+            } else if (name.equals("java.lang.Character")) {
+                out.append(indent).append("writer.value(String.valueOf(").append(value).append("));\n");
+            } else if (name.equals("java.lang.String")) {
+                out.append(indent).append("writer.value(").append(value).append(");\n");
+            } else if (isPlainEnum(type)) {
+                out.append(indent).append("writer.value(").append(value).append(".name());\n");
+            } else if (isDocument(type)) {
+                out.append(indent).append(serializationOf(type)).append(".INSTANCE.write(writer, ").append(value)
+                        .append(");\n");
+            } else if (isCollection(type)) {
+                TypeMirror element = typeArgument(type, 0);
+                String item = variable();
+                out.append(indent).append("writer.beginArray();\n");
+                out.append(indent).append("for (").append(typeName(element)).append(' ').append(item).append(" : ")
+                        .append(value).append(") {\n");
+                out.append(indent).append("    if (").append(item).append(" == null) {\n");
+                out.append(indent).append("        writer.nullValue();\n");
+                out.append(indent).append("    } else {\n");
+                writeValue(out, element, item, indent + "        ");
+                out.append(indent).append("    }\n");
+                out.append(indent).append("}\n");
+                out.append(indent).append("writer.endArray();\n");
+            } else if (isStringMap(type)) {
+                TypeMirror valueType = typeArgument(type, 1);
+                String entry = variable();
+                out.append(indent).append("writer.beginObject();\n");
+                out.append(indent).append("for (java.util.Map.Entry<String, ").append(typeName(valueType))
+                        .append("> ").append(entry).append(" : ").append(value).append(".entrySet()) {\n");
+                out.append(indent).append("    writer.name(String.valueOf(").append(entry).append(".getKey()));\n");
+                out.append(indent).append("    if (").append(entry).append(".getValue() == null) {\n");
+                out.append(indent).append("        writer.nullValue();\n");
+                out.append(indent).append("    } else {\n");
+                writeValue(out, valueType, entry + ".getValue()", indent + "        ");
+                out.append(indent).append("    }\n");
+                out.append(indent).append("}\n");
+                out.append(indent).append("writer.endObject();\n");
+            } else {
+                out.append(indent).append("adapter(").append(typeToken(type)).append(").write(writer, ").append(value)
+                        .append(");\n");
+            }
+        }
+
+        /**
+         * Read a value that isn't null into a new local variable.
+         *
+         * @return the name of the variable.
+         */
+        private String readValue(StringBuilder out, TypeMirror type, String indent) {
+            String local = variable();
+            String declaration = indent + typeName(type) + " " + local + " = ";
+            switch (type.getKind()) {
+                case BOOLEAN:
+                    out.append(declaration).append("reader.nextBoolean();\n");
+                    return local;
+                case BYTE:
+                case SHORT:
+                case CHAR:
+                case FLOAT:
+                    out.append(declaration).append(readBoxable(type.getKind())).append(";\n");
+                    return local;
+                case INT:
+                    out.append(declaration).append("reader.nextInt();\n");
+                    return local;
+                case LONG:
+                    out.append(declaration).append("reader.nextLong();\n");
+                    return local;
+                case DOUBLE:
+                    out.append(declaration).append("reader.nextDouble();\n");
+                    return local;
+                default:
+                    break;
+            }
+
+            String name = erasedName(type);
+            if (name.equals("java.lang.Boolean")) {
+                out.append(declaration).append("reader.nextBoolean();\n");
+            } else if (name.equals("java.lang.Byte")) {
+                out.append(declaration).append(readBoxable(TypeKind.BYTE)).append(";\n");
+            } else if (name.equals("java.lang.Short")) {
+                out.append(declaration).append(readBoxable(TypeKind.SHORT)).append(";\n");
+            } else if (name.equals("java.lang.Integer")) {
+                out.append(declaration).append("reader.nextInt();\n");
+            } else if (name.equals("java.lang.Long")) {
+                out.append(declaration).append("reader.nextLong();\n");
+            } else if (name.equals("java.lang.Double")) {
+                out.append(declaration).append("reader.nextDouble();\n");
+            } else if (name.equals("java.lang.Float")) {
+                out.append(declaration).append(readBoxable(TypeKind.FLOAT)).append(";\n");
+            } else if (name.equals("java.lang.Character")) {
+                out.append(declaration).append(readBoxable(TypeKind.CHAR)).append(";\n");
+            } else if (name.equals("java.lang.String")) {
+                out.append(declaration).append("reader.peek() == JsonToken.BOOLEAN")
+                        .append(" ? Boolean.toString(reader.nextBoolean()) : reader.nextString();\n");
+            } else if (isPlainEnum(type)) {
+                out.append(declaration).append("enumValue(").append(name).append(".class, reader.nextString());\n");
+            } else if (isDocument(type)) {
+                out.append(declaration).append(serializationOf(type)).append(".INSTANCE.read(reader);\n");
+            } else if (isCollection(type)) {
+                TypeMirror element = typeArgument(type, 0);
+                out.append(declaration).append("new ").append(collectionImplementation(type)).append("<")
+                        .append(typeName(element)).append(">();\n");
+                out.append(indent).append("reader.beginArray();\n");
+                out.append(indent).append("while (reader.hasNext()) {\n");
+                out.append(indent).append("    if (reader.peek() == JsonToken.NULL) {\n");
+                out.append(indent).append("        reader.nextNull();\n");
+                out.append(indent).append("        ").append(local).append(".add(null);\n");
+                out.append(indent).append("    } else {\n");
+                String item = readValue(out, element, indent + "        ");
+                out.append(indent).append("        ").append(local).append(".add(").append(item).append(");\n");
+                out.append(indent).append("    }\n");
+                out.append(indent).append("}\n");
+                out.append(indent).append("reader.endArray();\n");
+            } else if (isStringMap(type)) {
+                TypeMirror valueType = typeArgument(type, 1);
+                String key = variable();
+                out.append(declaration).append("new ").append(mapImplementation(type)).append("<String, ")
+                        .append(typeName(valueType)).append(">();\n");
+                out.append(indent).append("reader.beginObject();\n");
+                out.append(indent).append("while (reader.hasNext()) {\n");
+                out.append(indent).append("    String ").append(key).append(" = reader.nextName();\n");
+                out.append(indent).append("    if (reader.peek() == JsonToken.NULL) {\n");
+                out.append(indent).append("        reader.nextNull();\n");
+                out.append(indent).append("        ").append(local).append(".put(").append(key)
+                        .append(", null);\n");
+                out.append(indent).append("    } else {\n");
+                String item = readValue(out, valueType, indent + "        ");
+                out.append(indent).append("        ").append(local).append(".put(").append(key).append(", ")
+                        .append(item).append(");\n");
+                out.append(indent).append("    }\n");
+                out.append(indent).append("}\n");
+                out.append(indent).append("reader.endObject();\n");
+            } else {
+                out.append(declaration).append("adapter(").append(typeToken(type)).append(").read(reader);\n");
+            }
+            return local;
+        }
+
+        private String readBoxable(TypeKind kind) {
+            switch (kind) {
+                case BYTE:
+                    return "(byte) reader.nextInt()";
+                case SHORT:
+                    return "(short) reader.nextInt()";
+                case FLOAT:
+                    return "(float) reader.nextDouble()";
+                case CHAR:
+                    return "reader.nextString().charAt(0)";
+                default:
+                    throw new IllegalArgumentException(kind.toString());
+            }
+        }
+
+        private String typeToken(TypeMirror type) {
+            String name = typeName(boxed(type));
+            String token = typeTokens.get(name);
+            if (token == null) {
+                token = "TYPE_" + typeTokens.size();
+                typeTokens.put(name, token);
+            }
+            return token;
+        }
+
+        private String variable() {
+            return "v" + variables++;
+        }
+    }
+
+    private TypeMirror boxed(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return types.boxedClass((PrimitiveType) type).asType();
+        }
+        return type;
+    }
+
+    private String typeName(TypeMirror type) {
+        return type.toString();
+    }
+
+    private String erasedName(TypeMirror type) {
+        return types.erasure(type).toString();
+    }
+
+    private boolean isPlainEnum(TypeMirror type) {
+        Element element = types.asElement(type);
+        if (element == null || element.getKind() != ElementKind.ENUM) {
+            return false;
+        }
+        // Gson honours @SerializedName on enum constants, so leave those to its adapter.
+        for (VariableElement constant : ElementFilter.fieldsIn(element.getEnclosedElements())) {
+            for (AnnotationMirror annotation : constant.getAnnotationMirrors()) {
+                if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName()
+                        .contentEquals(SERIALIZED_NAME)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isDocument(TypeMirror type) {
+        Element element = types.asElement(type);
+        if (element == null || element.getKind() != ElementKind.CLASS) {
+            return false;
+        }
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName()
+                    .contentEquals(ANNOTATION)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String serializationOf(TypeMirror type) {
+        TypeElement element = (TypeElement) types.asElement(type);
+        String packageName = elements.getPackageOf(element).getQualifiedName().toString();
+        String name = generatedName(element);
+        return packageName.isEmpty() ? name : packageName + "." + name;
+    }
+
+    private boolean isCollection(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED || ((DeclaredType) type).getTypeArguments().size() != 1) {
+            return false;
+        }
+        TypeMirror element = typeArgument(type, 0);
+        return collectionImplementation(type) != null && element.getKind() == TypeKind.DECLARED
+                && isAssignableToErasure(type, "java.util.Collection");
+    }
+
+    private boolean isStringMap(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED || ((DeclaredType) type).getTypeArguments().size() != 2) {
+            return false;
+        }
+        TypeMirror key = typeArgument(type, 0);
+        TypeMirror value = typeArgument(type, 1);
+        return mapImplementation(type) != null && key.getKind() == TypeKind.DECLARED
+                && erasedName(key).equals("java.lang.String") && value.getKind() == TypeKind.DECLARED
+                && isAssignableToErasure(type, "java.util.Map");
+    }
+
+    private String collectionImplementation(TypeMirror type) {
+        String name = erasedName(type);
+        if (name.equals("java.util.Collection") || name.equals("java.util.List")) {
+            return "java.util.ArrayList";
+        } else if (name.equals("java.util.Set")) {
+            return "java.util.LinkedHashSet";
+        } else if (name.equals("java.util.SortedSet")) {
+            return "java.util.TreeSet";
+        } else if (name.equals("java.util.ArrayList") || name.equals("java.util.LinkedList")
+                || name.equals("java.util.HashSet") || name.equals("java.util.LinkedHashSet")
+                || name.equals("java.util.TreeSet")) {
+            return name;
+        }
+        return null;
+    }
+
+    private String mapImplementation(TypeMirror type) {
+        String name = erasedName(type);
+        if (name.equals("java.util.Map")) {
+            return "java.util.LinkedHashMap";
+        } else if (name.equals("java.util.SortedMap")) {
+            return "java.util.TreeMap";
+        } else if (name.equals("java.util.HashMap") || name.equals("java.util.LinkedHashMap")
+                || name.equals("java.util.TreeMap")) {
+            return name;
+        }
+        return null;
+    }
+
+    private boolean isAssignableToErasure(TypeMirror type, String className) {
+        TypeElement target = elements.getTypeElement(className);
+        return target != null && types.isAssignable(types.erasure(type), types.erasure(target.asType()));
+    }
+
+    private TypeMirror typeArgument(TypeMirror type, int index) {
+        return ((DeclaredType) type).getTypeArguments().get(index);
+    }
+
+    static String literal(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                literal.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                literal.append(String.format("\\u%04x", (int) c));
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    private static class CodeWriter {
+        private final StringBuilder source = new StringBuilder();
+
+        void line(String line) {
+            source.append(line).append('\n');
+        }
+
+        void append(CharSequence code) {
+            source.append(code);
+        }
+
+        @Override
+        public String toString() {
+            return source.toString();
+        }
+    }
+
+    private static class ProcessingException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        // Only used while processing the round it was thrown in, so it never needs to be serialized.
+        private final transient Element element;
+
+        ProcessingException(Element element, String message) {
+            super(message);
+            this.element = element;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+# Serializers generated for @NoSQLDocument classes are found by name from the annotated class, and created reflectively.
+-keepattributes RuntimeVisibleAnnotations
+-keep class * extends com.colintmiller.simplenosql.GeneratedSerialization {
+    public <init>();
+}
+-keepnames @com.colintmiller.simplenosql.NoSQLDocument class *
@@ -0,0 +1,181 @@
+package com.colintmiller.simplenosql;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.colintmiller.simplenosql.db.DataStore;
+import com.colintmiller.simplenosql.db.SimpleNoSQLDBHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Rough throughput numbers for the data store. These aren't strict assertions on speed (emulators vary far too much
+ * for that), but they log ops/sec under the "DataStoreBenchmark" tag so changes can be compared before and after.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DataStoreBenchmark {
+    private static final String TAG = "DataStoreBenchmark";
+    private static final String BUCKET = "benchmark";
+    private static final int OPERATIONS = 500;
+
+    private GsonSerialization serialization;
+    private Context context;
+
+    public DataStoreBenchmark() {
+        serialization = new GsonSerialization();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        context = getInstrumentation().getTargetContext();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SimpleNoSQLDBHelper helper = new SimpleNoSQLDBHelper(context, serialization, serialization);
+        helper.deleteBucket(BUCKET);
+        helper.close();
+    }
+
+    @Test
+    public void benchmarkSharedConnection() throws Throwable {
+        // Before: a new helper for every operation, opening and closing the database each time.
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            SimpleNoSQLDBHelper helper = new SimpleNoSQLDBHelper(context, serialization, serialization);
+            helper.saveEntity(entity(i));
+            helper.getEntities(BUCKET, "id" + i, SampleBean.class, null);
+            helper.close();
+        }
+        long perOperation = SystemClock.elapsedRealtime() - start;
+
+        // After: one helper whose connection stays open, with a serializing view per "query".
+        SimpleNoSQLDBHelper shared = new SimpleNoSQLDBHelper(context, serialization, serialization);
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            DataStore store = shared.withSerialization(serialization, serialization);
+            store.saveEntity(entity(i));
+            store.getEntities(BUCKET, "id" + i, SampleBean.class, null);
+        }
+        long sharedConnection = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(OPERATIONS, shared.getEntities(BUCKET, SampleBean.class, null).size());
+        shared.close();
+
+        logThroughput("open/close per operation", perOperation);
+        logThroughput("shared connection", sharedConnection);
+    }
+
+    @Test
+    public void benchmarkBatchSave() throws Throwable {
+        SimpleNoSQLDBHelper helper = new SimpleNoSQLDBHelper(context, serialization, serialization);
+        List<NoSQLEntity<SampleBean>> entities = new ArrayList<NoSQLEntity<SampleBean>>(OPERATIONS);
+        for (int i = 0; i < OPERATIONS; i++) {
+            entities.add(entity(i));
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        for (NoSQLEntity<SampleBean> entity : entities) {
+            helper.saveEntity(entity);
+        }
+        long oneAtATime = SystemClock.elapsedRealtime() - start;
+        helper.deleteBucket(BUCKET);
+
+        start = SystemClock.elapsedRealtime();
+        helper.saveEntities(entities);
+        long batched = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(OPERATIONS, helper.getEntities(BUCKET, SampleBean.class, null).size());
+        helper.close();
+
+        logThroughput("saveEntity per entity", oneAtATime);
+        logThroughput("saveEntities in one transaction", batched);
+    }
+
+    @Test
+    public void benchmarkConcurrentReadsAndWrites() throws Throwable {
+        for (boolean writeAheadLogging : new boolean[] {false, true}) {
+            SimpleNoSQLDBHelper helper = new SimpleNoSQLDBHelper(context, serialization, serialization,
+                    writeAheadLogging);
+            List<NoSQLEntity<SampleBean>> entities = new ArrayList<NoSQLEntity<SampleBean>>(OPERATIONS);
+            for (int i = 0; i < OPERATIONS; i++) {
+                entities.add(entity(i));
+            }
+            helper.saveEntities(entities);
+
+            for (int threads : new int[] {1, 2, 4, 8}) {
+                long elapsed = runReadersAndWriters(helper, threads);
+                logThroughput((writeAheadLogging ? "write-ahead log, " : "rollback journal, ") + threads +
+                        " threads, half reading and half writing", elapsed);
+            }
+
+            assertEquals(OPERATIONS, helper.getEntities(BUCKET, SampleBean.class, null).size());
+            helper.deleteBucket(BUCKET);
+            helper.close();
+        }
+    }
+
+    /**
+     * Split OPERATIONS between the given number of threads, like dispatchers sharing one helper. Every other thread
+     * saves single entities while the rest retrieve them.
+     */
+    private long runReadersAndWriters(final SimpleNoSQLDBHelper helper, int threads) throws InterruptedException {
+        final int perThread = OPERATIONS / threads;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final boolean writer = threads == 1 || t % 2 == 0;
+            final int offset = t * perThread;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        DataStore store = helper.withSerialization(serialization, serialization);
+                        for (int i = offset; i < offset + perThread; i++) {
+                            if (writer) {
+                                store.saveEntity(entity(i));
+                            } else {
+                                store.getEntities(BUCKET, "id" + i, SampleBean.class, null);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        long begin = SystemClock.elapsedRealtime();
+        start.countDown();
+        done.await();
+        return SystemClock.elapsedRealtime() - begin;
+    }
+
+    private NoSQLEntity<SampleBean> entity(int i) {
+        SampleBean bean = new SampleBean();
+        bean.setId(i);
+        bean.setName("bean" + i);
+        return new NoSQLEntity<SampleBean>(BUCKET, "id" + i, bean);
+    }
+
+    private void logThroughput(String name, long elapsedMillis) {
+        double opsPerSecond = OPERATIONS * 1000.0 / Math.max(1, elapsedMillis);
+        Log.i(TAG, String.format("%s: %d ops in %dms (%.1f ops/sec)", name, OPERATIONS, elapsedMillis, opsPerSecond));
+    }
+}
@@ -14,6 +14,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -135,4 +136,63 @@ public class NoSQLDeleteTaskTest {
 
         assertEquals(0, cursor.getCount());
     }
+
+    @Test
+    public void testDeleteSeveralEntities() throws Throwable {
+        final List<NoSQLEntity<SampleBean>> lots = new ArrayList<NoSQLEntity<SampleBean>>(10);
+        for (int i = 0; i < 10; i++) {
+            NoSQLEntity<SampleBean> entity = new NoSQLEntity<SampleBean>("deleteSeveral", "id" + i);
+            SampleBean bean = new SampleBean();
+            bean.setId(i);
+            bean.setExists(i % 2 == 0);
+            entity.setData(bean);
+            lots.add(entity);
+        }
+
+        NoSQL.with(context).using(SampleBean.class)
+                .bucketId("deleteSeveral")
+                .deleteNow();
+        NoSQL.with(context).index("deleteSeveral", "id");
+        NoSQL.with(context).using(SampleBean.class)
+                .saveNow(lots);
+
+        final int[] deleted = new int[1];
+        DeletionObserver observer = new DeletionObserver() {
+            @Override
+            public void entitiesDeleted(int count) {
+                deleted[0] = count;
+            }
+
+            @Override
+            public void hasFinished() {
+                signal.countDown();
+            }
+        };
+        NoSQL.with(context).using(SampleBean.class)
+                .bucketId("deleteSeveral")
+                .entityIds(Arrays.asList("id0", "id1", "missing"))
+                .addObserver(observer)
+                .delete();
+
+        signal.await(2, TimeUnit.SECONDS);
+        assertEquals(2, deleted[0]);
+
+        int deletedNow = NoSQL.with(context).using(SampleBean.class)
+                .bucketId("deleteSeveral")
+                .where(FieldCondition.equalTo("exists", true))
+                .where(FieldCondition.lessThan("id", 8))
+                .deleteNow();
+        assertEquals(3, deletedNow);
+
+        List<NoSQLEntity<SampleBean>> remaining = NoSQL.with(context).using(SampleBean.class)
+                .bucketId("deleteSeveral")
+                .retrieveNow();
+        assertEquals(5, remaining.size());
+        assertEquals(0, NoSQL.with(context).using(SampleBean.class)
+                .bucketId("deleteSeveral")
+                .where(FieldCondition.lessThan("id", 8))
+                .where(FieldCondition.equalTo("exists", true))
+                .retrieveNow()
+                .size());
+    }
 }
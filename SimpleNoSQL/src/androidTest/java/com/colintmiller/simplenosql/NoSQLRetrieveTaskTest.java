@@ -1,14 +1,21 @@
 package com.colintmiller.simplenosql;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
+import com.colintmiller.simplenosql.db.SimpleNoSQLContract;
+import com.colintmiller.simplenosql.db.SimpleNoSQLDBHelper;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -142,6 +149,290 @@ public class NoSQLRetrieveTaskTest {
         assertEquals("entity2", results.get(0).getId());
     }
 
+    @Test
+    public void testGettingResultsWithConditions() throws Throwable {
+        List<NoSQLEntity<SampleBean>> entities = new ArrayList<NoSQLEntity<SampleBean>>(5);
+        for (int i = 0; i < 5; i++) {
+            NoSQLEntity<SampleBean> data = new NoSQLEntity<SampleBean>(bucketId, "entity" + i);
+            SampleBean bean = new SampleBean();
+            bean.setId(i + 1);
+            bean.setName(i % 2 == 0 ? "even" : "odd");
+            bean.setExists(i < 3);
+            data.setData(bean);
+            entities.add(data);
+        }
+
+        saveBean(entities.toArray(new NoSQLEntity[1]));
+
+        NoSQL.with(context).using(SampleBean.class)
+                .bucketId(bucketId)
+                .where(FieldCondition.between("id", 2, 5))
+                .where(FieldCondition.in("name", "even", "other"))
+                .where(FieldCondition.equalTo("exists", true))
+                .retrieve(getCallback());
+
+        signal.await(2, TimeUnit.SECONDS);
+
+        assertEquals(1, results.size());
+        assertEquals("entity2", results.get(0).getId());
+        assertEquals(3, results.get(0).getData().getId());
+    }
+
+    @Test
+    public void testGettingResultsWithIndex() throws Throwable {
+        GsonSerialization serialization = new GsonSerialization();
+        SimpleNoSQLDBHelper helper = new SimpleNoSQLDBHelper(context, serialization, serialization);
+
+        List<NoSQLEntity<SampleBean>> entities = new ArrayList<NoSQLEntity<SampleBean>>(5);
+        for (int i = 0; i < 5; i++) {
+            SampleBean bean = new SampleBean();
+            bean.setId(i);
+            bean.setName("name" + i);
+            entities.add(new NoSQLEntity<SampleBean>(bucketId, "entity" + i, bean));
+        }
+        helper.saveEntities(entities.subList(0, 3));
+        helper.createIndex(bucketId, "id");
+        helper.saveEntities(entities.subList(3, 5));
+
+        List<FieldCondition> conditions = new ArrayList<FieldCondition>();
+        conditions.add(FieldCondition.greaterThanOrEqualTo("id", 2));
+        conditions.add(FieldCondition.lessThan("id", 4));
+        List<NoSQLEntity<SampleBean>> indexed = helper.getEntities(bucketId, SampleBean.class, null, conditions);
+        assertEquals(2, indexed.size());
+
+        helper.deleteEntity(bucketId, "entity2");
+        indexed = helper.getEntities(bucketId, SampleBean.class, null, conditions);
+        assertEquals(1, indexed.size());
+        assertEquals("entity3", indexed.get(0).getId());
+
+        helper.deleteBucket(bucketId);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        String[] args = {bucketId};
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, SimpleNoSQLContract.IndexEntry.TABLE_NAME,
+                SimpleNoSQLContract.IndexEntry.COLUMN_NAME_BUCKET_ID + "=?", args));
+        helper.close();
+    }
+
+    @Test
+    public void testConditionsOnMixedTypes() throws Throwable {
+        GsonSerialization serialization = new GsonSerialization();
+        SimpleNoSQLDBHelper helper = new SimpleNoSQLDBHelper(context, serialization, serialization);
+
+        // Conditions are answered in SQL on a plain bucket, from the raw data on a compressed one and partly from the
+        // index on an indexed one. All three have to agree.
+        String[] buckets = {"mixedSql", "mixedRaw", "mixedIndexed"};
+        for (String bucket : buckets) {
+            helper.deleteBucket(bucket);
+        }
+        helper.setCompression("mixedRaw", true);
+        helper.createIndex("mixedIndexed", "age");
+        Object[] ages = {5, "5", "abc", true, 1};
+        String[] ids = {"number5", "string5", "text", "yes", "one"};
+        for (String bucket : buckets) {
+            List<NoSQLEntity<Aged>> entities = new ArrayList<NoSQLEntity<Aged>>();
+            for (int i = 0; i < ages.length; i++) {
+                entities.add(new NoSQLEntity<Aged>(bucket, ids[i], new Aged(ages[i])));
+            }
+            helper.saveEntities(entities);
+        }
+
+        for (String bucket : buckets) {
+            assertEquals(bucket, Arrays.asList("number5"), mixedIds(helper, bucket, FieldCondition.greaterThan("age", 3)));
+            assertEquals(bucket, Arrays.asList("yes"), mixedIds(helper, bucket, FieldCondition.equalTo("age", true)));
+            assertEquals(bucket, Arrays.asList("one"), mixedIds(helper, bucket, FieldCondition.equalTo("age", 1)));
+            assertEquals(bucket, Arrays.asList("one", "string5"),
+                    mixedIds(helper, bucket, FieldCondition.in("age", "5", 1)));
+            assertEquals(bucket, Arrays.asList("string5", "text"),
+                    mixedIds(helper, bucket, FieldCondition.greaterThanOrEqualTo("age", "0")));
+            assertEquals(bucket, 0, mixedIds(helper, bucket, FieldCondition.between("age", 0, "z")).size());
+        }
+        helper.close();
+    }
+
+    @Test
+    public void testNullConditionOnMixedTypes() throws Throwable {
+        GsonSerialization serialization = new GsonSerialization();
+        SimpleNoSQLDBHelper helper = new SimpleNoSQLDBHelper(context, serialization, serialization);
+
+        // Objects and arrays are not null, whether the condition runs in SQL or against the raw data.
+        String[] buckets = {"nullSql", "nullRaw", "nullIndexed"};
+        for (String bucket : buckets) {
+            helper.deleteBucket(bucket);
+        }
+        helper.setCompression("nullRaw", true);
+        helper.createIndex("nullIndexed", "age");
+        Object[] ages = {Collections.singletonMap("years", 5), Arrays.asList(5), 5};
+        String[] ids = {"object", "array", "number"};
+        for (String bucket : buckets) {
+            List<NoSQLEntity<Aged>> entities = new ArrayList<NoSQLEntity<Aged>>();
+            for (int i = 0; i < ages.length; i++) {
+                entities.add(new NoSQLEntity<Aged>(bucket, ids[i], new Aged(ages[i])));
+            }
+            entities.add(new NoSQLEntity<Aged>(bucket, "missing", new Aged(null)));
+            helper.saveEntities(entities);
+        }
+
+        for (String bucket : buckets) {
+            assertEquals(bucket, Arrays.asList("missing"), mixedIds(helper, bucket, FieldCondition.equalTo("age", null)));
+            assertEquals(bucket, Arrays.asList("number"), mixedIds(helper, bucket, FieldCondition.equalTo("age", 5)));
+        }
+        helper.close();
+    }
+
+    @Test
+    public void testConditionsSkipBinaryData() throws Throwable {
+        GsonSerialization serialization = new GsonSerialization();
+        BinarySerialization binary = new BinarySerialization();
+        SimpleNoSQLDBHelper helper = new SimpleNoSQLDBHelper(context, serialization, serialization);
+        helper.deleteBucket("binaryConditions");
+
+        SampleBean bean = new SampleBean();
+        bean.setId(5);
+        helper.saveEntity(new NoSQLEntity<SampleBean>("binaryConditions", "json", bean));
+        helper.withSerialization(binary, binary)
+                .saveEntity(new NoSQLEntity<SampleBean>("binaryConditions", "binary", bean));
+
+        // The binary entity never matches, rather than failing the whole query as malformed JSON.
+        List<FieldCondition> conditions = Collections.singletonList(FieldCondition.greaterThan("id", 0));
+        List<NoSQLEntity<SampleBean>> matched = helper.getEntities("binaryConditions", SampleBean.class, null,
+                conditions);
+        assertEquals(1, matched.size());
+        assertEquals("json", matched.get(0).getId());
+
+        assertEquals(1, helper.deleteEntitiesWhere("binaryConditions", conditions));
+        assertEquals(1, helper.withSerialization(binary, binary)
+                .getEntities("binaryConditions", SampleBean.class, null).size());
+        helper.close();
+    }
+
+    // Holds a field of any JSON type, for testing conditions on fields whose type differs between entities.
+    private static class Aged {
+        private Object age;
+
+        Aged(Object age) {
+            this.age = age;
+        }
+    }
+
+    private static List<String> mixedIds(SimpleNoSQLDBHelper helper, String bucket, FieldCondition condition) {
+        List<String> ids = new ArrayList<String>();
+        for (NoSQLEntity<Aged> entity : helper.getEntities(bucket, Aged.class, null,
+                Collections.singletonList(condition))) {
+            ids.add(entity.getId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @Test
+    public void testGettingPagedResults() throws Throwable {
+        List<NoSQLEntity<SampleBean>> entities = new ArrayList<NoSQLEntity<SampleBean>>(5);
+        for (int i = 0; i < 5; i++) {
+            NoSQLEntity<SampleBean> data = new NoSQLEntity<SampleBean>(bucketId, "entity" + i);
+            SampleBean bean = new SampleBean();
+            bean.setId(i);
+            data.setData(bean);
+            entities.add(data);
+        }
+        saveBean(entities.toArray(new NoSQLEntity[1]));
+
+        final List<String> tokens = new ArrayList<String>();
+        String token = null;
+        for (int page = 0; page < 3; page++) {
+            signal = new CountDownLatch(1);
+            NoSQL.with(context).using(SampleBean.class)
+                    .bucketId(bucketId)
+                    .limit(2)
+                    .after(token)
+                    .retrieve(new PagedRetrievalCallback<SampleBean>() {
+                        @Override
+                        public void retrievedPage(List<NoSQLEntity<SampleBean>> entities, String continuationToken) {
+                            results.addAll(entities);
+                            tokens.add(continuationToken);
+                            signal.countDown();
+                        }
+                    });
+            signal.await(2, TimeUnit.SECONDS);
+            token = tokens.get(page);
+        }
+
+        assertEquals(5, results.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("entity" + i, results.get(i).getId());
+        }
+        assertEquals("entity1", tokens.get(0));
+        assertEquals("entity3", tokens.get(1));
+        assertNull(tokens.get(2));
+    }
+
+    @Test
+    public void testStreamingResults() throws Throwable {
+        List<NoSQLEntity<SampleBean>> entities = new ArrayList<NoSQLEntity<SampleBean>>(5);
+        for (int i = 0; i < 5; i++) {
+            entities.add(getTestEntry(bucketId, "entity" + i));
+        }
+        saveBean(entities.toArray(new NoSQLEntity[1]));
+
+        final List<Integer> chunkSizes = new ArrayList<Integer>();
+        NoSQL.with(context).using(SampleBean.class)
+                .bucketId(bucketId)
+                .chunkSize(2)
+                .retrieve(new StreamingRetrievalCallback<SampleBean>() {
+                    @Override
+                    public void retrievedChunk(List<NoSQLEntity<SampleBean>> entities) {
+                        chunkSizes.add(entities.size());
+                        results.addAll(entities);
+                    }
+
+                    @Override
+                    public void retrievalComplete() {
+                        signal.countDown();
+                    }
+                });
+
+        signal.await(2, TimeUnit.SECONDS);
+
+        assertEquals(5, results.size());
+        assertEquals(3, chunkSizes.size());
+        assertEquals(Integer.valueOf(2), chunkSizes.get(0));
+        assertEquals(Integer.valueOf(2), chunkSizes.get(1));
+        assertEquals(Integer.valueOf(1), chunkSizes.get(2));
+    }
+
+    @Test
+    public void testGettingResultsByEntityIds() throws Throwable {
+        // More ids than fit in one query, so they're read in several.
+        List<NoSQLEntity<SampleBean>> entities = new ArrayList<NoSQLEntity<SampleBean>>(1200);
+        List<String> ids = new ArrayList<String>(1201);
+        for (int i = 0; i < 1200; i++) {
+            entities.add(getTestEntry(bucketId, "entity" + i));
+            ids.add(0, "entity" + i);
+        }
+        ids.add(600, "missing");
+        saveBean(entities.toArray(new NoSQLEntity[1]));
+
+        final List<String> missing = new ArrayList<String>();
+        NoSQL.with(context).using(SampleBean.class)
+                .bucketId(bucketId)
+                .entityIds(ids)
+                .onMissing(new MissingEntitiesCallback() {
+                    @Override
+                    public void entitiesMissing(List<String> entityIds) {
+                        missing.addAll(entityIds);
+                    }
+                })
+                .retrieve(getCallback());
+
+        signal.await(5, TimeUnit.SECONDS);
+
+        assertEquals(1200, results.size());
+        for (int i = 0; i < 1200; i++) {
+            assertEquals("Results should be in requested order", "entity" + (1199 - i), results.get(i).getId());
+        }
+        assertEquals(1, missing.size());
+        assertEquals("missing", missing.get(0));
+    }
+
     @Test
     public void testGettingOrderedResults() throws Throwable {
 
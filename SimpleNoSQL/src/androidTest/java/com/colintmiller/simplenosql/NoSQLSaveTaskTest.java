@@ -8,6 +8,8 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import com.colintmiller.simplenosql.db.SimpleNoSQLContract;
 import com.colintmiller.simplenosql.db.SimpleNoSQLDBHelper;
+import com.colintmiller.simplenosql.threading.AdaptiveDispatchStrategy;
+import com.colintmiller.simplenosql.threading.ThreadDispatchStrategy;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -16,6 +18,8 @@ import org.junit.runner.RunWith;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
@@ -110,6 +114,131 @@ public class NoSQLSaveTaskTest {
         }
     }
 
+    @Test
+    public void testGroupCommit() throws Throwable {
+        NoSQL noSQL = NoSQL.with(context).withGroupCommit(16, 10);
+        signal = new CountDownLatch(20);
+        try {
+            for (int i = 0; i < 20; i++) {
+                NoSQLEntity<SampleBean> entity = new NoSQLEntity<SampleBean>("grouped", "entity" + i);
+                SampleBean data = new SampleBean();
+                data.setId(i);
+                entity.setData(data);
+                noSQL.using(SampleBean.class)
+                        .addObserver(getObserver())
+                        .save(entity);
+            }
+            signal.await(3, TimeUnit.SECONDS);
+        } finally {
+            noSQL.withGroupCommit(1, 0);
+        }
+
+        assertEquals(0, signal.getCount());
+        SimpleNoSQLDBHelper sqldbHelper = new SimpleNoSQLDBHelper(getInstrumentation().getTargetContext(), serialization, serialization);
+        SQLiteDatabase db = sqldbHelper.getReadableDatabase();
+        String[] columns = {SimpleNoSQLContract.EntityEntry.COLUMN_NAME_ENTITY_ID};
+        String[] selectionArgs = {"grouped"};
+        Cursor cursor = db.query(SimpleNoSQLContract.EntityEntry.TABLE_NAME, columns,
+                SimpleNoSQLContract.EntityEntry.COLUMN_NAME_BUCKET_ID + "=?",
+                selectionArgs, null, null, null);
+        assertEquals(20, cursor.getCount());
+        cursor.close();
+    }
+
+    @Test
+    public void testSaveOnExecutor() throws Throwable {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        NoSQL noSQL = NoSQL.with(context).withExecutor(executor);
+        signal = new CountDownLatch(10);
+        try {
+            for (int i = 0; i < 10; i++) {
+                NoSQLEntity<SampleBean> entity = new NoSQLEntity<SampleBean>("executed", "entity" + i);
+                SampleBean data = new SampleBean();
+                data.setId(i);
+                entity.setData(data);
+                noSQL.using(SampleBean.class)
+                        .addObserver(getObserver())
+                        .save(entity);
+            }
+            signal.await(3, TimeUnit.SECONDS);
+        } finally {
+            noSQL.withDispatchStrategy(new ThreadDispatchStrategy(4));
+            executor.shutdown();
+        }
+
+        assertEquals(0, signal.getCount());
+        SimpleNoSQLDBHelper sqldbHelper = new SimpleNoSQLDBHelper(getInstrumentation().getTargetContext(), serialization, serialization);
+        SQLiteDatabase db = sqldbHelper.getReadableDatabase();
+        String[] columns = {SimpleNoSQLContract.EntityEntry.COLUMN_NAME_ENTITY_ID};
+        String[] selectionArgs = {"executed"};
+        Cursor cursor = db.query(SimpleNoSQLContract.EntityEntry.TABLE_NAME, columns,
+                SimpleNoSQLContract.EntityEntry.COLUMN_NAME_BUCKET_ID + "=?",
+                selectionArgs, null, null, null);
+        assertEquals(10, cursor.getCount());
+        cursor.close();
+    }
+
+    @Test
+    public void testSaveWithAdaptiveThreads() throws Throwable {
+        AdaptiveDispatchStrategy strategy = new AdaptiveDispatchStrategy(0, 4, 100);
+        NoSQL noSQL = NoSQL.with(context).withDispatchStrategy(strategy);
+        signal = new CountDownLatch(10);
+        try {
+            assertEquals(0, strategy.getThreadCount());
+            for (int i = 0; i < 10; i++) {
+                NoSQLEntity<SampleBean> entity = new NoSQLEntity<SampleBean>("adaptive", "entity" + i);
+                SampleBean data = new SampleBean();
+                data.setId(i);
+                entity.setData(data);
+                noSQL.using(SampleBean.class)
+                        .addObserver(getObserver())
+                        .save(entity);
+            }
+            signal.await(3, TimeUnit.SECONDS);
+            assertEquals(0, signal.getCount());
+
+            // Every thread retires once it has been idle for the timeout.
+            long deadline = System.currentTimeMillis() + 3000;
+            while (strategy.getThreadCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, strategy.getThreadCount());
+        } finally {
+            noSQL.withDispatchStrategy(new ThreadDispatchStrategy(4));
+        }
+    }
+
+    @Test
+    public void testAdaptiveThreadsSurviveFailedQuery() throws Throwable {
+        AdaptiveDispatchStrategy strategy = new AdaptiveDispatchStrategy(1, 1, 100);
+        NoSQL noSQL = NoSQL.with(context).withDispatchStrategy(strategy);
+        signal = new CountDownLatch(1);
+        try {
+            NoSQLEntity<SampleBean> broken = new NoSQLEntity<SampleBean>("adaptiveFailure", "broken");
+            broken.setData(new SampleBean());
+            noSQL.using(SampleBean.class)
+                    .serializer(new DataSerializer() {
+                        @Override
+                        public <T> byte[] serialize(T data) {
+                            throw new IllegalStateException("Can't serialize");
+                        }
+                    })
+                    .save(broken);
+
+            // The only thread has to outlive the failure for this save to happen.
+            NoSQLEntity<SampleBean> entity = new NoSQLEntity<SampleBean>("adaptiveFailure", "saved");
+            entity.setData(new SampleBean());
+            noSQL.using(SampleBean.class)
+                    .addObserver(getObserver())
+                    .save(entity);
+            signal.await(3, TimeUnit.SECONDS);
+            assertEquals(0, signal.getCount());
+            assertEquals(1, strategy.getThreadCount());
+        } finally {
+            noSQL.withDispatchStrategy(new ThreadDispatchStrategy(4));
+        }
+    }
+
     private OperationObserver getObserver() {
         return new OperationObserver() {
             @Override
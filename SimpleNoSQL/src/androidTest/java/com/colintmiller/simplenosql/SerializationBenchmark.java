@@ -0,0 +1,168 @@
+package com.colintmiller.simplenosql;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Rough throughput and allocation numbers for serializing entities. Like {@link DataStoreBenchmark}, these only log
+ * their results (under the "SerializationBenchmark" tag) so changes can be compared before and after.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SerializationBenchmark {
+    private static final String TAG = "SerializationBenchmark";
+    private static final int OPERATIONS = 2000;
+    private static final int LARGE_OPERATIONS = 100;
+
+    @Test
+    public void benchmarkSharedGson() throws Throwable {
+        SampleBean bean = bean(0);
+
+        // Before: every query built its own GsonSerialization, and with it a fresh Gson and adapter cache.
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            GsonSerialization serialization = new GsonSerialization();
+            byte[] data = serialization.serialize(bean);
+            assertEquals(bean, new GsonSerialization().deserialize(data, SampleBean.class));
+        }
+        long perQuery = SystemClock.elapsedRealtime() - start;
+
+        // After: every query shares the default instance.
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            GsonSerialization serialization = GsonSerialization.getDefault();
+            byte[] data = serialization.serialize(bean);
+            assertEquals(bean, serialization.deserialize(data, SampleBean.class));
+        }
+        long shared = SystemClock.elapsedRealtime() - start;
+
+        logThroughput("new GsonSerialization per query", perQuery);
+        logThroughput("shared GsonSerialization", shared);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void benchmarkLargeDocumentAllocations() throws Throwable {
+        SampleBean bean = largeBean();
+        Gson gson = new Gson();
+        GsonSerialization serialization = GsonSerialization.getDefault();
+        serialization.deserialize(serialization.serialize(bean), SampleBean.class); // warm up adapters and buffers
+
+        // Before: through an intermediate String in both directions.
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < LARGE_OPERATIONS; i++) {
+            byte[] data = gson.toJson(bean).getBytes("UTF-8");
+            assertEquals(bean, gson.fromJson(new String(data, "UTF-8"), SampleBean.class));
+        }
+        long viaString = SystemClock.elapsedRealtime() - start;
+        Debug.stopAllocCounting();
+        long viaStringBytes = Debug.getThreadAllocSize();
+
+        // After: streaming straight between the bytes and Gson.
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < LARGE_OPERATIONS; i++) {
+            byte[] data = serialization.serialize(bean);
+            assertEquals(bean, serialization.deserialize(data, SampleBean.class));
+        }
+        long streaming = SystemClock.elapsedRealtime() - start;
+        Debug.stopAllocCounting();
+        long streamingBytes = Debug.getThreadAllocSize();
+
+        logAllocations("via String", viaString, viaStringBytes);
+        logAllocations("streaming", streaming, streamingBytes);
+    }
+
+    @Test
+    public void benchmarkBinaryAgainstGson() throws Throwable {
+        List<SampleBean> beans = new ArrayList<SampleBean>(OPERATIONS);
+        for (int i = 0; i < OPERATIONS; i++) {
+            beans.add(bean(i));
+        }
+        GsonSerialization gson = GsonSerialization.getDefault();
+        BinarySerialization binary = new BinarySerialization();
+
+        long gsonSize = 0;
+        long binarySize = 0;
+        for (SampleBean bean : beans) {
+            gsonSize += gson.serialize(bean).length;
+            binarySize += binary.serialize(bean).length;
+        }
+        Log.i(TAG, String.format("SampleBean size: gson %d bytes, binary %d bytes (%.0f%%)", gsonSize / OPERATIONS,
+                binarySize / OPERATIONS, binarySize * 100.0 / gsonSize));
+
+        long start = SystemClock.elapsedRealtime();
+        for (SampleBean bean : beans) {
+            assertEquals(bean, gson.deserialize(gson.serialize(bean), SampleBean.class));
+        }
+        long gsonTime = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (SampleBean bean : beans) {
+            assertEquals(bean, binary.deserialize(binary.serialize(bean), SampleBean.class));
+        }
+        long binaryTime = SystemClock.elapsedRealtime() - start;
+
+        logThroughput("gson round trip", gsonTime);
+        logThroughput("binary round trip", binaryTime);
+    }
+
+    private static SampleBean largeBean() {
+        SampleBean bean = bean(0);
+        for (int i = 0; i < 5000; i++) {
+            bean.getMapping().put("key" + i, "value with some length to it " + i);
+            bean.getListing().add("item with some length to it " + i);
+        }
+        return bean;
+    }
+
+    static SampleBean bean(int i) {
+        SampleBean inner = new SampleBean();
+        inner.setName("inner" + i);
+        inner.setId(i + 1);
+
+        Map<String, String> mapping = new HashMap<String, String>();
+        List<String> listing = new ArrayList<String>();
+        for (int j = 0; j < 10; j++) {
+            mapping.put("key" + j, "value" + j);
+            listing.add("item" + j);
+        }
+
+        SampleBean bean = new SampleBean();
+        bean.setName("bean" + i);
+        bean.setField1("field" + i);
+        bean.setId(i);
+        bean.setExists(true);
+        bean.setMapping(mapping);
+        bean.setListing(listing);
+        bean.setInnerBean(inner);
+        return bean;
+    }
+
+    private void logAllocations(String name, long elapsedMillis, long allocatedBytes) {
+        Log.i(TAG, String.format("%s: %d large round trips in %dms, %d bytes allocated per round trip", name,
+                LARGE_OPERATIONS, elapsedMillis, allocatedBytes / LARGE_OPERATIONS));
+    }
+
+    private void logThroughput(String name, long elapsedMillis) {
+        double opsPerSecond = OPERATIONS * 1000.0 / Math.max(1, elapsedMillis);
+        Log.i(TAG, String.format("%s: %d ops in %dms (%.1f ops/sec)", name, OPERATIONS, elapsedMillis, opsPerSecond));
+    }
+}
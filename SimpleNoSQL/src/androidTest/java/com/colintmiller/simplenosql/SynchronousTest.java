@@ -16,6 +16,7 @@ import org.junit.runner.RunWith;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
 import static org.junit.Assert.assertEquals;
@@ -67,6 +68,42 @@ public class SynchronousTest {
         assertEquals(1, results.size());
     }
 
+    @Test
+    public void testAsyncRetrieval() throws Throwable {
+        SampleBean item = new SampleBean();
+        item.setName("item");
+        NoSQL.with(context).using(SampleBean.class)
+                .saveAsync(new NoSQLEntity<SampleBean>("async", "1", item))
+                .get(5, TimeUnit.SECONDS);
+
+        QueryFuture<List<NoSQLEntity<SampleBean>>> future = NoSQL.with(context).using(SampleBean.class)
+                .bucketId("async")
+                .retrieveAsync();
+        List<NoSQLEntity<SampleBean>> results = future.get(5, TimeUnit.SECONDS);
+        assertEquals(1, results.size());
+        assertEquals("item", results.get(0).getData().getName());
+
+        NoSQL.with(context).using(SampleBean.class).bucketId("async").deleteAsync().get(5, TimeUnit.SECONDS);
+        assertEquals(0, NoSQL.with(context).using(SampleBean.class).bucketId("async").retrieveAsync()
+                .get(5, TimeUnit.SECONDS).size());
+    }
+
+    @Test
+    public void testRetrieveNow() throws Throwable {
+        SampleBean item = new SampleBean();
+        item.setName("item");
+        NoSQL.with(context).using(SampleBean.class).saveNow(new NoSQLEntity<SampleBean>("now", "1", item));
+
+        List<NoSQLEntity<SampleBean>> results = NoSQL.with(context).using(SampleBean.class)
+                .bucketId("now")
+                .retrieveNow();
+        assertEquals(1, results.size());
+        assertEquals("item", results.get(0).getData().getName());
+
+        NoSQL.with(context).using(SampleBean.class).bucketId("now").deleteNow();
+        assertEquals(0, NoSQL.with(context).using(SampleBean.class).bucketId("now").retrieveNow().size());
+    }
+
     /**
      * Honestly why anyone would ever want to block the UI thread to wait for their data is a mystery. But in case you
      * feel your foot is too healthy and you'd like to shoot it, here's how.
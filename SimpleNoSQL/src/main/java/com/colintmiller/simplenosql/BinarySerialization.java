@@ -0,0 +1,830 @@
+package com.colintmiller.simplenosql;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link com.colintmiller.simplenosql.DataSerializer} and {@link com.colintmiller.simplenosql.DataDeserializer} that
+ * stores objects in a compact binary form instead of JSON. Values use the MessagePack wire format, so numbers are
+ * stored as fixed-width binary rather than decimal text and small values take a single byte.
+ * <p>
+ * Objects are bound by reflection the same way Gson binds them: every non-static, non-transient field, including
+ * inherited ones, is stored by name, and null fields are left out. Fields are looked up once per class and cached, so
+ * share one instance rather than creating one per query. Field names (and map keys) are only written in full the first
+ * time they appear in a value; later occurrences, such as in every element of a list of objects, refer back to the
+ * first by index. Because fields are stored by name, adding or removing fields from a class keeps older data readable,
+ * just as with JSON. Classes need a no-argument constructor, which may be private.
+ * <p>
+ * Field conditions and field indexes read the stored JSON, so entities saved with this serialization never match a
+ * field condition and are left out of field indexes.
+ */
+public class BinarySerialization implements DataSerializer, DataDeserializer {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int NIL = 0xc0;
+    private static final int FALSE = 0xc2;
+    private static final int TRUE = 0xc3;
+    private static final int BIN8 = 0xc4;
+    private static final int BIN16 = 0xc5;
+    private static final int BIN32 = 0xc6;
+    private static final int FLOAT32 = 0xca;
+    private static final int FLOAT64 = 0xcb;
+    private static final int UINT8 = 0xcc;
+    private static final int UINT16 = 0xcd;
+    private static final int UINT32 = 0xce;
+    private static final int UINT64 = 0xcf;
+    private static final int INT8 = 0xd0;
+    private static final int INT16 = 0xd1;
+    private static final int INT32 = 0xd2;
+    private static final int INT64 = 0xd3;
+    private static final int STR8 = 0xd9;
+    private static final int STR16 = 0xda;
+    private static final int STR32 = 0xdb;
+    private static final int ARRAY16 = 0xdc;
+    private static final int ARRAY32 = 0xdd;
+    private static final int MAP16 = 0xde;
+    private static final int MAP32 = 0xdf;
+
+    private final ConcurrentHashMap<Class<?>, ClassTable> classTables = new ConcurrentHashMap<Class<?>, ClassTable>();
+
+    @Override
+    public <T> byte[] serialize(T data) {
+        Output out = new Output();
+        writeValue(out, data);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> T deserialize(byte[] data, Class<T> clazz) {
+        if (data.length == 0) {
+            return null;
+        }
+        Input in = new Input(data);
+        @SuppressWarnings("unchecked")
+        T result = (T) readValue(in, clazz);
+        if (in.position != data.length) {
+            throw new IllegalArgumentException("Data was not fully consumed");
+        }
+        return result;
+    }
+
+    private void writeValue(Output out, Object value) {
+        if (value == null) {
+            out.write(NIL);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            writeLong(out, ((Number) value).longValue());
+        } else if (value instanceof Float) {
+            out.write(FLOAT32);
+            out.writeInt(Float.floatToIntBits((Float) value));
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            writeString(out, value.toString());
+        } else if (value instanceof Number) {
+            out.write(FLOAT64);
+            out.writeLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof String || value instanceof Character || value instanceof UUID) {
+            writeString(out, value.toString());
+        } else if (value instanceof Enum) {
+            writeString(out, ((Enum<?>) value).name());
+        } else if (value instanceof Date) {
+            writeLong(out, ((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            writeBinary(out, (byte[]) value);
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            writeArrayHeader(out, length);
+            for (int i = 0; i < length; i++) {
+                writeValue(out, Array.get(value, i));
+            }
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            writeArrayHeader(out, collection.size());
+            for (Object element : collection) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            writeMapHeader(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeKey(out, String.valueOf(entry.getKey()));
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            writeObject(out, value);
+        }
+    }
+
+    private void writeObject(Output out, Object value) {
+        ClassTable table = getClassTable(value.getClass());
+        Object[] values = new Object[table.fields.length];
+        int count = 0;
+        for (int i = 0; i < table.fields.length; i++) {
+            values[i] = table.get(i, value);
+            if (values[i] != null) {
+                count++;
+            }
+        }
+
+        writeMapHeader(out, count);
+        for (int i = 0; i < table.fields.length; i++) {
+            if (values[i] != null) {
+                writeKey(out, table.names[i]);
+                writeValue(out, values[i]);
+            }
+        }
+    }
+
+    /**
+     * Write a map key, or a reference to it if it has already been written in this value.
+     */
+    private void writeKey(Output out, String key) {
+        Integer index = out.keys.get(key);
+        if (index != null) {
+            writeLong(out, index);
+        } else {
+            out.keys.put(key, out.keys.size());
+            writeString(out, key);
+        }
+    }
+
+    private void writeLong(Output out, long value) {
+        if (value >= 0) {
+            if (value < 0x80) {
+                out.write((int) value);
+            } else if (value < 0x100) {
+                out.write(UINT8);
+                out.write((int) value);
+            } else if (value < 0x10000) {
+                out.write(UINT16);
+                out.writeShort((int) value);
+            } else if (value < 0x100000000L) {
+                out.write(UINT32);
+                out.writeInt((int) value);
+            } else {
+                out.write(UINT64);
+                out.writeLong(value);
+            }
+        } else if (value >= -32) {
+            out.write((int) value & 0xff);
+        } else if (value >= Byte.MIN_VALUE) {
+            out.write(INT8);
+            out.write((int) value & 0xff);
+        } else if (value >= Short.MIN_VALUE) {
+            out.write(INT16);
+            out.writeShort((int) value);
+        } else if (value >= Integer.MIN_VALUE) {
+            out.write(INT32);
+            out.writeInt((int) value);
+        } else {
+            out.write(INT64);
+            out.writeLong(value);
+        }
+    }
+
+    private void writeString(Output out, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        int length = bytes.length;
+        if (length < 32) {
+            out.write(0xa0 | length);
+        } else if (length < 0x100) {
+            out.write(STR8);
+            out.write(length);
+        } else if (length < 0x10000) {
+            out.write(STR16);
+            out.writeShort(length);
+        } else {
+            out.write(STR32);
+            out.writeInt(length);
+        }
+        out.write(bytes, 0, length);
+    }
+
+    private void writeBinary(Output out, byte[] value) {
+        int length = value.length;
+        if (length < 0x100) {
+            out.write(BIN8);
+            out.write(length);
+        } else if (length < 0x10000) {
+            out.write(BIN16);
+            out.writeShort(length);
+        } else {
+            out.write(BIN32);
+            out.writeInt(length);
+        }
+        out.write(value, 0, length);
+    }
+
+    private void writeArrayHeader(Output out, int size) {
+        if (size < 16) {
+            out.write(0x90 | size);
+        } else if (size < 0x10000) {
+            out.write(ARRAY16);
+            out.writeShort(size);
+        } else {
+            out.write(ARRAY32);
+            out.writeInt(size);
+        }
+    }
+
+    private void writeMapHeader(Output out, int size) {
+        if (size < 16) {
+            out.write(0x80 | size);
+        } else if (size < 0x10000) {
+            out.write(MAP16);
+            out.writeShort(size);
+        } else {
+            out.write(MAP32);
+            out.writeInt(size);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readValue(Input in, Type type) {
+        if (in.peek() == NIL) {
+            in.read();
+            return null;
+        }
+
+        Class<?> raw = rawType(type);
+        if (raw == Object.class) {
+            return readNatural(in);
+        } else if (raw == boolean.class || raw == Boolean.class) {
+            return readBoolean(in);
+        } else if (raw == int.class || raw == Integer.class) {
+            return (int) readLong(in);
+        } else if (raw == long.class || raw == Long.class) {
+            return readLong(in);
+        } else if (raw == short.class || raw == Short.class) {
+            return (short) readLong(in);
+        } else if (raw == byte.class || raw == Byte.class) {
+            return (byte) readLong(in);
+        } else if (raw == double.class || raw == Double.class) {
+            return readDouble(in);
+        } else if (raw == float.class || raw == Float.class) {
+            return (float) readDouble(in);
+        } else if (raw == char.class || raw == Character.class) {
+            String value = readString(in);
+            return value.isEmpty() ? null : value.charAt(0);
+        } else if (raw == String.class) {
+            return readString(in);
+        } else if (raw == BigDecimal.class) {
+            return new BigDecimal(readString(in));
+        } else if (raw == BigInteger.class) {
+            return new BigInteger(readString(in));
+        } else if (raw == UUID.class) {
+            return UUID.fromString(readString(in));
+        } else if (Date.class.isAssignableFrom(raw)) {
+            return new Date(readLong(in));
+        } else if (raw.isEnum()) {
+            return enumValue((Class<? extends Enum>) raw, readString(in));
+        } else if (raw == byte[].class) {
+            return readBinary(in);
+        } else if (raw.isArray()) {
+            Type componentType = type instanceof GenericArrayType
+                    ? ((GenericArrayType) type).getGenericComponentType() : raw.getComponentType();
+            int size = readArrayHeader(in);
+            Object array = Array.newInstance(raw.getComponentType(), size);
+            for (int i = 0; i < size; i++) {
+                Object element = readValue(in, componentType);
+                if (element != null) {
+                    Array.set(array, i, element);
+                }
+            }
+            return array;
+        } else if (Collection.class.isAssignableFrom(raw)) {
+            Type elementType = typeArgument(type, 0);
+            int size = readArrayHeader(in);
+            Collection collection = newCollection(raw, size);
+            for (int i = 0; i < size; i++) {
+                collection.add(readValue(in, elementType));
+            }
+            return collection;
+        } else if (Map.class.isAssignableFrom(raw)) {
+            Class<?> keyType = rawType(typeArgument(type, 0));
+            Type valueType = typeArgument(type, 1);
+            int size = readMapHeader(in);
+            Map map = newMap(raw);
+            for (int i = 0; i < size; i++) {
+                String key = readKey(in);
+                map.put(mapKey(keyType, key), readValue(in, valueType));
+            }
+            return map;
+        }
+        return readObject(in, raw);
+    }
+
+    private Object readObject(Input in, Class<?> clazz) {
+        ClassTable table = getClassTable(clazz);
+        Object object = table.newInstance();
+        int size = readMapHeader(in);
+        for (int i = 0; i < size; i++) {
+            Integer index = table.indexes.get(readKey(in));
+            if (index == null) {
+                skipValue(in);
+                continue;
+            }
+            Object value = readValue(in, table.fields[index].getGenericType());
+            if (value != null) {
+                table.set(index, object, value);
+            }
+        }
+        return object;
+    }
+
+    /**
+     * Read a value without knowing its type: maps, lists, Strings, Longs, Doubles, Booleans and byte arrays.
+     */
+    private Object readNatural(Input in) {
+        int format = in.peek();
+        if (format == NIL) {
+            in.read();
+            return null;
+        } else if (format == TRUE || format == FALSE) {
+            return readBoolean(in);
+        } else if (format == FLOAT32 || format == FLOAT64) {
+            return readDouble(in);
+        } else if (isInteger(format)) {
+            return readLong(in);
+        } else if (isString(format)) {
+            return readString(in);
+        } else if (format == BIN8 || format == BIN16 || format == BIN32) {
+            return readBinary(in);
+        } else if (isArray(format)) {
+            int size = readArrayHeader(in);
+            List<Object> list = new ArrayList<Object>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(readNatural(in));
+            }
+            return list;
+        } else if (isMap(format)) {
+            int size = readMapHeader(in);
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < size; i++) {
+                String key = readKey(in);
+                map.put(key, readNatural(in));
+            }
+            return map;
+        }
+        throw new IllegalArgumentException("Unsupported format 0x" + Integer.toHexString(format));
+    }
+
+    private void skipValue(Input in) {
+        int format = in.peek();
+        if (isArray(format)) {
+            int size = readArrayHeader(in);
+            for (int i = 0; i < size; i++) {
+                skipValue(in);
+            }
+        } else if (isMap(format)) {
+            // Keys still have to be read, since later keys may refer back to them.
+            int size = readMapHeader(in);
+            for (int i = 0; i < size; i++) {
+                readKey(in);
+                skipValue(in);
+            }
+        } else {
+            readNatural(in);
+        }
+    }
+
+    private String readKey(Input in) {
+        if (isInteger(in.peek())) {
+            long index = readLong(in);
+            if (index < 0 || index >= in.keys.size()) {
+                throw new IllegalArgumentException("Unknown key reference " + index);
+            }
+            return in.keys.get((int) index);
+        }
+        String key = readString(in);
+        in.keys.add(key);
+        return key;
+    }
+
+    private boolean readBoolean(Input in) {
+        int format = in.read();
+        if (format == TRUE) {
+            return true;
+        } else if (format == FALSE) {
+            return false;
+        }
+        throw unexpected("boolean", format);
+    }
+
+    private long readLong(Input in) {
+        int format = in.read();
+        if (format < 0x80) {
+            return format;
+        } else if (format >= 0xe0) {
+            return (byte) format;
+        }
+        switch (format) {
+            case UINT8:
+                return in.read();
+            case UINT16:
+                return in.readShort() & 0xffff;
+            case UINT32:
+                return in.readInt() & 0xffffffffL;
+            case UINT64:
+            case INT64:
+                return in.readLong();
+            case INT8:
+                return (byte) in.read();
+            case INT16:
+                return (short) in.readShort();
+            case INT32:
+                return in.readInt();
+            case FLOAT32:
+                return (long) Float.intBitsToFloat(in.readInt());
+            case FLOAT64:
+                return (long) Double.longBitsToDouble(in.readLong());
+            default:
+                throw unexpected("integer", format);
+        }
+    }
+
+    private double readDouble(Input in) {
+        int format = in.peek();
+        if (format == FLOAT32) {
+            in.read();
+            return Float.intBitsToFloat(in.readInt());
+        } else if (format == FLOAT64) {
+            in.read();
+            return Double.longBitsToDouble(in.readLong());
+        }
+        return readLong(in);
+    }
+
+    private String readString(Input in) {
+        int format = in.read();
+        int length;
+        if ((format & 0xe0) == 0xa0) {
+            length = format & 0x1f;
+        } else if (format == STR8) {
+            length = in.read();
+        } else if (format == STR16) {
+            length = in.readShort();
+        } else if (format == STR32) {
+            length = in.readLength();
+        } else {
+            throw unexpected("string", format);
+        }
+        String value = new String(in.data, in.position, in.require(length), UTF_8);
+        in.position += length;
+        return value;
+    }
+
+    private byte[] readBinary(Input in) {
+        int format = in.read();
+        int length;
+        if (format == BIN8) {
+            length = in.read();
+        } else if (format == BIN16) {
+            length = in.readShort();
+        } else if (format == BIN32) {
+            length = in.readLength();
+        } else {
+            throw unexpected("binary", format);
+        }
+        byte[] value = Arrays.copyOfRange(in.data, in.position, in.position + in.require(length));
+        in.position += length;
+        return value;
+    }
+
+    private int readArrayHeader(Input in) {
+        int format = in.read();
+        if ((format & 0xf0) == 0x90) {
+            return format & 0x0f;
+        } else if (format == ARRAY16) {
+            return in.readShort();
+        } else if (format == ARRAY32) {
+            return in.readLength();
+        }
+        throw unexpected("array", format);
+    }
+
+    private int readMapHeader(Input in) {
+        int format = in.read();
+        if ((format & 0xf0) == 0x80) {
+            return format & 0x0f;
+        } else if (format == MAP16) {
+            return in.readShort();
+        } else if (format == MAP32) {
+            return in.readLength();
+        }
+        throw unexpected("map", format);
+    }
+
+    private static boolean isInteger(int format) {
+        return format < 0x80 || format >= 0xe0 || (format >= UINT8 && format <= INT64);
+    }
+
+    private static boolean isString(int format) {
+        return (format & 0xe0) == 0xa0 || format == STR8 || format == STR16 || format == STR32;
+    }
+
+    private static boolean isArray(int format) {
+        return (format & 0xf0) == 0x90 || format == ARRAY16 || format == ARRAY32;
+    }
+
+    private static boolean isMap(int format) {
+        return (format & 0xf0) == 0x80 || format == MAP16 || format == MAP32;
+    }
+
+    private static IllegalArgumentException unexpected(String expected, int format) {
+        return new IllegalArgumentException("Expected " + expected + " but found format 0x"
+                + Integer.toHexString(format));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumValue(Class<? extends Enum> clazz, String name) {
+        try {
+            return Enum.valueOf(clazz, name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object mapKey(Class<?> keyType, String key) {
+        if (keyType == Object.class || keyType == String.class) {
+            return key;
+        } else if (keyType == Integer.class) {
+            return Integer.valueOf(key);
+        } else if (keyType == Long.class) {
+            return Long.valueOf(key);
+        } else if (keyType == Short.class) {
+            return Short.valueOf(key);
+        } else if (keyType == Byte.class) {
+            return Byte.valueOf(key);
+        } else if (keyType == Double.class) {
+            return Double.valueOf(key);
+        } else if (keyType == Float.class) {
+            return Float.valueOf(key);
+        } else if (keyType == Boolean.class) {
+            return Boolean.valueOf(key);
+        } else if (keyType == Character.class) {
+            return key.charAt(0);
+        } else if (keyType == BigDecimal.class) {
+            return new BigDecimal(key);
+        } else if (keyType == BigInteger.class) {
+            return new BigInteger(key);
+        } else if (keyType == UUID.class) {
+            return UUID.fromString(key);
+        } else if (keyType.isEnum()) {
+            return enumValue((Class<? extends Enum>) keyType, key);
+        }
+        throw new IllegalArgumentException("Unsupported map key type " + keyType.getName());
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Collection newCollection(Class<?> raw, int size) {
+        if (!raw.isInterface() && !Modifier.isAbstract(raw.getModifiers())) {
+            return (Collection) instantiate(raw);
+        } else if (SortedSet.class.isAssignableFrom(raw)) {
+            return new TreeSet();
+        } else if (Set.class.isAssignableFrom(raw)) {
+            return new LinkedHashSet();
+        }
+        return new ArrayList(size);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Map newMap(Class<?> raw) {
+        if (!raw.isInterface() && !Modifier.isAbstract(raw.getModifiers())) {
+            return (Map) instantiate(raw);
+        } else if (SortedMap.class.isAssignableFrom(raw)) {
+            return new TreeMap();
+        }
+        return new LinkedHashMap();
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return rawType(((ParameterizedType) type).getRawType());
+        } else if (type instanceof GenericArrayType) {
+            Class<?> component = rawType(((GenericArrayType) type).getGenericComponentType());
+            return Array.newInstance(component, 0).getClass();
+        } else if (type instanceof WildcardType) {
+            return rawType(((WildcardType) type).getUpperBounds()[0]);
+        } else if (type instanceof TypeVariable) {
+            return rawType(((TypeVariable<?>) type).getBounds()[0]);
+        }
+        return Object.class;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    private static Object instantiate(Class<?> clazz) {
+        try {
+            Constructor<?> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(clazz.getName() + " needs a no-argument constructor", e);
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("Unable to create " + clazz.getName(), e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Unable to create " + clazz.getName(), e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalArgumentException("Unable to create " + clazz.getName(), e.getCause());
+        }
+    }
+
+    private ClassTable getClassTable(Class<?> clazz) {
+        ClassTable table = classTables.get(clazz);
+        if (table == null) {
+            table = new ClassTable(clazz);
+            classTables.put(clazz, table);
+        }
+        return table;
+    }
+
+    /**
+     * The fields stored for a class, looked up once and reused for every value of that class.
+     */
+    private static class ClassTable {
+        private final Class<?> clazz;
+        private final Field[] fields;
+        private final String[] names;
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+        private ClassTable(Class<?> clazz) {
+            if (clazz.isInterface() || clazz.getName().startsWith("java.") || clazz.getName().startsWith("android.")) {
+                throw new IllegalArgumentException("Unsupported type " + clazz.getName());
+            }
+            this.clazz = clazz;
+
+            List<Field> stored = new ArrayList<Field>();
+            for (Class<?> current = clazz; current != null && current != Object.class;
+                 current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()
+                            || indexes.containsKey(field.getName())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    indexes.put(field.getName(), stored.size());
+                    stored.add(field);
+                }
+            }
+            fields = stored.toArray(new Field[stored.size()]);
+            names = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                names[i] = fields[i].getName();
+            }
+        }
+
+        private Object newInstance() {
+            return instantiate(clazz);
+        }
+
+        private Object get(int index, Object object) {
+            try {
+                return fields[index].get(object);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void set(int index, Object object, Object value) {
+            try {
+                fields[index].set(object, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static class Output {
+        private final Map<String, Integer> keys = new HashMap<String, Integer>();
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        private void write(int b) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) b;
+        }
+
+        private void write(byte[] source, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        private void writeShort(int value) {
+            ensureCapacity(2);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeInt(int value) {
+            ensureCapacity(4);
+            bytes[size++] = (byte) (value >>> 24);
+            bytes[size++] = (byte) (value >>> 16);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+
+    private static class Input {
+        private final List<String> keys = new ArrayList<String>();
+        private final byte[] data;
+        private int position;
+
+        private Input(byte[] data) {
+            this.data = data;
+        }
+
+        private int peek() {
+            require(1);
+            return data[position] & 0xff;
+        }
+
+        private int read() {
+            require(1);
+            return data[position++] & 0xff;
+        }
+
+        private int readShort() {
+            return (read() << 8) | read();
+        }
+
+        private int readInt() {
+            return (read() << 24) | (read() << 16) | (read() << 8) | read();
+        }
+
+        private long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+        }
+
+        private int readLength() {
+            int length = readInt();
+            if (length < 0) {
+                throw new IllegalArgumentException("Length too large: " + (length & 0xffffffffL));
+            }
+            return length;
+        }
+
+        private int require(int length) {
+            if (length > data.length - position) {
+                throw new IllegalArgumentException("Unexpected end of data");
+            }
+            return length;
+        }
+    }
+}
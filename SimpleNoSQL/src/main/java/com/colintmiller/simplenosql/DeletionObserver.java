@@ -0,0 +1,16 @@
+package com.colintmiller.simplenosql;
+
+/**
+ * An observer of a deletion that is also told how many entities were deleted, for example to report how many stale
+ * entities a cleanup removed. Add it to a deletion with
+ * {@link com.colintmiller.simplenosql.QueryBuilder#addObserver(OperationObserver)} like any other observer.
+ */
+public interface DeletionObserver extends OperationObserver {
+
+    /**
+     * Called just before {@link #hasFinished()} once the deletion has been committed.
+     *
+     * @param count of the entities that were deleted. May be 0.
+     */
+    public void entitiesDeleted(int count);
+}
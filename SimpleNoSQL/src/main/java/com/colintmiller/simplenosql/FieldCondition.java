@@ -0,0 +1,125 @@
+package com.colintmiller.simplenosql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A declarative condition on a single field of a stored entity. Unlike a {@link com.colintmiller.simplenosql.DataFilter},
+ * a FieldCondition can be evaluated by the data store itself, so entities that don't match are never deserialized.
+ * <p>
+ * Fields are named by their serialized JSON name. Nested fields are separated by a '.', so "innerBean.name" refers to
+ * the name of the object stored in innerBean. Values may be Strings, Numbers or Booleans and are only compared with
+ * fields of the same JSON type. Field conditions require the data to be serialized as JSON, which is the case with the
+ * default {@link com.colintmiller.simplenosql.GsonSerialization}.
+ */
+public class FieldCondition {
+
+    public enum Operator {
+        EQUAL,
+        GREATER_THAN,
+        GREATER_THAN_OR_EQUAL,
+        LESS_THAN,
+        LESS_THAN_OR_EQUAL,
+        BETWEEN,
+        IN
+    }
+
+    private final String field;
+    private final Operator operator;
+    private final List<Object> values;
+
+    private FieldCondition(String field, Operator operator, List<Object> values) {
+        if (field == null || field.length() == 0) {
+            throw new IllegalArgumentException("A field is required for a FieldCondition");
+        }
+        if (field.indexOf('"') >= 0) {
+            throw new IllegalArgumentException("A FieldCondition field can't contain '\"': " + field);
+        }
+        for (Object value : values) {
+            if (value == null && operator == Operator.EQUAL) {
+                continue;
+            }
+            if (!(value instanceof String || value instanceof Number || value instanceof Boolean)) {
+                throw new IllegalArgumentException("FieldCondition values must be a String, Number or Boolean: " + value);
+            }
+        }
+        this.field = field;
+        this.operator = operator;
+        this.values = Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Matches entities where the field equals the given value. A null value matches entities where the field is missing
+     * or null.
+     */
+    public static FieldCondition equalTo(String field, Object value) {
+        return new FieldCondition(field, Operator.EQUAL, Collections.singletonList(value));
+    }
+
+    public static FieldCondition greaterThan(String field, Object value) {
+        return new FieldCondition(field, Operator.GREATER_THAN, Collections.singletonList(value));
+    }
+
+    public static FieldCondition greaterThanOrEqualTo(String field, Object value) {
+        return new FieldCondition(field, Operator.GREATER_THAN_OR_EQUAL, Collections.singletonList(value));
+    }
+
+    public static FieldCondition lessThan(String field, Object value) {
+        return new FieldCondition(field, Operator.LESS_THAN, Collections.singletonList(value));
+    }
+
+    public static FieldCondition lessThanOrEqualTo(String field, Object value) {
+        return new FieldCondition(field, Operator.LESS_THAN_OR_EQUAL, Collections.singletonList(value));
+    }
+
+    /**
+     * Matches entities where the field is between low and high, inclusive of both.
+     */
+    public static FieldCondition between(String field, Object low, Object high) {
+        return new FieldCondition(field, Operator.BETWEEN, Arrays.asList(low, high));
+    }
+
+    /**
+     * Matches entities where the field equals any one of the given values.
+     */
+    public static FieldCondition in(String field, Object... values) {
+        return in(field, Arrays.asList(values));
+    }
+
+    /**
+     * Matches entities where the field equals any one of the given values.
+     */
+    public static FieldCondition in(String field, Collection<?> values) {
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("An IN condition requires at least one value");
+        }
+        return new FieldCondition(field, Operator.IN, new ArrayList<Object>(values));
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    public List<Object> getValues() {
+        return values;
+    }
+
+    /**
+     * @return the field split into its nested path segments.
+     */
+    public String[] getPath() {
+        return field.split("\\.");
+    }
+
+    @Override
+    public String toString() {
+        return field + " " + operator + " " + values;
+    }
+}
@@ -0,0 +1,159 @@
+package com.colintmiller.simplenosql;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The base of the serializers generated for classes annotated with {@link NoSQLDocument}. Generated subclasses write
+ * and read each field directly with Gson's streaming JsonWriter and JsonReader, so no reflection is needed to store or
+ * load an entity. The JSON is the same as GsonSerialization would produce.
+ * <p>
+ * A generated serialization is named after the class it serializes, with nested class names joined by underscores and
+ * "_NoSQLSerialization" appended, and lives in the same package. Use {@link #find(Class)} to look one up.
+ *
+ * @param <D> the type of the documents serialized.
+ */
+public abstract class GeneratedSerialization<D> implements DataSerializer, DataDeserializer {
+    static final String SUFFIX = "_NoSQLSerialization";
+
+    // Holds NONE for classes that have been looked up and have no generated serialization.
+    private static final ConcurrentHashMap<Class<?>, Object> generated = new ConcurrentHashMap<Class<?>, Object>();
+    private static final Object NONE = new Object();
+
+    private final Class<D> clazz;
+
+    protected GeneratedSerialization(Class<D> clazz) {
+        this.clazz = clazz;
+    }
+
+    /**
+     * Find the generated serialization of a class.
+     *
+     * @param clazz to find the serialization of.
+     * @param <T> the type of the class.
+     * @return the generated serialization, or null if the class isn't annotated with {@link NoSQLDocument} or its
+     * serialization wasn't generated.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> GeneratedSerialization<T> find(Class<T> clazz) {
+        Object serialization = generated.get(clazz);
+        if (serialization == null) {
+            serialization = load(clazz);
+            generated.put(clazz, serialization);
+        }
+        return serialization == NONE ? null : (GeneratedSerialization<T>) serialization;
+    }
+
+    private static Object load(Class<?> clazz) {
+        if (!clazz.isAnnotationPresent(NoSQLDocument.class)) {
+            return NONE;
+        }
+        String name = clazz.getName();
+        int packageEnd = name.lastIndexOf('.') + 1;
+        name = name.substring(0, packageEnd) + name.substring(packageEnd).replace('$', '_') + SUFFIX;
+        try {
+            return Class.forName(name, true, clazz.getClassLoader()).newInstance();
+        } catch (ClassNotFoundException e) {
+            return NONE;
+        } catch (InstantiationException e) {
+            throw new IllegalStateException("Unable to create " + name, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to create " + name, e);
+        }
+    }
+
+    /**
+     * Write a document as a JSON object.
+     *
+     * @param writer to write to.
+     * @param value to write, never null.
+     * @throws IOException if writing fails.
+     */
+    public abstract void write(JsonWriter writer, D value) throws IOException;
+
+    /**
+     * Read a document from a JSON object.
+     *
+     * @param reader positioned at the start of the object.
+     * @return the document read.
+     * @throws IOException if reading fails.
+     */
+    public abstract D read(JsonReader reader) throws IOException;
+
+    @Override
+    public <T> byte[] serialize(T data) {
+        Utf8ByteWriter buffer = new Utf8ByteWriter(256);
+        try {
+            JsonWriter writer = new JsonWriter(buffer);
+            // Match a default Gson: HTML characters are escaped and null map values are left out.
+            writer.setHtmlSafe(true);
+            writer.setSerializeNulls(false);
+            if (data == null) {
+                writer.nullValue();
+            } else {
+                write(writer, clazz.cast(data));
+            }
+            writer.flush();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    @Override
+    public <T> T deserialize(byte[] data, Class<T> clazz) {
+        JsonReader reader = new JsonReader(new Utf8ByteReader(data));
+        reader.setLenient(true); // as Gson does when reading a document
+        try {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return null;
+            }
+            T result = clazz.cast(read(reader));
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonIOException("JSON document was not fully consumed.");
+            }
+            return result;
+        } catch (EOFException e) {
+            if (data.length == 0) {
+                return null;
+            }
+            throw new JsonSyntaxException(e);
+        } catch (IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Get a Gson adapter for a field type that generated code has no direct support for.
+     *
+     * @param type of the field.
+     * @param <T> the field's type.
+     * @return an adapter from the default Gson instance.
+     */
+    protected static <T> TypeAdapter<T> adapter(TypeToken<T> type) {
+        return GsonSerialization.getDefault().getGson().getAdapter(type);
+    }
+
+    /**
+     * Look up an enum constant by name, the way Gson does: unknown names give null.
+     */
+    protected static <E extends Enum<E>> E enumValue(Class<E> type, String name) {
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
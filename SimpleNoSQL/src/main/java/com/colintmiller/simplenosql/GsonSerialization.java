@@ -1,16 +1,45 @@
 package com.colintmiller.simplenosql;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 
 /**
  * A {@link com.colintmiller.simplenosql.DataSerializer} and {@link com.colintmiller.simplenosql.DataDeserializer} that
  * uses the Gson library to transform objects into JSON and back. This is the default implementation used with
  * {@link com.colintmiller.simplenosql.NoSQL} if none are provided.
+ * <p>
+ * Gson caches the type adapters it builds for each class per Gson instance, so creating a new GsonSerialization for
+ * every use throws that cache away. Instances are thread-safe; prefer {@link #getDefault()} unless a custom Gson is
+ * needed.
+ * <p>
+ * JSON is always stored as UTF-8. It is read and written directly between the stored bytes and Gson's streaming
+ * reader and writer, without building an intermediate String, and each thread reuses its own output buffer.
  */
 public class GsonSerialization implements DataSerializer, DataDeserializer {
 
+    private static final GsonSerialization DEFAULT = new GsonSerialization();
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    // Don't hold on to the buffer of an unusually large document forever.
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<Utf8ByteWriter> buffers = new ThreadLocal<Utf8ByteWriter>();
+
     private Gson gson;
 
+    /**
+     * @return a shared GsonSerialization using a default Gson instance.
+     */
+    public static GsonSerialization getDefault() {
+        return DEFAULT;
+    }
+
     public GsonSerialization() {
         this.gson = new Gson();
     }
@@ -19,13 +48,50 @@ public class GsonSerialization implements DataSerializer, DataDeserializer {
         this.gson = gson;
     }
 
+    Gson getGson() {
+        return gson;
+    }
+
     @Override
     public <T> T deserialize(byte[] data, Class<T> clazz) {
-        return gson.fromJson(new String(data), clazz);
+        JsonReader reader = gson.newJsonReader(new Utf8ByteReader(data));
+        T result = gson.fromJson(reader, clazz);
+        try {
+            if (result != null && reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonIOException("JSON document was not fully consumed.");
+            }
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+        return result;
     }
 
     @Override
     public <T> byte[] serialize(T data) {
-        return gson.toJson(data).getBytes();
+        Utf8ByteWriter buffer = buffers.get();
+        if (buffer == null) {
+            buffer = new Utf8ByteWriter(INITIAL_BUFFER_SIZE);
+        } else {
+            // Taken out while in use, in case an adapter serializes something else on this thread.
+            buffers.set(null);
+        }
+
+        try {
+            JsonWriter writer = gson.newJsonWriter(buffer);
+            if (data == null) {
+                gson.toJson(JsonNull.INSTANCE, writer);
+            } else {
+                gson.toJson(data, data.getClass(), writer);
+            }
+            writer.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        } finally {
+            buffer.reset();
+            if (buffer.capacity() <= MAX_RETAINED_BUFFER_SIZE) {
+                buffers.set(buffer);
+            }
+        }
     }
 }
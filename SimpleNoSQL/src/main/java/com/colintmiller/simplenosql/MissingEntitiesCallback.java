@@ -0,0 +1,18 @@
+package com.colintmiller.simplenosql;
+
+import java.util.List;
+
+/**
+ * Implement this callback to find out which of the entities requested with
+ * {@link com.colintmiller.simplenosql.QueryBuilder#entityIds(java.util.Collection)} weren't retrieved, for example to
+ * fetch them from a server. The callback will be called on the UI thread, just before the retrieved entities are
+ * delivered.
+ */
+public interface MissingEntitiesCallback {
+
+    /**
+     * @param entityIds that no entity was retrieved for, in the order they were requested. Either the bucket has no
+     *                  entity with that id, or the entity didn't match the conditions or filter. Never empty.
+     */
+    public void entitiesMissing(List<String> entityIds);
+}
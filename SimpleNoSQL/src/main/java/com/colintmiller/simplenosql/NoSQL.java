@@ -5,15 +5,21 @@ import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
 import com.colintmiller.simplenosql.db.DataStoreType;
-import com.colintmiller.simplenosql.threading.DataDispatcher;
+import com.colintmiller.simplenosql.db.EntityCache;
+import com.colintmiller.simplenosql.db.SimpleDataStoreFactory;
+import com.colintmiller.simplenosql.threading.AdaptiveDispatchStrategy;
+import com.colintmiller.simplenosql.threading.DispatchStrategy;
+import com.colintmiller.simplenosql.threading.ExecutorDispatchStrategy;
 import com.colintmiller.simplenosql.threading.QueryDelivery;
+import com.colintmiller.simplenosql.threading.QueryProcessor;
+import com.colintmiller.simplenosql.threading.QueryQueue;
+import com.colintmiller.simplenosql.threading.ThreadDispatchStrategy;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.Executor;
 
 /**
  * Simple access to a NoSQL store. You can save, retrieve, and delete any entity. Saving performs an insert
@@ -27,18 +33,28 @@ import java.util.concurrent.locks.ReadWriteLock;
  */
 public class NoSQL
 {
+    // Number of dispatcher threads used when the caller doesn't pick one.
+    private static final int DEFAULT_THREADS = 4;
+
     private static NoSQL singleton;
 
     private static Map<QueryDelivery, NoSQL> deliveryQueues = new HashMap<QueryDelivery, NoSQL>();
+    private static Map<DataStoreType, NoSQL> storeInstances = new HashMap<DataStoreType, NoSQL>();
 
     private Context appContext;
     private DataSerializer singleSerializer;
     private DataDeserializer singleDeserializer;
-    private DataStoreType dataStoreType;
+    private SimpleDataStoreFactory dataStoreFactory;
+    private final ConcurrentHashMap<Class<?>, DataSerializer> classSerializers =
+            new ConcurrentHashMap<Class<?>, DataSerializer>();
+    private final ConcurrentHashMap<Class<?>, DataDeserializer> classDeserializers =
+            new ConcurrentHashMap<Class<?>, DataDeserializer>();
 
-    private final BlockingQueue<NoSQLQuery<?>> queryQueue;
-    private DataDispatcher[] dispatchers;
-    private QueryDelivery delivery;
+    private final QueryQueue queryQueue;
+    private final QueryProcessor processor;
+    private final QueryDelivery delivery;
+    private DispatchStrategy dispatchStrategy;
+    private boolean started;
 
     private NoSQL(Context context, int numberOfThreads) {
         this(context, numberOfThreads, new QueryDelivery(new Handler(Looper.getMainLooper())), DataStoreType.SQLITE);
@@ -46,10 +62,11 @@ public class NoSQL
 
     private NoSQL(Context context, int numberOfThreads, QueryDelivery delivery, DataStoreType type) {
         this.appContext = context.getApplicationContext();
-        queryQueue = new LinkedBlockingQueue<NoSQLQuery<?>>();
-        dispatchers = new DataDispatcher[numberOfThreads]; //TODO: Add a thread pool size
+        queryQueue = new QueryQueue();
+        this.dataStoreFactory = new SimpleDataStoreFactory(type);
         this.delivery = delivery;
-        this.dataStoreType = type;
+        processor = new QueryProcessor(queryQueue, appContext, delivery, dataStoreFactory);
+        dispatchStrategy = new ThreadDispatchStrategy(numberOfThreads);
         start();
     }
 
@@ -63,7 +80,7 @@ public class NoSQL
      * @return a NoSQL object for creating queries.
      */
     public static NoSQL with(Context context) {
-        return with(context, 4);
+        return with(context, DEFAULT_THREADS);
     }
 
     /**
@@ -88,6 +105,47 @@ public class NoSQL
         return singleton;
     }
 
+    /**
+     * Get a NoSQL instance that stores its entities in the given type of DataStore. Using
+     * {@link com.colintmiller.simplenosql.db.DataStoreType#SQLITE} is the same as calling {@link #with(Context)}. Each
+     * other type gets its own instance, for example an in-memory store for caches or ephemeral data:
+     * <pre>
+     *     NoSQL.with(context, DataStoreType.MEMORY).using(SampleBean.class)...
+     * </pre>
+     *
+     * @param context to use for future operations.
+     * @param type of DataStore to keep entities in.
+     * @return a NoSQL object for creating queries.
+     */
+    public static NoSQL with(Context context, DataStoreType type) {
+        return with(context, type, DEFAULT_THREADS);
+    }
+
+    /**
+     * Get a NoSQL instance that stores its entities in the given type of DataStore, like
+     * {@link #with(Context, DataStoreType)}. The number of threads is only used by the call that creates the instance
+     * for the type.
+     *
+     * @param context to use for future operations.
+     * @param type of DataStore to keep entities in.
+     * @param numberOfThreads to use for data operations
+     * @return a NoSQL object for creating queries.
+     */
+    public static NoSQL with(Context context, DataStoreType type, int numberOfThreads) {
+        if (type == DataStoreType.SQLITE) {
+            return with(context, numberOfThreads);
+        }
+        synchronized (NoSQL.class) {
+            NoSQL noSQL = storeInstances.get(type);
+            if (noSQL == null) {
+                noSQL = new NoSQL(context, numberOfThreads, new QueryDelivery(new Handler(Looper.getMainLooper())),
+                        type);
+                storeInstances.put(type, noSQL);
+            }
+            return noSQL;
+        }
+    }
+
     /**
      * Get a NoSQL instance based on the given Context and QueryDelivery. Will use the applicationContext of the given
      * context for requests. This instance is safe to save and use later with the {@link NoSQL#using(Class)} method to
@@ -120,13 +178,110 @@ public class NoSQL
      * Get a builder for performing some sort of data operation. This builder can be used for retrieval, saving, or
      * deletion of data. See {@link com.colintmiller.simplenosql.QueryBuilder} for more information on how to build
      * a query.
+     * <p>
+     * Serialization for the query is chosen from, in order: anything {@link #register}ed for the class, this instance's
+     * serializer and deserializer if they were set with {@link #withSerializer} and {@link #withDeserializer}, the
+     * generated serialization of a class annotated with {@link NoSQLDocument}, and the default Gson serialization.
      *
      * @param clazz related to this operation. This would be the class of the objects you're saving or retrieving.
      * @param <T> the type of the ojbets used in this operation.
      * @return a {@link com.colintmiller.simplenosql.QueryBuilder}.
      */
     public <T> QueryBuilder<T> using(Class<T> clazz) {
-        return withUsing(clazz, singleSerializer, singleDeserializer, queryQueue);
+        DataSerializer serializer = classSerializers.get(clazz);
+        DataDeserializer deserializer = classDeserializers.get(clazz);
+        GeneratedSerialization<T> generated = GeneratedSerialization.find(clazz);
+        serializer = serializer != null ? serializer : singleSerializer;
+        deserializer = deserializer != null ? deserializer : singleDeserializer;
+        // Generated serialization only stands in for the default Gson, never for serialization chosen by the app.
+        if (generated != null) {
+            serializer = serializer != null ? serializer : generated;
+            deserializer = deserializer != null ? deserializer : generated;
+        }
+        return withUsing(clazz,
+                serializer,
+                deserializer,
+                queryQueue,
+                processor);
+    }
+
+    /**
+     * Use a specific serializer and deserializer for one class of entities. Queries created with
+     * {@link #using(Class)} for that class will use them instead of the ones set with {@link #withSerializer} and
+     * {@link #withDeserializer}. Registered instances are shared by every query for the class, so they must be
+     * thread-safe. For example, to give one class its own Gson configuration:
+     * <pre>
+     *     GsonSerialization dates = new GsonSerialization(new GsonBuilder().setDateFormat("yyyy-MM-dd").create());
+     *     NoSQL.with(context).register(Event.class, dates, dates);
+     * </pre>
+     *
+     * @param clazz the serializer and deserializer apply to.
+     * @param serializer to use for the class, or null to fall back to this instance's serializer.
+     * @param deserializer to use for the class, or null to fall back to this instance's deserializer.
+     * @param <T> the type of the class.
+     * @return this for chaining.
+     */
+    public <T> NoSQL register(Class<T> clazz, DataSerializer serializer, DataDeserializer deserializer) {
+        if (serializer == null) {
+            classSerializers.remove(clazz);
+        } else {
+            classSerializers.put(clazz, serializer);
+        }
+        if (deserializer == null) {
+            classDeserializers.remove(clazz);
+        } else {
+            classDeserializers.put(clazz, deserializer);
+        }
+        return this;
+    }
+
+    /**
+     * Index a field of the entities stored in a bucket. Retrievals with a
+     * {@link com.colintmiller.simplenosql.FieldCondition} on that field will then look matching entities up in the
+     * index instead of scanning the whole bucket. Entities already in the bucket are indexed in the background, and
+     * entities saved afterwards are indexed as they're saved. Indexes are persistent, so this only needs to be called
+     * once per field, though calling it again is harmless.
+     * <p>
+     * Fields are named the same way as in a FieldCondition, for example:
+     * <pre>
+     *     NoSQL.with(context).index("users", "email");
+     * </pre>
+     *
+     * @param bucket containing the entities to index.
+     * @param field to index.
+     * @return a CancellableOperation for canceling the indexing before it starts.
+     */
+    public CancellableOperation index(String bucket, String field) {
+        NoSQLQuery<Object> query = new NoSQLQuery<Object>(Object.class);
+        query.setBucketId(bucket);
+        query.index(field);
+        queryQueue.add(query);
+        return query;
+    }
+
+    /**
+     * Compress the data stored in a bucket, or stop compressing it. Compression suits large buckets of repetitive
+     * documents, trading some CPU for a smaller database and less I/O. A compression dictionary is trained from a sample
+     * of the entities already in the bucket, and every entity in it is rewritten in the background. Compression is
+     * persistent, and is invisible to retrievals, including field conditions and indexes. Conditions on fields that
+     * aren't indexed are checked after decompressing, so index the fields you query compressed buckets on.
+     * <p>
+     * Compressing a bucket that is already compressed trains a new dictionary from its current contents, which is worth
+     * doing once a bucket that was compressed while empty or small has filled up:
+     * <pre>
+     *     NoSQL.with(context).compress("articles", true);
+     * </pre>
+     *
+     * @param bucket containing the entities to compress.
+     * @param enabled true to compress the bucket, false to store its entities uncompressed again.
+     * @return a CancellableOperation for canceling the change before it starts.
+     */
+    public CancellableOperation compress(String bucket, boolean enabled) {
+        NoSQLQuery<Object> query = new NoSQLQuery<Object>(Object.class);
+        query.setBucketId(bucket);
+        query.compress(enabled);
+        queryQueue.add(query);
+        return query;
     }
 
     /**
@@ -156,36 +311,224 @@ public class NoSQL
     }
 
     /**
-     * Starts our dispatcher threads. This is called automatically when creating a NoSQL object. It can be called again
-     * if {@link NoSQL#stop} has been called to restart the dispatch threads.
+     * Cache retrieved entities in memory so that retrieving the same entity again doesn't need to go to the data store
+     * or deserialize it. Only retrievals of a single entity by bucket and entityId, without field conditions, use the
+     * cache. Saves and deletes made through this instance invalidate the entities they affect. For example, to keep up
+     * to 200 entities:
+     * <pre>
+     *     NoSQL.with(context).withCache(new EntityCache(200));
+     * </pre>
+     * Cached data objects are shared between retrievals, so they should not be modified.
+     *
+     * @param cache to use with this NoSQL instance, or null to stop caching.
+     * @return this for chaining.
      */
-    public void start() {
-        stop(); // in case there's already threads started.
-        ConcurrentHashMap<String, ReadWriteLock> locks = new ConcurrentHashMap<String, ReadWriteLock>();
+    public NoSQL withCache(EntityCache cache) {
+        dataStoreFactory.setCache(cache);
+        return this;
+    }
 
-        for(int i = 0; i < dispatchers.length; i++) {
-            DataDispatcher dispatcher = new DataDispatcher(queryQueue, appContext, delivery, locks, dataStoreType);
-            dispatchers[i] = dispatcher;
-            dispatcher.start();
-        }
+    /**
+     * @return the cache used by this NoSQL instance, for example to check its hit and miss counts. Null if there is no
+     * cache.
+     */
+    public EntityCache getCache() {
+        return dataStoreFactory.getCache();
     }
 
     /**
-     * Stop the dispatcher threads. No more queries can be performed until {@link NoSQL#start} is called.
+     * Commit saves and deletes that are queued together in shared transactions instead of one transaction each. This
+     * helps bursts of small writes, which are otherwise limited by how fast the device can flush each commit to disk.
+     * A dispatcher that takes a write waits up to the given window for more writes, and commits up to the given number
+     * of them at once. Observers of each write are notified only after the shared transaction has committed. For
+     * example, to commit up to 32 writes that arrive within 5 milliseconds of each other:
+     * <pre>
+     *     NoSQL.with(context).withGroupCommit(32, 5);
+     * </pre>
+     *
+     * @param maxBatchSize the most writes to commit in one transaction. 1 turns group commit off, which is the default.
+     * @param windowMillis how long to wait for more writes before committing. With 0, only writes already queued are
+     *                     committed together.
+     * @return this for chaining.
      */
-    public void stop() {
-        for (DataDispatcher dispatcher : dispatchers) {
-            if (dispatcher != null) {
-                dispatcher.quit();
-            }
+    public NoSQL withGroupCommit(int maxBatchSize, long windowMillis) {
+        processor.setGroupCommit(maxBatchSize, windowMillis);
+        return this;
+    }
+
+    /**
+     * Deliver results and notify observers in batches. Normally each callback and each observer is posted to the UI
+     * thread as a message of its own, which floods its looper when hundreds of queries finish at once. With batching,
+     * everything that's ready is delivered by a single message, which runs up to the given number of callbacks and
+     * observers or until its time budget is used up, and leaves the rest to the next message so frames can be drawn in
+     * between. For example, to spend at most 4 milliseconds of a frame on deliveries:
+     * <pre>
+     *     NoSQL.with(context).withBatchedDelivery(100, 4);
+     * </pre>
+     *
+     * @param maxPerDrain the most callbacks and observers to run in one message. 0 turns batching off, which is the
+     *                    default.
+     * @param maxDrainMillis how long one message may keep delivering, or 0 for no time limit.
+     * @return this for chaining.
+     */
+    public NoSQL withBatchedDelivery(int maxPerDrain, long maxDrainMillis) {
+        processor.setDelivery(maxPerDrain > 0 ? delivery.batched(maxPerDrain, maxDrainMillis) : delivery);
+        return this;
+    }
+
+    /**
+     * Collapse pending writes to the same entity, so that only the latest one is written. This suits entities that are
+     * saved many times in quick succession, such as progress or draft state, where only the last version matters. A
+     * save or delete of a single entity then replaces any earlier save or delete of the same bucket and entityId that
+     * hasn't started yet. The observers of a replaced write are notified once the write that replaced it is done.
+     * Saves of several entities at once and deletes of whole buckets are never collapsed.
+     * <p>
+     * Because the replacing write runs at its own place in the queue, a retrieval queued between two writes to an
+     * entity may not see the first of them.
+     *
+     * @param collapseWrites true to collapse writes, false to write every version, which is the default.
+     * @return this for chaining.
+     */
+    public NoSQL withWriteCollapsing(boolean collapseWrites) {
+        queryQueue.setCollapseWrites(collapseWrites);
+        return this;
+    }
+
+    /**
+     * Set how long a lower priority query has to wait at the front of its {@link QueryPriority} before it's promoted by
+     * one priority. Shorter aging keeps background work moving while higher priority queries keep arriving, longer
+     * aging keeps it further out of their way. The default is {@link QueryQueue#DEFAULT_AGING_MILLIS}.
+     *
+     * @param agingMillis how long to wait before each promotion.
+     * @return this for chaining.
+     */
+    public NoSQL withPriorityAging(long agingMillis) {
+        queryQueue.setAging(agingMillis);
+        return this;
+    }
+
+    /**
+     * Open the database in write-ahead logging mode. SQLite then keeps a small pool of read-only connections next to
+     * the one that writes, so retrievals run in parallel with each other and with saves and deletes instead of waiting
+     * for them. Each retrieval sees the data as of the last commit before it started. This is best set before making
+     * any queries, since the database has to be reopened to change modes: queries in progress are waited for, and the
+     * rest are held back until it has been. It has no effect on in-memory stores.
+     *
+     * @param enabled true to use write-ahead logging, false for SQLite's default rollback journal.
+     * @return this for chaining.
+     */
+    public NoSQL withWriteAheadLogging(boolean enabled) {
+        processor.setWriteAheadLogging(enabled);
+        return this;
+    }
+
+    /**
+     * Choose which threads perform queries. By default, each NoSQL instance has its own fixed set of dispatcher
+     * threads, as many as were asked for when it was created. Any queries still queued are handed to the new strategy,
+     * and the previous one is stopped. See {@link #withExecutor(Executor)} for sharing threads with the rest of an
+     * application, and {@link #withAdaptiveThreads(int, int, long)} for a number of threads that follows the load.
+     *
+     * @param strategy to dispatch queries with.
+     * @return this for chaining.
+     */
+    public synchronized NoSQL withDispatchStrategy(DispatchStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("A dispatch strategy is required");
+        }
+        if (started) {
+            dispatchStrategy.stop();
+            strategy.start(queryQueue, processor);
         }
+        dispatchStrategy = strategy;
+        return this;
+    }
+
+    /**
+     * Perform queries on the given executor instead of on dispatcher threads of this instance, so that they can share
+     * threads with the rest of an application or with other NoSQL instances. How many queries run at once is up to the
+     * executor. For example, to share a pool with other background work:
+     * <pre>
+     *     NoSQL.with(context).withExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+     * </pre>
+     * On a JVM with virtual threads, a virtual thread per task executor also works. The executor isn't shut down by
+     * {@link #stop()}.
+     *
+     * @param executor to perform queries on.
+     * @return this for chaining.
+     */
+    public NoSQL withExecutor(Executor executor) {
+        return withDispatchStrategy(new ExecutorDispatchStrategy(executor));
+    }
+
+    /**
+     * Perform queries on a pool of threads that grows and shrinks with the load, instead of on a fixed number of them.
+     * A thread is added whenever queries are waiting without an idle thread to take them, and a thread that has had
+     * nothing to do for the idle timeout quits. For example, to run no threads while the app is idle and up to 8 during
+     * bursts:
+     * <pre>
+     *     NoSQL.with(context).withAdaptiveThreads(0, 8, 30000);
+     * </pre>
+     *
+     * @param minThreads to keep once the first query is queued, even when idle.
+     * @param maxThreads to run at most.
+     * @param idleTimeoutMillis how long a thread above the minimum waits for a query before it quits.
+     * @return this for chaining.
+     */
+    public NoSQL withAdaptiveThreads(int minThreads, int maxThreads, long idleTimeoutMillis) {
+        return withDispatchStrategy(new AdaptiveDispatchStrategy(minThreads, maxThreads, idleTimeoutMillis));
+    }
+
+    /**
+     * Perform queries on a pool of threads that grows and shrinks with the load, adding threads only once the backlog
+     * crosses a threshold. A thread is added when more queries are waiting than the idle threads can take, by more than
+     * the queue depth threshold, or when a query has waited at the front of the queue for the wait threshold. For
+     * example, to tolerate a backlog of 4 queries, or of any length for up to 50 milliseconds, before adding a thread:
+     * <pre>
+     *     NoSQL.with(context).withAdaptiveThreads(1, 8, 30000, 4, 50);
+     * </pre>
+     *
+     * @param minThreads to keep once the first query is queued, even when idle.
+     * @param maxThreads to run at most.
+     * @param idleTimeoutMillis how long a thread above the minimum waits for a query before it quits.
+     * @param queueDepthThreshold how many queries may wait beyond those the idle threads can take.
+     * @param waitThresholdMillis how long a query may wait at the front of the queue, or 0 for no limit.
+     * @return this for chaining.
+     */
+    public NoSQL withAdaptiveThreads(int minThreads, int maxThreads, long idleTimeoutMillis, int queueDepthThreshold,
+                                     long waitThresholdMillis) {
+        return withDispatchStrategy(new AdaptiveDispatchStrategy(minThreads, maxThreads, idleTimeoutMillis,
+                queueDepthThreshold, waitThresholdMillis));
+    }
+
+    /**
+     * Starts dispatching queries and opens the data store connection they share. This is called automatically when
+     * creating a NoSQL object. Dispatcher threads aren't started until the first query is queued. It can be called
+     * again if {@link NoSQL#stop} has been called to restart dispatching.
+     */
+    public synchronized void start() {
+        stop(); // in case there's already threads started.
+        dataStoreFactory.open(appContext);
+        dispatchStrategy.start(queryQueue, processor);
+        started = true;
+    }
+
+    /**
+     * Stop dispatching queries and close the shared data store connection. Queries already in progress are finished
+     * first. No more queries can be performed until {@link NoSQL#start} is called; queries performed right away, such
+     * as with {@link QueryBuilder#retrieveNow()}, throw an IllegalStateException.
+     */
+    public synchronized void stop() {
+        dispatchStrategy.stop();
+        started = false;
+        processor.closeDataStores();
     }
 
     private static <T> QueryBuilder<T> withUsing(Class<T> clazz,
                                                  DataSerializer serializer,
                                                  DataDeserializer deserializer,
-                                                 BlockingQueue<NoSQLQuery<?>> queue) {
-        QueryBuilder<T> builder = new QueryBuilder<T>(clazz, queue);
+                                                 BlockingQueue<NoSQLQuery<?>> queue,
+                                                 QueryProcessor processor) {
+        QueryBuilder<T> builder = new QueryBuilder<T>(clazz, queue, processor);
         if (serializer != null) {
             builder.serializer(serializer);
         }
@@ -198,11 +541,8 @@ public class NoSQL
 
     @Override
     protected void finalize() throws Throwable {
-        for (DataDispatcher dispatcher : dispatchers) {
-            if (dispatcher != null) {
-                dispatcher.quit();
-            }
-        }
+        dispatchStrategy.stop();
+        dataStoreFactory.close();
         super.finalize();
     }
 }
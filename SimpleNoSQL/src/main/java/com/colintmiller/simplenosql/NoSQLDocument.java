@@ -0,0 +1,26 @@
+package com.colintmiller.simplenosql;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose serializer and deserializer should be generated at compile time instead of binding it by
+ * reflection at runtime. Add the SimpleNoSQL-compiler annotation processor to your build:
+ * <pre>
+ *     annotationProcessor 'com.colintmiller:simplenosql-compiler:VERSION'
+ * </pre>
+ * and {@link com.colintmiller.simplenosql.NoSQL#using(Class)} will pick up the generated
+ * {@link com.colintmiller.simplenosql.GeneratedSerialization} for annotated classes automatically.
+ * <p>
+ * The generated code reads and writes the same JSON that {@link com.colintmiller.simplenosql.GsonSerialization} does,
+ * so existing data stays readable and field conditions and indexes keep working. Annotated classes need a non-private
+ * no-argument constructor, and each stored field must either be non-private or have a bean style getter and setter.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface NoSQLDocument {
+}
@@ -1,6 +1,7 @@
 package com.colintmiller.simplenosql;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -8,19 +9,38 @@ import java.util.List;
  */
 public class NoSQLQuery<T> implements CancellableOperation {
 
+    public static final int DEFAULT_CHUNK_SIZE = 50;
+
     private DataDeserializer deserializer;
     private DataSerializer serializer;
     private String bucketId;
     private String entityId;
+    private List<String> entityIds;
     private DataFilter<T> filter;
+    private List<FieldCondition> conditions;
     private DataComparator<T> comparator;
     private List<OperationObserver> observers;
     private Class<T> clazz;
     private RetrievalCallback<T> callback;
+    private PagedRetrievalCallback<T> pagedCallback;
+    private StreamingRetrievalCallback<T> streamingCallback;
+    private MissingEntitiesCallback missingCallback;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int limit;
+    private int offset;
+    private String after;
     private NoSQLOperation operation;
     private List<NoSQLEntity<T>> entities;
+    private String indexField;
+    private boolean compressionEnabled;
+    private QueryPriority priority = QueryPriority.NORMAL;
+    private boolean directDelivery;
+    private int deletedCount;
 
-    private boolean canceled = false;
+    private volatile boolean canceled = false;
+    // Guarded by this. A query is either started by a dispatcher or superseded by a later write, never both.
+    private boolean started;
+    private boolean superseded;
 
     @Override
     public void cancel() {
@@ -31,15 +51,44 @@ public class NoSQLQuery<T> implements CancellableOperation {
         return canceled;
     }
 
+    /**
+     * Mark this query as started by a dispatcher.
+     *
+     * @return false if the query was superseded and must not be executed.
+     */
+    public synchronized boolean start() {
+        if (superseded) {
+            return false;
+        }
+        started = true;
+        return true;
+    }
+
+    /**
+     * Mark this query as superseded by a later write to the same entity, unless it has already started.
+     *
+     * @return true if the query was superseded and won't be executed.
+     */
+    public synchronized boolean supersede() {
+        if (started) {
+            return false;
+        }
+        superseded = true;
+        return true;
+    }
+
     public enum NoSQLOperation {
         RETRIEVE,
         SAVE,
-        DELETE
+        DELETE,
+        INDEX,
+        COMPRESS
     }
 
     public NoSQLQuery(Class<T> clazz) {
         this.clazz = clazz;
         this.observers = new ArrayList<OperationObserver>();
+        this.conditions = new ArrayList<FieldCondition>();
     }
 
     public void setDeserializer(DataDeserializer deserializer) {
@@ -56,16 +105,68 @@ public class NoSQLQuery<T> implements CancellableOperation {
 
     public void setEntityId(String entityId) {
         this.entityId = entityId;
+        this.entityIds = null;
+    }
+
+    /**
+     * @param entityIds to retrieve instead of a single entityId, in the order the results should be in.
+     */
+    public void setEntityIds(Collection<String> entityIds) {
+        this.entityIds = new ArrayList<String>(entityIds);
+        this.entityId = null;
     }
 
     public void setFilter(DataFilter<T> filter) {
         this.filter = filter;
     }
 
+    public void addCondition(FieldCondition condition) {
+        conditions.add(condition);
+    }
+
+    public void setMissingCallback(MissingEntitiesCallback missingCallback) {
+        this.missingCallback = missingCallback;
+    }
+
     public void setComparator(DataComparator<T> comparator) {
         this.comparator = comparator;
     }
 
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+
+    public void setAfter(String after) {
+        this.after = after;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public void setPriority(QueryPriority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @param directDelivery true to call the callback and observers on the dispatcher thread instead of through the
+     *                       QueryDelivery.
+     */
+    public void setDirectDelivery(boolean directDelivery) {
+        this.directDelivery = directDelivery;
+    }
+
+    /**
+     * @param deletedCount the number of entities this deletion deleted.
+     */
+    public void setDeletedCount(int deletedCount) {
+        this.deletedCount = deletedCount;
+    }
+
     public void addObserver(OperationObserver observer) {
         observers.add(observer);
     }
@@ -78,10 +179,18 @@ public class NoSQLQuery<T> implements CancellableOperation {
         return entityId;
     }
 
+    public List<String> getEntityIds() {
+        return entityIds;
+    }
+
     public DataFilter<T> getFilter() {
         return filter;
     }
 
+    public List<FieldCondition> getConditions() {
+        return conditions;
+    }
+
     public DataComparator<T> getComparator() {
         return comparator;
     }
@@ -98,6 +207,41 @@ public class NoSQLQuery<T> implements CancellableOperation {
         return callback;
     }
 
+    public PagedRetrievalCallback<T> getPagedCallback() {
+        return pagedCallback;
+    }
+
+    public StreamingRetrievalCallback<T> getStreamingCallback() {
+        return streamingCallback;
+    }
+
+    public MissingEntitiesCallback getMissingCallback() {
+        return missingCallback;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public QueryPriority getPriority() {
+        return priority;
+    }
+
+    public boolean isDirectDelivery() {
+        return directDelivery;
+    }
+
+    public int getDeletedCount() {
+        return deletedCount;
+    }
+
+    public Pagination getPagination() {
+        if (limit == 0 && offset == 0 && after == null) {
+            return Pagination.NONE;
+        }
+        return new Pagination(limit, offset, after);
+    }
+
     public NoSQLOperation getOperation() {
         return operation;
     }
@@ -106,11 +250,29 @@ public class NoSQLQuery<T> implements CancellableOperation {
         return entities;
     }
 
+    public String getIndexField() {
+        return indexField;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
     public void retrieve(RetrievalCallback<T> callback) {
         this.callback = callback;
         operation = NoSQLOperation.RETRIEVE;
     }
 
+    public void retrieve(PagedRetrievalCallback<T> pagedCallback) {
+        this.pagedCallback = pagedCallback;
+        operation = NoSQLOperation.RETRIEVE;
+    }
+
+    public void retrieve(StreamingRetrievalCallback<T> streamingCallback) {
+        this.streamingCallback = streamingCallback;
+        operation = NoSQLOperation.RETRIEVE;
+    }
+
     public void delete() {
         operation = NoSQLOperation.DELETE;
     }
@@ -120,16 +282,26 @@ public class NoSQLQuery<T> implements CancellableOperation {
         operation = NoSQLOperation.SAVE;
     }
 
+    public void index(String field) {
+        this.indexField = field;
+        operation = NoSQLOperation.INDEX;
+    }
+
+    public void compress(boolean enabled) {
+        this.compressionEnabled = enabled;
+        operation = NoSQLOperation.COMPRESS;
+    }
+
     public DataSerializer getSerializer() {
         if (serializer == null) {
-            return new GsonSerialization();
+            return GsonSerialization.getDefault();
         }
         return serializer;
     }
 
     public DataDeserializer getDeserializer() {
         if (deserializer == null) {
-            return new GsonSerialization();
+            return GsonSerialization.getDefault();
         }
         return deserializer;
     }
@@ -0,0 +1,18 @@
+package com.colintmiller.simplenosql;
+
+import java.util.List;
+
+/**
+ * Implement this callback to retrieve one page of a bucket from {@link com.colintmiller.simplenosql.NoSQL}. Along with
+ * the entities, it is given a continuation token that can be passed to
+ * {@link com.colintmiller.simplenosql.QueryBuilder#after(String)} to fetch the next page. The callback will be called on
+ * the UI thread so it is safe to call UI methods from within the callback.
+ */
+public interface PagedRetrievalCallback<T> {
+
+    /**
+     * @param entities in this page, ordered by entityId unless a DataComparator was supplied.
+     * @param continuationToken to fetch the next page with, or null if this was the last page.
+     */
+    public void retrievedPage(List<NoSQLEntity<T>> entities, String continuationToken);
+}
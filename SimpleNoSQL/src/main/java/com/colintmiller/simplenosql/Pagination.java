@@ -0,0 +1,51 @@
+package com.colintmiller.simplenosql;
+
+/**
+ * Describes which page of a bucket a retrieval should return. Paged results are always ordered by entityId, which lets
+ * a page start directly after the last entityId of the previous page (see {@link #getAfter()}) without the data store
+ * having to rescan the entities before it.
+ */
+public class Pagination {
+
+    /**
+     * No paging at all: the whole bucket is returned in no particular order.
+     */
+    public static final Pagination NONE = new Pagination(0, 0, null);
+
+    private final int limit;
+    private final int offset;
+    private final String after;
+
+    /**
+     * @param limit the maximum number of entities to return, or 0 for no limit.
+     * @param offset the number of matching entities to skip before the first one returned.
+     * @param after only return entities with an entityId greater than this, or null to start from the beginning.
+     */
+    public Pagination(int limit, int offset, String after) {
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("Limit and offset can not be negative");
+        }
+        this.limit = limit;
+        this.offset = offset;
+        this.after = after;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+
+    /**
+     * @return true if this pagination restricts or orders the results in any way.
+     */
+    public boolean isPaged() {
+        return limit > 0 || offset > 0 || after != null;
+    }
+}
@@ -1,6 +1,9 @@
 package com.colintmiller.simplenosql;
 
+import com.colintmiller.simplenosql.threading.QueryProcessor;
+
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
@@ -48,14 +51,26 @@ public class QueryBuilder<T> {
 
     private NoSQLQuery<T> query;
     private BlockingQueue<NoSQLQuery<?>> dispatchQueue;
+    private QueryProcessor processor;
 
     /**
      * Construct a new QueryBuilder for performing a NoSQL operation.
      * @param clazz related to this operation.
      */
     public QueryBuilder(Class<T> clazz, BlockingQueue<NoSQLQuery<?>> queue) {
+        this(clazz, queue, null);
+    }
+
+    /**
+     * Construct a new QueryBuilder for performing a NoSQL operation, which can also be performed right away on the
+     * calling thread.
+     * @param clazz related to this operation.
+     * @param processor to perform the operation with when it's performed right away.
+     */
+    public QueryBuilder(Class<T> clazz, BlockingQueue<NoSQLQuery<?>> queue, QueryProcessor processor) {
         this.query = new NoSQLQuery<T>(clazz);
         this.dispatchQueue = queue;
+        this.processor = processor;
     }
 
     /**
@@ -72,6 +87,51 @@ public class QueryBuilder<T> {
         return this;
     }
 
+    /**
+     * <p>Used in: RETRIEVAL, DELETION
+     *
+     * <p>Retrieve or delete several entities of the bucket by entityId in one query, instead of one query per entity.
+     * This replaces any entityId set before. Retrieved entities are delivered in the order of the given ids, unless a
+     * DataComparator is set, and ids without an entity are left out; use {@link #onMissing(MissingEntitiesCallback)}
+     * to find out which they were. Conditions and filters apply to retrievals as usual. Limit, offset and
+     * {@link #after(String)} don't apply.
+     *
+     * <pre>
+     *     builder.bucketId("users")
+     *       .entityIds(friendIds)
+     *       .onMissing(new MissingEntitiesCallback() {
+     *           public void entitiesMissing(List&lt;String&gt; entityIds) {
+     *               api.fetchUsers(entityIds);
+     *           }
+     *       })
+     *       .retrieve(callback);
+     * </pre>
+     *
+     * @param entityIds of the entities to retrieve or delete.
+     * @return this for chaining.
+     */
+    public QueryBuilder<T> entityIds(Collection<String> entityIds) {
+        if (entityIds == null) {
+            throw new IllegalArgumentException("EntityIds can't be null");
+        }
+        query.setEntityIds(entityIds);
+        return this;
+    }
+
+    /**
+     * <p>Used in: RETRIEVAL
+     *
+     * <p>An optional callback for a retrieval of {@link #entityIds(Collection)}, called with the ids no entity was
+     * retrieved for just before the results are delivered. It isn't called when every entity was retrieved.
+     *
+     * @param callback to call with the missing ids. The callback will be called on the UI thread.
+     * @return this for chaining.
+     */
+    public QueryBuilder<T> onMissing(MissingEntitiesCallback callback) {
+        query.setMissingCallback(callback);
+        return this;
+    }
+
     /**
      * <p>Used in: RETRIEVAL, DELETION
      *
@@ -101,6 +161,27 @@ public class QueryBuilder<T> {
         return this;
     }
 
+    /**
+     * <p>Used in: RETRIEVAL, DELETION
+     *
+     * <p>An optional condition on a field of the stored data. Unlike a filter, conditions are evaluated by the data store
+     * before any data is deserialized, so they are much cheaper on large buckets. Calling this more than once requires
+     * every condition to match. A filter, if also supplied, is applied to the entities that match the conditions.
+     * Deleting a bucket with conditions only deletes the entities that match them.
+     *
+     * <pre>
+     *     builder.where(FieldCondition.equalTo("name", "Colin"))
+     *            .where(FieldCondition.between("id", 10, 20));
+     * </pre>
+     *
+     * @param condition that returned entities must satisfy.
+     * @return this for chaining.
+     */
+    public QueryBuilder<T> where(FieldCondition condition) {
+        query.addCondition(condition);
+        return this;
+    }
+
     /**
      * <p>Used in: RETRIEVAL
      *
@@ -115,6 +196,74 @@ public class QueryBuilder<T> {
         return this;
     }
 
+    /**
+     * <p>Used in: RETRIEVAL
+     *
+     * <p>The maximum number of entities to retrieve from a bucket. Setting a limit, offset or
+     * {@link #after(String)} pages the results, which orders them by entityId before any DataComparator is applied.
+     * The limit applies after filtering, so a page is only short when there are no more matching entities.
+     *
+     * @param limit the maximum number of entities to retrieve.
+     * @return this for chaining.
+     */
+    public QueryBuilder<T> limit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit can not be negative");
+        }
+        query.setLimit(limit);
+        return this;
+    }
+
+    /**
+     * <p>Used in: RETRIEVAL
+     *
+     * <p>The number of matching entities (ordered by entityId) to skip before the first one retrieved. Skipped entities
+     * still have to be read, so for walking through a large bucket prefer {@link #after(String)}.
+     *
+     * @param offset the number of matching entities to skip.
+     * @return this for chaining.
+     */
+    public QueryBuilder<T> offset(int offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset can not be negative");
+        }
+        query.setOffset(offset);
+        return this;
+    }
+
+    /**
+     * <p>Used in: RETRIEVAL
+     *
+     * <p>Only retrieve entities whose entityId comes after the given one. Pass the continuation token from a
+     * {@link com.colintmiller.simplenosql.PagedRetrievalCallback} here to retrieve the next page. Unlike an offset,
+     * this seeks straight to the start of the page without rescanning the entities before it.
+     *
+     * @param entityId to start after, usually a continuation token from the previous page.
+     * @return this for chaining.
+     */
+    public QueryBuilder<T> after(String entityId) {
+        query.setAfter(entityId);
+        return this;
+    }
+
+    /**
+     * <p>Used in: RETRIEVAL
+     *
+     * <p>The number of entities in each chunk delivered to a
+     * {@link com.colintmiller.simplenosql.StreamingRetrievalCallback}. Smaller chunks reach the UI sooner, larger ones
+     * mean fewer callbacks. Defaults to {@link NoSQLQuery#DEFAULT_CHUNK_SIZE}.
+     *
+     * @param chunkSize the number of entities in each chunk.
+     * @return this for chaining.
+     */
+    public QueryBuilder<T> chunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1");
+        }
+        query.setChunkSize(chunkSize);
+        return this;
+    }
+
     /**
      * <p>Used in: RETRIEVAL
      *
@@ -151,6 +300,25 @@ public class QueryBuilder<T> {
         return this;
     }
 
+    /**
+     * <p>Used in: SAVE, RETRIEVAL, DELETE
+     *
+     * <p>Sets how urgently this operation should be executed. Higher priority operations are executed before lower
+     * priority ones that were queued earlier, so a retrieval the user is waiting on doesn't have to wait behind a bulk
+     * import. Lower priority operations are still promoted after waiting a while, so they can't be held up forever.
+     * Operations are {@link QueryPriority#NORMAL} by default.
+     *
+     * @param priority of this operation.
+     * @return this for chaining.
+     */
+    public QueryBuilder<T> priority(QueryPriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("Priority can't be null");
+        }
+        query.setPriority(priority);
+        return this;
+    }
+
     /**
      * <p>Used in: SAVE, RETRIEVAL, DELETE
      *
@@ -190,6 +358,76 @@ public class QueryBuilder<T> {
         return query;
     }
 
+    /**
+     * <p>Used in: RETRIEVAL
+     *
+     * <p>Perform a retrieve operation for one page of a bucket. This works just like
+     * {@link #retrieve(RetrievalCallback)}, but the callback is also given a continuation token for fetching the next
+     * page with {@link #after(String)}. The token is null once there are no more entities to retrieve.
+     *
+     * <pre>
+     *     builder.bucketId("bucket1")
+     *       .limit(50)
+     *       .after(lastToken)
+     *       .retrieve(new PagedRetrievalCallback&lt;String&gt;() {
+     *           public void retrievedPage(List&lt;NoSQLEntity&lt;String&gt;&gt; entities, String continuationToken) {
+     *               adapter.addAll(entities);
+     *               lastToken = continuationToken;
+     *           }
+     *       });
+     * </pre>
+     *
+     * @param callback to use when the page has been retrieved. The callback will be called on the UI thread.
+     * @return a CancellableOperation for canceling the in-flight request before it's finished.
+     */
+    public CancellableOperation retrieve(PagedRetrievalCallback<T> callback) {
+        query.retrieve(callback);
+        dispatchQueue.add(query);
+
+        return query;
+    }
+
+    /**
+     * <p>Used in: RETRIEVAL
+     *
+     * <p>Perform a retrieve operation that delivers its results in chunks as they are read, rather than all at once.
+     * Only one chunk needs to be held in memory at a time and the first results arrive before the rest of the bucket
+     * has been read. Use {@link #chunkSize(int)} to control how many entities are in each chunk. Results are delivered
+     * in the order they are read, so any DataComparator is ignored; use {@link #limit(int)} or {@link #after(String)}
+     * if you want them ordered by entityId.
+     *
+     * <p>Canceling the returned operation stops reading the bucket at the next chunk, and no further chunks will be
+     * delivered.
+     *
+     * @param callback to deliver each chunk to. The callback will be called on the UI thread.
+     * @return a CancellableOperation for canceling the in-flight request before it's finished.
+     */
+    public CancellableOperation retrieve(StreamingRetrievalCallback<T> callback) {
+        query.retrieve(callback);
+        dispatchQueue.add(query);
+
+        return query;
+    }
+
+    /**
+     * <p>Used in: RETRIEVAL
+     *
+     * <p>Perform a retrieve operation like {@link #retrieve(RetrievalCallback)}, but return the results as a future
+     * instead of calling back on the UI thread. The future is completed on the dispatcher thread as soon as the results
+     * are read, which suits background code that blocks on the results or chains further work onto them. Any
+     * OperationObservers are also notified on the dispatcher thread.
+     *
+     * @return a future for the retrieved entities. Canceling it cancels the retrieval.
+     */
+    public QueryFuture<List<NoSQLEntity<T>>> retrieveAsync() {
+        RetrievalFuture<T> future = new RetrievalFuture<T>(query);
+        query.retrieve(future);
+        query.setDirectDelivery(true);
+        dispatchQueue.add(query);
+
+        return future;
+    }
+
     /**
      * <p>Used in: DELETE
      *
@@ -197,8 +435,25 @@ public class QueryBuilder<T> {
      * supplied, that entire bucket will be removed. If an entity is also supplied, only that entity will be removed.
      * The bucket is required, and if it is not provided the deletion will be a noop.
      *
+     * <p>Many entities can be deleted at once, in a single transaction, by supplying {@link #entityIds(Collection)} or
+     * by supplying conditions with {@link #where(FieldCondition)} instead of an entity:
+     *
+     * <pre>
+     *     builder.bucketId("messages")
+     *       .where(FieldCondition.lessThan("sentAt", cutoff))
+     *       .addObserver(new DeletionObserver() {
+     *           public void entitiesDeleted(int count) {
+     *               Log.i(TAG, "Pruned " + count + " messages");
+     *           }
+     *
+     *           public void hasFinished() {
+     *           }
+     *       })
+     *       .delete();
+     * </pre>
+     *
      * <p>If any OperationObservers were registered, they will be triggered on the UI thread after the deletion is
-     * complete.
+     * complete. Any that are {@link DeletionObserver}s are told how many entities were deleted first.
      *
      * @return a CancellableOperation for canceling the in-flight request before it's finished.
      */
@@ -209,6 +464,61 @@ public class QueryBuilder<T> {
         return query;
     }
 
+    /**
+     * <p>Used in: RETRIEVAL
+     *
+     * <p>Perform a retrieve operation like {@link #retrieve(RetrievalCallback)}, but right away on the calling thread,
+     * returning the results once they've been read. The retrieval doesn't wait in the queue and its results don't go
+     * through the UI thread, so this suits background code that needs data immediately. It locks out the same
+     * operations as a queued retrieval. Any OperationObservers are notified on the calling thread before this returns.
+     *
+     * <p>This blocks on disk I/O and must not be called on the UI thread.
+     *
+     * @return the retrieved entities. Empty if no bucketId was set.
+     */
+    public List<NoSQLEntity<T>> retrieveNow() {
+        final List<NoSQLEntity<T>> results = new ArrayList<NoSQLEntity<T>>();
+        query.retrieve(new RetrievalCallback<T>() {
+            @Override
+            public void retrievedResults(List<NoSQLEntity<T>> entities) {
+                results.addAll(entities);
+            }
+        });
+        processNow();
+        return results;
+    }
+
+    /**
+     * <p>Used in: DELETE
+     *
+     * <p>Perform a deletion like {@link #delete()}, but right away on the calling thread, returning once the deletion
+     * is done. Any OperationObservers are notified on the calling thread before this returns. This blocks on disk I/O
+     * and must not be called on the UI thread.
+     *
+     * @return the number of entities that were deleted.
+     */
+    public int deleteNow() {
+        query.delete();
+        processNow();
+        return query.getDeletedCount();
+    }
+
+    /**
+     * <p>Used in: DELETE
+     *
+     * <p>Perform a deletion like {@link #delete()}, but return a future that is completed on the dispatcher thread once
+     * the deletion is done. Any OperationObservers are also notified on the dispatcher thread.
+     *
+     * @return a future completed with null once the deletion is done. Canceling it cancels the deletion.
+     */
+    public QueryFuture<Void> deleteAsync() {
+        QueryFuture<Void> future = observeCompletion();
+        query.delete();
+        dispatchQueue.add(query);
+
+        return future;
+    }
+
     /**
      * <p>Used in: SAVE
      *
@@ -246,4 +556,104 @@ public class QueryBuilder<T> {
         dispatchQueue.add(query);
         return query;
     }
+
+    /**
+     * <p>Used in: SAVE
+     *
+     * <p>Perform a save like {@link #save(NoSQLEntity)}, but return a future that is completed on the dispatcher thread
+     * once the entity is saved. Any OperationObservers are also notified on the dispatcher thread.
+     *
+     * @param entity to save.
+     * @return a future completed with null once the entity is saved. Canceling it cancels the save.
+     */
+    public QueryFuture<Void> saveAsync(NoSQLEntity<T> entity) {
+        List<NoSQLEntity<T>> entities = new ArrayList<NoSQLEntity<T>>(1);
+        entities.add(entity);
+        return saveAsync(entities);
+    }
+
+    /**
+     * <p>Used in: SAVE
+     *
+     * <p>Perform a save like {@link #save(List)}, but return a future that is completed on the dispatcher thread once
+     * every entity is saved. Any OperationObservers are also notified on the dispatcher thread.
+     *
+     * @param entities to save.
+     * @return a future completed with null once the entities are saved. Canceling it cancels the save.
+     */
+    public QueryFuture<Void> saveAsync(List<NoSQLEntity<T>> entities) {
+        QueryFuture<Void> future = observeCompletion();
+        query.save(entities);
+        dispatchQueue.add(query);
+        return future;
+    }
+
+    /**
+     * <p>Used in: SAVE
+     *
+     * <p>Perform a save like {@link #save(NoSQLEntity)}, but right away on the calling thread, returning once the
+     * entity is saved. Any OperationObservers are notified on the calling thread before this returns. This blocks on
+     * disk I/O and must not be called on the UI thread.
+     *
+     * @param entity to save.
+     */
+    public void saveNow(NoSQLEntity<T> entity) {
+        List<NoSQLEntity<T>> entities = new ArrayList<NoSQLEntity<T>>(1);
+        entities.add(entity);
+        saveNow(entities);
+    }
+
+    /**
+     * <p>Used in: SAVE
+     *
+     * <p>Perform a save like {@link #save(List)}, but right away on the calling thread, returning once every entity is
+     * saved. Any OperationObservers are notified on the calling thread before this returns. This blocks on disk I/O
+     * and must not be called on the UI thread.
+     *
+     * @param entities to save.
+     */
+    public void saveNow(List<NoSQLEntity<T>> entities) {
+        query.save(entities);
+        processNow();
+    }
+
+    private void processNow() {
+        if (processor == null) {
+            throw new IllegalStateException("Only QueryBuilders created by NoSQL can perform queries right away");
+        }
+        processor.processNow(query);
+    }
+
+    /**
+     * Complete a future on the dispatcher thread once the query is done. It's added as the last observer, so every
+     * other observer of the query has been notified by the time the future completes.
+     */
+    private QueryFuture<Void> observeCompletion() {
+        CompletionFuture future = new CompletionFuture(query);
+        query.addObserver(future);
+        query.setDirectDelivery(true);
+        return future;
+    }
+
+    private static class RetrievalFuture<T> extends QueryFuture<List<NoSQLEntity<T>>> implements RetrievalCallback<T> {
+        RetrievalFuture(CancellableOperation operation) {
+            super(operation);
+        }
+
+        @Override
+        public void retrievedResults(List<NoSQLEntity<T>> entities) {
+            complete(entities);
+        }
+    }
+
+    private static class CompletionFuture extends QueryFuture<Void> implements OperationObserver {
+        CompletionFuture(CancellableOperation operation) {
+            super(operation);
+        }
+
+        @Override
+        public void hasFinished() {
+            complete(null);
+        }
+    }
 }
@@ -0,0 +1,174 @@
+package com.colintmiller.simplenosql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of a query made with one of the async methods of {@link QueryBuilder}, such as
+ * {@link QueryBuilder#retrieveAsync()}. The future is completed directly on the dispatcher thread that performed the
+ * query, without a round trip through the UI thread, so background code can block on {@link #get()} or chain further
+ * work with {@link #addListener(Runnable, Executor)}.
+ * <p>
+ * If the query throws while it's performed, {@link #get()} throws an {@link ExecutionException} with the cause.
+ * Canceling the future cancels the query if it hasn't been performed yet.
+ * <p>
+ * Listeners make it easy to adapt a QueryFuture to other future libraries. For example, on API 24 and above:
+ * <pre>
+ *     final CompletableFuture&lt;List&lt;NoSQLEntity&lt;User&gt;&gt;&gt; users = new CompletableFuture&lt;&gt;();
+ *     final QueryFuture&lt;List&lt;NoSQLEntity&lt;User&gt;&gt;&gt; query = builder.bucketId("users").retrieveAsync();
+ *     query.addListener(new Runnable() {
+ *         public void run() {
+ *             try {
+ *                 users.complete(query.get());
+ *             } catch (Exception e) {
+ *                 users.completeExceptionally(e);
+ *             }
+ *         }
+ *     }, Runnable::run);
+ * </pre>
+ *
+ * @param <V> the type of the result.
+ */
+public class QueryFuture<V> implements Future<V> {
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELED = 3;
+
+    private final CancellableOperation operation;
+    // Guarded by this.
+    private int state = PENDING;
+    private V value;
+    private Throwable failure;
+    private List<Runnable> listeners = new ArrayList<Runnable>();
+
+    protected QueryFuture(CancellableOperation operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Cancel the query, unless it has already finished. A query that is already being performed runs to completion,
+     * but the future stays canceled.
+     *
+     * @param mayInterruptIfRunning ignored, dispatcher threads are never interrupted.
+     * @return true if the future was canceled by this call.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!finish(CANCELED, null, null)) {
+            return false;
+        }
+        operation.cancel();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == CANCELED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != PENDING;
+    }
+
+    @Override
+    public synchronized V get() throws InterruptedException, ExecutionException {
+        while (state == PENDING) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized V get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (state == PENDING) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    /**
+     * Run a listener once the future is done, whether the query succeeded, failed or was canceled. If it's already
+     * done, the listener is run right away.
+     *
+     * @param listener to run.
+     * @param executor to run the listener on. An executor that runs it immediately runs it on the dispatcher thread.
+     */
+    public void addListener(final Runnable listener, final Executor executor) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(listener);
+            }
+        };
+        synchronized (this) {
+            if (state == PENDING) {
+                listeners.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Complete the future with the query's result. Only the first completion of a future has any effect.
+     *
+     * @param value the query produced.
+     * @return true if the future was completed by this call.
+     */
+    protected boolean complete(V value) {
+        return finish(SUCCEEDED, value, null);
+    }
+
+    /**
+     * Complete the future with the exception the query threw. Called by the dispatcher performing the query.
+     *
+     * @param failure the query threw.
+     * @return true if the future was completed by this call.
+     */
+    public boolean fail(Throwable failure) {
+        return finish(FAILED, null, failure);
+    }
+
+    private boolean finish(int state, V value, Throwable failure) {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (this.state != PENDING) {
+                return false;
+            }
+            this.state = state;
+            this.value = value;
+            this.failure = failure;
+            toRun = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        for (Runnable listener : toRun) {
+            listener.run();
+        }
+        return true;
+    }
+
+    private V result() throws ExecutionException {
+        if (state == CANCELED) {
+            throw new CancellationException();
+        }
+        if (state == FAILED) {
+            throw new ExecutionException(failure);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,21 @@
+package com.colintmiller.simplenosql;
+
+/**
+ * How urgently a query should be executed. Queued queries are handed to dispatchers highest priority first, and in the
+ * order they were queued within a priority. A query that has been waiting at the front of its priority for a while is
+ * promoted, so lower priority work still makes progress while higher priority queries keep arriving.
+ */
+public enum QueryPriority {
+    /**
+     * For queries a user is waiting on, such as loading what's on screen.
+     */
+    IMMEDIATE,
+    /**
+     * The default for every query.
+     */
+    NORMAL,
+    /**
+     * For bulk work nobody is waiting on, such as imports and cleanup.
+     */
+    BACKGROUND
+}
@@ -0,0 +1,23 @@
+package com.colintmiller.simplenosql;
+
+import java.util.List;
+
+/**
+ * Implement this callback to receive the results of a query from {@link com.colintmiller.simplenosql.NoSQL} a chunk at
+ * a time, as they are read, rather than waiting for the whole result set to be built in memory. All methods will be
+ * called on the UI thread so it is safe to call UI methods from within the callback.
+ */
+public interface StreamingRetrievalCallback<T> {
+
+    /**
+     * Called with each chunk of results in the order they were read.
+     *
+     * @param entities in this chunk. Never empty.
+     */
+    public void retrievedChunk(List<NoSQLEntity<T>> entities);
+
+    /**
+     * Called once all chunks have been delivered. Not called if the retrieval was canceled.
+     */
+    public void retrievalComplete();
+}
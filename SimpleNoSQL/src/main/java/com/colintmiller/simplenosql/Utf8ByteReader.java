@@ -0,0 +1,89 @@
+package com.colintmiller.simplenosql;
+
+import java.io.Reader;
+
+/**
+ * A Reader that decodes UTF-8 straight out of a byte array. Unlike an InputStreamReader, it needs no intermediate byte
+ * or char buffers of its own. Malformed input is decoded as the replacement character, U+FFFD.
+ */
+class Utf8ByteReader extends Reader {
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final byte[] data;
+    private int position;
+    // The low half of a surrogate pair that didn't fit in the last read.
+    private char pendingLow;
+
+    Utf8ByteReader(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int count = 0;
+        if (pendingLow != 0) {
+            buffer[offset + count++] = pendingLow;
+            pendingLow = 0;
+        }
+        while (count < length && position < data.length) {
+            int codePoint = decode();
+            if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                buffer[offset + count++] = (char) codePoint;
+            } else {
+                buffer[offset + count++] = Character.highSurrogate(codePoint);
+                char low = Character.lowSurrogate(codePoint);
+                if (count < length) {
+                    buffer[offset + count++] = low;
+                } else {
+                    pendingLow = low;
+                }
+            }
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private int decode() {
+        int first = data[position++] & 0xFF;
+        if (first < 0x80) {
+            return first;
+        }
+
+        int extra;
+        int codePoint;
+        int minimum;
+        if ((first & 0xE0) == 0xC0) {
+            extra = 1;
+            codePoint = first & 0x1F;
+            minimum = 0x80;
+        } else if ((first & 0xF0) == 0xE0) {
+            extra = 2;
+            codePoint = first & 0x0F;
+            minimum = 0x800;
+        } else if ((first & 0xF8) == 0xF0) {
+            extra = 3;
+            codePoint = first & 0x07;
+            minimum = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+        } else {
+            return REPLACEMENT;
+        }
+
+        for (int i = 0; i < extra; i++) {
+            if (position >= data.length || (data[position] & 0xC0) != 0x80) {
+                return REPLACEMENT;
+            }
+            codePoint = (codePoint << 6) | (data[position++] & 0x3F);
+        }
+        if (codePoint < minimum || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            return REPLACEMENT;
+        }
+        return codePoint;
+    }
+}
@@ -0,0 +1,114 @@
+package com.colintmiller.simplenosql;
+
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A Writer that encodes UTF-8 straight into a growable byte array, which can be reset and reused for the next value.
+ * Unlike an OutputStreamWriter over a ByteArrayOutputStream, there is no encoder buffer between the chars and the
+ * bytes. Unpaired surrogates are encoded as '?', as String.getBytes would.
+ */
+class Utf8ByteWriter extends Writer {
+    private byte[] bytes;
+    private int size;
+    private char pendingHigh;
+
+    Utf8ByteWriter(int initialCapacity) {
+        bytes = new byte[initialCapacity];
+    }
+
+    @Override
+    public void write(int c) {
+        writeChar((char) c);
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            writeChar(buffer[i]);
+        }
+    }
+
+    @Override
+    public void write(String string, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            writeChar(string.charAt(i));
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return a copy of everything written since the last reset.
+     */
+    byte[] toByteArray() {
+        if (pendingHigh != 0) {
+            pendingHigh = 0;
+            ensureCapacity(1);
+            bytes[size++] = '?';
+        }
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * @return the number of bytes the writer can hold before growing.
+     */
+    int capacity() {
+        return bytes.length;
+    }
+
+    void reset() {
+        size = 0;
+        pendingHigh = 0;
+    }
+
+    private void writeChar(char c) {
+        if (pendingHigh != 0) {
+            char high = pendingHigh;
+            pendingHigh = 0;
+            if (Character.isLowSurrogate(c)) {
+                writeCodePoint(Character.toCodePoint(high, c));
+                return;
+            }
+            writeCodePoint('?');
+        }
+        if (Character.isHighSurrogate(c)) {
+            pendingHigh = c;
+        } else if (Character.isLowSurrogate(c)) {
+            writeCodePoint('?');
+        } else {
+            writeCodePoint(c);
+        }
+    }
+
+    private void writeCodePoint(int codePoint) {
+        ensureCapacity(4);
+        if (codePoint < 0x80) {
+            bytes[size++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            bytes[size++] = (byte) (0xC0 | (codePoint >> 6));
+            bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            bytes[size++] = (byte) (0xE0 | (codePoint >> 12));
+            bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else {
+            bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+            bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.colintmiller.simplenosql.db;
+
+import com.colintmiller.simplenosql.DataFilter;
+import com.colintmiller.simplenosql.FieldCondition;
+import com.colintmiller.simplenosql.NoSQLEntity;
+import com.colintmiller.simplenosql.Pagination;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A DataStore that answers retrievals of a single entity from an {@link EntityCache} before going to the DataStore it
+ * wraps, and caches what it reads. Retrievals of several entities by id only go to the wrapped DataStore for the ones
+ * that aren't cached. Every save and delete made through it invalidates the affected cache entries. Retrievals with
+ * field conditions and whole-bucket retrievals always go to the wrapped DataStore.
+ */
+public class CachingDataStore implements DataStore {
+
+    private final DataStore dataStore;
+    private final EntityCache cache;
+
+    /**
+     * @param dataStore to read from on a cache miss and to write through to.
+     * @param cache to keep retrieved entities in.
+     */
+    public CachingDataStore(DataStore dataStore, EntityCache cache) {
+        this.dataStore = dataStore;
+        this.cache = cache;
+    }
+
+    @Override
+    public <T> void saveEntity(NoSQLEntity<T> entity) {
+        saveEntities(Collections.singletonList(entity));
+    }
+
+    @Override
+    public <T> void saveEntities(List<NoSQLEntity<T>> entities) {
+        try {
+            dataStore.saveEntities(entities);
+        } finally {
+            for (NoSQLEntity<T> entity : entities) {
+                if (entity.getBucket() != null && entity.getId() != null) {
+                    cache.invalidate(entity.getBucket(), entity.getId());
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean deleteEntity(String bucket, String entityId) {
+        try {
+            return dataStore.deleteEntity(bucket, entityId);
+        } finally {
+            if (bucket != null && entityId != null) {
+                cache.invalidate(bucket, entityId);
+            }
+        }
+    }
+
+    @Override
+    public boolean deleteBucket(String bucket) {
+        try {
+            return dataStore.deleteBucket(bucket);
+        } finally {
+            if (bucket != null) {
+                cache.invalidateBucket(bucket);
+            }
+        }
+    }
+
+    @Override
+    public int deleteEntities(String bucket, Collection<String> entityIds) {
+        try {
+            return dataStore.deleteEntities(bucket, entityIds);
+        } finally {
+            if (bucket != null) {
+                for (String entityId : entityIds) {
+                    if (entityId != null) {
+                        cache.invalidate(bucket, entityId);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int deleteEntitiesWhere(String bucket, List<FieldCondition> conditions) {
+        try {
+            return dataStore.deleteEntitiesWhere(bucket, conditions);
+        } finally {
+            // Which entities matched isn't known here, so the whole bucket goes.
+            if (bucket != null) {
+                cache.invalidateBucket(bucket);
+            }
+        }
+    }
+
+    @Override
+    public void createIndex(String bucket, String field) {
+        dataStore.createIndex(bucket, field);
+    }
+
+    @Override
+    public void setCompression(String bucket, boolean enabled) {
+        // Only the stored form changes, so cached entities are still valid.
+        dataStore.setCompression(bucket, enabled);
+    }
+
+    @Override
+    public void runInTransaction(Runnable operations) {
+        // Writes inside the transaction invalidate the cache before they're committed, so they do it again after.
+        cache.beginTransaction();
+        try {
+            dataStore.runInTransaction(operations);
+        } finally {
+            cache.endTransaction();
+        }
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, String entityId, Class<T> clazz, DataFilter<T> filter) {
+        if (bucket == null || entityId == null) {
+            return dataStore.getEntities(bucket, entityId, clazz, filter);
+        }
+
+        NoSQLEntity<T> entity = cache.get(bucket, entityId, clazz);
+        if (entity == null) {
+            long generation = cache.getGeneration();
+            List<NoSQLEntity<T>> stored = dataStore.getEntities(bucket, entityId, clazz, null);
+            if (stored.isEmpty()) {
+                return stored;
+            }
+            entity = stored.get(0);
+            cache.put(entity, clazz, generation);
+        }
+
+        List<NoSQLEntity<T>> results = new ArrayList<NoSQLEntity<T>>(1);
+        if (filter == null || filter.isIncluded(entity)) {
+            results.add(entity);
+        }
+        return results;
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, String entityId, Class<T> clazz, DataFilter<T> filter,
+                                                List<FieldCondition> conditions) {
+        if (conditions.isEmpty()) {
+            return getEntities(bucket, entityId, clazz, filter);
+        }
+        return dataStore.getEntities(bucket, entityId, clazz, filter, conditions);
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, Collection<String> entityIds, Class<T> clazz,
+                                                DataFilter<T> filter, List<FieldCondition> conditions) {
+        if (bucket == null || !conditions.isEmpty()) {
+            return dataStore.getEntities(bucket, entityIds, clazz, filter, conditions);
+        }
+
+        // Answer what the cache can, then read all of the misses from the wrapped DataStore at once.
+        Map<String, NoSQLEntity<T>> found = new HashMap<String, NoSQLEntity<T>>();
+        List<String> misses = new ArrayList<String>();
+        Set<String> ids = new LinkedHashSet<String>(entityIds);
+        ids.remove(null);
+        for (String entityId : ids) {
+            NoSQLEntity<T> entity = cache.get(bucket, entityId, clazz);
+            if (entity == null) {
+                misses.add(entityId);
+            } else {
+                found.put(entityId, entity);
+            }
+        }
+        if (!misses.isEmpty()) {
+            long generation = cache.getGeneration();
+            for (NoSQLEntity<T> entity : dataStore.getEntities(bucket, misses, clazz, null, conditions)) {
+                cache.put(entity, clazz, generation);
+                found.put(entity.getId(), entity);
+            }
+        }
+
+        List<NoSQLEntity<T>> results = new ArrayList<NoSQLEntity<T>>(found.size());
+        for (String entityId : ids) {
+            NoSQLEntity<T> entity = found.get(entityId);
+            if (entity != null && (filter == null || filter.isIncluded(entity))) {
+                results.add(entity);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter) {
+        return dataStore.getEntities(bucket, clazz, filter);
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                                List<FieldCondition> conditions) {
+        return dataStore.getEntities(bucket, clazz, filter, conditions);
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                                List<FieldCondition> conditions, Pagination pagination) {
+        return dataStore.getEntities(bucket, clazz, filter, conditions, pagination);
+    }
+
+    @Override
+    public <T> void streamEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                   List<FieldCondition> conditions, Pagination pagination, int chunkSize,
+                                   EntityConsumer<T> consumer) {
+        dataStore.streamEntities(bucket, clazz, filter, conditions, pagination, chunkSize, consumer);
+    }
+}
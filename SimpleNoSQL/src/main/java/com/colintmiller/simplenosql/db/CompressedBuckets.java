@@ -0,0 +1,271 @@
+package com.colintmiller.simplenosql.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.colintmiller.simplenosql.db.SimpleNoSQLContract.CompressionEntry;
+import static com.colintmiller.simplenosql.db.SimpleNoSQLContract.DictionaryEntry;
+import static com.colintmiller.simplenosql.db.SimpleNoSQLContract.EntityEntry;
+
+/**
+ * Per-bucket compression of stored data. A compressed bucket has its data compressed by {@link DeflateCodec} between
+ * serialization and the write, using a dictionary trained from a sample of the bucket when compression was turned on.
+ * <p>
+ * Only compressed buckets ever hold compressed rows, since turning compression on or off rewrites the whole bucket.
+ * Data of other buckets is therefore never inspected for a compression header. All methods expect to be called inside
+ * a transaction on the given database when they write more than one row.
+ */
+final class CompressedBuckets {
+    private static final String COMMA_SEP = ",";
+
+    static final String SQL_CREATE_SETTINGS =
+            "CREATE TABLE IF NOT EXISTS " + CompressionEntry.TABLE_NAME + " (" +
+            CompressionEntry._ID + " INTEGER PRIMARY KEY," +
+            CompressionEntry.COLUMN_NAME_BUCKET_ID + " TEXT" + COMMA_SEP +
+            CompressionEntry.COLUMN_NAME_DICTIONARY_ID + " INTEGER" + COMMA_SEP +
+            " UNIQUE(" + CompressionEntry.COLUMN_NAME_BUCKET_ID + ") ON CONFLICT REPLACE)";
+
+    static final String SQL_CREATE_DICTIONARIES =
+            "CREATE TABLE IF NOT EXISTS " + DictionaryEntry.TABLE_NAME + " (" +
+            DictionaryEntry._ID + " INTEGER PRIMARY KEY," +
+            DictionaryEntry.COLUMN_NAME_BUCKET_ID + " TEXT" + COMMA_SEP +
+            DictionaryEntry.COLUMN_NAME_DATA + " BLOB)";
+
+    private static final String SQL_UPDATE_DATA =
+            "UPDATE " + EntityEntry.TABLE_NAME + " SET " + EntityEntry.COLUMN_NAME_DATA + "=? WHERE " +
+            EntityEntry._ID + "=?";
+
+    // The number of rows a dictionary is trained from, and the number rewritten per query when compression changes.
+    private static final int SAMPLE_SIZE = 200;
+    private static final int REWRITE_BATCH_SIZE = 100;
+
+    // Dictionary id of a bucket that isn't compressed. Compressed buckets without a dictionary use 0.
+    private static final long NOT_COMPRESSED = -1;
+
+    // Shared by every helper in the process, since they all open the same database file. Cleared whenever the tables are
+    // created or upgraded, since ids cached for an earlier copy of the database would be wrong for the new one.
+    private static final ConcurrentHashMap<String, Long> dictionaryIdsByBucket = new ConcurrentHashMap<String, Long>();
+    private static final ConcurrentHashMap<Long, byte[]> dictionaries = new ConcurrentHashMap<Long, byte[]>();
+
+    private CompressedBuckets() {}
+
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_SETTINGS);
+        db.execSQL(SQL_CREATE_DICTIONARIES);
+    }
+
+    /**
+     * Forget the cached settings and dictionaries, so that they are read again from the database on next use. Must be
+     * called whenever the database is created or upgraded.
+     */
+    static void clearCache() {
+        dictionaryIdsByBucket.clear();
+        dictionaries.clear();
+    }
+
+    /**
+     * @param db to read settings from.
+     * @param bucket to check.
+     * @return true if the bucket stores its data compressed.
+     */
+    static boolean isCompressed(SQLiteDatabase db, String bucket) {
+        return getDictionaryId(db, bucket) != NOT_COMPRESSED;
+    }
+
+    /**
+     * Prepare serialized data to be stored in a bucket, compressing it if the bucket is compressed.
+     *
+     * @param db the data will be stored in.
+     * @param bucket the data will be stored in.
+     * @param data serialized data.
+     * @return the data to store.
+     */
+    static byte[] compress(SQLiteDatabase db, String bucket, byte[] data) {
+        long dictionaryId = getDictionaryId(db, bucket);
+        if (dictionaryId == NOT_COMPRESSED) {
+            return data;
+        }
+        return DeflateCodec.compress(data, dictionaryId, getDictionary(db, dictionaryId));
+    }
+
+    /**
+     * Get the serialized data back from data stored in a compressed bucket.
+     *
+     * @param db the data was read from.
+     * @param stored data read from a compressed bucket.
+     * @return the uncompressed data.
+     */
+    static byte[] decompress(SQLiteDatabase db, byte[] stored) {
+        if (!DeflateCodec.isCompressed(stored)) {
+            return stored;
+        }
+        return DeflateCodec.decompress(stored, getDictionary(db, DeflateCodec.getDictionaryId(stored)));
+    }
+
+    /**
+     * Turn compression of a bucket on or off, rewriting every entity already in it. Turning compression on for a bucket
+     * that is already compressed trains a new dictionary from its current contents. Must be called inside a
+     * transaction.
+     *
+     * @param db containing the bucket.
+     * @param bucket to compress or stop compressing.
+     * @param enabled true to compress the bucket.
+     */
+    static void setCompression(SQLiteDatabase db, String bucket, boolean enabled) {
+        long previousId = getDictionaryId(db, bucket);
+        if (!enabled && previousId == NOT_COMPRESSED) {
+            return;
+        }
+
+        long dictionaryId = NOT_COMPRESSED;
+        if (enabled) {
+            byte[] dictionary = DeflateCodec.train(sample(db, bucket, previousId != NOT_COMPRESSED),
+                    DeflateCodec.MAX_DICTIONARY_SIZE);
+            dictionaryId = 0;
+            if (dictionary.length > 0) {
+                ContentValues values = new ContentValues();
+                values.put(DictionaryEntry.COLUMN_NAME_BUCKET_ID, bucket);
+                values.put(DictionaryEntry.COLUMN_NAME_DATA, dictionary);
+                dictionaryId = db.insertOrThrow(DictionaryEntry.TABLE_NAME, null, values);
+                dictionaries.put(dictionaryId, dictionary);
+            }
+            ContentValues setting = new ContentValues();
+            setting.put(CompressionEntry.COLUMN_NAME_BUCKET_ID, bucket);
+            setting.put(CompressionEntry.COLUMN_NAME_DICTIONARY_ID, dictionaryId);
+            db.insertOrThrow(CompressionEntry.TABLE_NAME, null, setting);
+        } else {
+            String[] args = {bucket};
+            db.delete(CompressionEntry.TABLE_NAME, CompressionEntry.COLUMN_NAME_BUCKET_ID + "=?", args);
+        }
+
+        rewrite(db, bucket, previousId != NOT_COMPRESSED, dictionaryId);
+
+        // No row uses an older dictionary of the bucket anymore.
+        String[] args = {bucket, Long.toString(dictionaryId)};
+        db.delete(DictionaryEntry.TABLE_NAME, DictionaryEntry.COLUMN_NAME_BUCKET_ID + "=? AND " +
+                DictionaryEntry._ID + "!=?", args);
+        // Reloaded on next use, so that a rolled back transaction doesn't leave the wrong setting cached.
+        dictionaryIdsByBucket.remove(bucket);
+    }
+
+    private static long getDictionaryId(SQLiteDatabase db, String bucket) {
+        if (bucket == null) {
+            return NOT_COMPRESSED;
+        }
+        Long dictionaryId = dictionaryIdsByBucket.get(bucket);
+        if (dictionaryId == null) {
+            dictionaryId = loadDictionaryId(db, bucket);
+            dictionaryIdsByBucket.put(bucket, dictionaryId);
+        }
+        return dictionaryId;
+    }
+
+    private static byte[] getDictionary(SQLiteDatabase db, long dictionaryId) {
+        if (dictionaryId <= 0) {
+            return null;
+        }
+        byte[] dictionary = dictionaries.get(dictionaryId);
+        if (dictionary == null) {
+            String[] columns = {DictionaryEntry.COLUMN_NAME_DATA};
+            String[] args = {Long.toString(dictionaryId)};
+            Cursor cursor = db.query(DictionaryEntry.TABLE_NAME, columns, DictionaryEntry._ID + "=?", args, null,
+                    null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    throw new IllegalStateException("Missing compression dictionary " + dictionaryId);
+                }
+                dictionary = cursor.getBlob(0);
+            } finally {
+                cursor.close();
+            }
+            dictionaries.put(dictionaryId, dictionary);
+        }
+        return dictionary;
+    }
+
+    private static long loadDictionaryId(SQLiteDatabase db, String bucket) {
+        String[] columns = {CompressionEntry.COLUMN_NAME_DICTIONARY_ID};
+        String[] args = {bucket};
+        Cursor cursor = db.query(CompressionEntry.TABLE_NAME, columns, CompressionEntry.COLUMN_NAME_BUCKET_ID + "=?",
+                args, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : NOT_COMPRESSED;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<byte[]> sample(SQLiteDatabase db, String bucket, boolean compressed) {
+        List<byte[]> samples = new ArrayList<byte[]>();
+        String[] columns = {EntityEntry.COLUMN_NAME_DATA};
+        String[] args = {bucket};
+        Cursor cursor = db.query(EntityEntry.TABLE_NAME, columns, EntityEntry.COLUMN_NAME_BUCKET_ID + "=?", args,
+                null, null, "RANDOM()", Integer.toString(SAMPLE_SIZE));
+        try {
+            while (cursor.moveToNext()) {
+                byte[] data = cursor.getBlob(0);
+                samples.add(compressed ? decompress(db, data) : data);
+            }
+        } finally {
+            cursor.close();
+        }
+        return samples;
+    }
+
+    /**
+     * Rewrite every row of a bucket with its data compressed with the given dictionary, or uncompressed. Rows are read
+     * in batches by row id rather than through one cursor over the rows being updated.
+     */
+    private static void rewrite(SQLiteDatabase db, String bucket, boolean compressed, long dictionaryId) {
+        byte[] dictionary = getDictionary(db, dictionaryId);
+        SQLiteStatement update = db.compileStatement(SQL_UPDATE_DATA);
+        String[] columns = {EntityEntry._ID, EntityEntry.COLUMN_NAME_DATA};
+        String selection = EntityEntry.COLUMN_NAME_BUCKET_ID + "=? AND " + EntityEntry._ID + ">?";
+        long lastId = 0;
+        try {
+            while (true) {
+                List<Long> ids = new ArrayList<Long>(REWRITE_BATCH_SIZE);
+                List<byte[]> rows = new ArrayList<byte[]>(REWRITE_BATCH_SIZE);
+                String[] args = {bucket, Long.toString(lastId)};
+                Cursor cursor = db.query(EntityEntry.TABLE_NAME, columns, selection, args, null, null,
+                        EntityEntry._ID, Integer.toString(REWRITE_BATCH_SIZE));
+                try {
+                    while (cursor.moveToNext()) {
+                        ids.add(cursor.getLong(0));
+                        rows.add(cursor.getBlob(1));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                if (ids.isEmpty()) {
+                    return;
+                }
+
+                for (int i = 0; i < ids.size(); i++) {
+                    byte[] stored = rows.get(i);
+                    if (stored == null) {
+                        continue;
+                    }
+                    byte[] data = compressed ? decompress(db, stored) : stored;
+                    byte[] rewritten = dictionaryId == NOT_COMPRESSED ? data :
+                            DeflateCodec.compress(data, dictionaryId, dictionary);
+                    if (rewritten != stored) {
+                        update.bindBlob(1, rewritten);
+                        update.bindLong(2, ids.get(i));
+                        update.executeUpdateDelete();
+                        update.clearBindings();
+                    }
+                }
+                lastId = ids.get(ids.size() - 1);
+            }
+        } finally {
+            update.close();
+        }
+    }
+}
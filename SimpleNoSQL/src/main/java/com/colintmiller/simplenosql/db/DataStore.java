@@ -1,8 +1,11 @@
 package com.colintmiller.simplenosql.db;
 
 import com.colintmiller.simplenosql.DataFilter;
+import com.colintmiller.simplenosql.FieldCondition;
 import com.colintmiller.simplenosql.NoSQLEntity;
+import com.colintmiller.simplenosql.Pagination;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -22,6 +25,15 @@ public interface DataStore {
      */
     <T> void saveEntity(NoSQLEntity<T> entity);
 
+    /**
+     * Save all of the given entities to the DataStore as a single atomic operation. Either every entity is stored or,
+     * if any of them fail, none of them are. Each entity is stored just as it would be with saveEntity.
+     *
+     * @param entities to be stored.
+     * @param <T> the type of the objects being stored.
+     */
+    <T> void saveEntities(List<NoSQLEntity<T>> entities);
+
     /**
      * Delete a given entity from a given bucket. Future calls to getEntities for this bucket/entityId combination
      * should not return results. If the
@@ -40,6 +52,58 @@ public interface DataStore {
      */
     boolean deleteBucket(String bucket);
 
+    /**
+     * Delete the entities of a given bucket with any of the given entityIds as a single atomic operation. Deleting
+     * many entities this way is much cheaper than deleting each of them on its own.
+     *
+     * @param bucket to delete entities from
+     * @param entityIds of the entities to be deleted. Null ids and ids without an entity are ignored.
+     * @return the number of entities that were deleted
+     */
+    int deleteEntities(String bucket, Collection<String> entityIds);
+
+    /**
+     * Delete the entities of a given bucket that match all of the given field conditions as a single atomic operation.
+     * Conditions are evaluated just as they are for getEntities. With no conditions, the whole bucket is deleted.
+     *
+     * @param bucket to delete entities from
+     * @param conditions that an entity's fields must all satisfy for it to be deleted. May be empty.
+     * @return the number of entities that were deleted
+     */
+    int deleteEntitiesWhere(String bucket, List<FieldCondition> conditions);
+
+    /**
+     * Index a field of the entities in a bucket. Existing entities are indexed immediately and entities saved later are
+     * indexed as they're saved. Retrievals with field conditions on an indexed field should use the index rather than
+     * scanning the bucket. Indexing a field that is already indexed rebuilds its index.
+     *
+     * @param bucket to index.
+     * @param field to index, named as it would be in a {@link com.colintmiller.simplenosql.FieldCondition}.
+     */
+    void createIndex(String bucket, String field);
+
+    /**
+     * Turn compression of the data stored in a bucket on or off. Entities already in the bucket are rewritten
+     * immediately and entities saved later are stored the same way. Compression is invisible to retrievals, including
+     * field conditions and indexes. Turning compression on for a bucket that is already compressed re-tunes it to the
+     * bucket's current contents. DataStores that gain nothing from compression may ignore this.
+     *
+     * @param bucket to compress or stop compressing.
+     * @param enabled true to compress the bucket.
+     */
+    void setCompression(String bucket, boolean enabled);
+
+    /**
+     * Run several operations on this DataStore, or on other views of the same storage, as a single transaction. The
+     * operations' own transactions join this one, so either all of their changes are committed together when this
+     * returns or, if any operation throws, none of them are. Committing once for many small writes is much cheaper than
+     * committing each of them. DataStores without transactions of their own still have to undo the operations' changes
+     * when one of them throws.
+     *
+     * @param operations to run inside the transaction.
+     */
+    void runInTransaction(Runnable operations);
+
     /**
      * Get an entity of the specified bucket and entityId and return an object of the given class. This also runs the
      * given filter. If the entity does not pass the filter, an empty list will be returned.
@@ -53,6 +117,38 @@ public interface DataStore {
      */
     <T> List<NoSQLEntity<T>> getEntities(String bucket, String entityId, Class<T> clazz, DataFilter<T> filter);
 
+    /**
+     * Get an entity of the specified bucket and entityId, only if it matches all of the given field conditions. The
+     * conditions are checked before the entity is deserialized. The optional filter is then applied as usual.
+     *
+     * @param bucket to retrieve the entity from
+     * @param entityId of the entity to be retrieved
+     * @param clazz class of the given entity.  All entities in a bucket should be the same class.
+     * @param filter is an optional filter to apply to the entity
+     * @param conditions that the entity's fields must all satisfy. May be empty.
+     * @param <T> type of the object to be returned.
+     * @return a List of NoSQLEntity objects that will contain either the specified entity, or be empty.
+     */
+    <T> List<NoSQLEntity<T>> getEntities(String bucket, String entityId, Class<T> clazz, DataFilter<T> filter,
+                                         List<FieldCondition> conditions);
+
+    /**
+     * Get the entities of the specified bucket with any of the given entityIds, only if they match all of the given
+     * field conditions. The optional filter is then applied as usual. Entities are returned in the order their ids
+     * were given, and each at most once. Ids without a matching entity are left out of the results. Implementations
+     * should read all of the entities at once, so this is much cheaper than retrieving each of them on its own.
+     *
+     * @param bucket to retrieve the entities from
+     * @param entityIds of the entities to be retrieved. Null ids are ignored.
+     * @param clazz class of the given entity.  All entities in a bucket should be the same class.
+     * @param filter is an optional filter to apply to the entities
+     * @param conditions that each entity's fields must all satisfy. May be empty.
+     * @param <T> type of the object to be returned.
+     * @return a List of NoSQLEntity objects containing the entities that were found, in requested order.
+     */
+    <T> List<NoSQLEntity<T>> getEntities(String bucket, Collection<String> entityIds, Class<T> clazz,
+                                         DataFilter<T> filter, List<FieldCondition> conditions);
+
     /**
      * Get all entities of the specified bucket. If a filter is supplied, also filter the results. If there are no
      * entities in the given bucket, or if the filter excludes all of them, an empty list will be returned.
@@ -64,4 +160,54 @@ public interface DataStore {
      * @return a List of NoSQLEntity objects containing the filtered entities of the given bucket.
      */
     <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter);
+
+    /**
+     * Get all entities of the specified bucket that match all of the given field conditions. Entities that don't match
+     * the conditions should not be deserialized at all. If a filter is supplied, it is applied to the remaining
+     * entities afterwards.
+     *
+     * @param bucket to retrieve all entities from
+     * @param clazz class of the given entity. All entities in a bucket should be the same class.
+     * @param filter is the optional filter to apply to the entity.
+     * @param conditions that each entity's fields must all satisfy. May be empty.
+     * @param <T> type of the object to be returned.
+     * @return a List of NoSQLEntity objects containing the matching entities of the given bucket.
+     */
+    <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                         List<FieldCondition> conditions);
+
+    /**
+     * Get one page of the entities of the specified bucket that match all of the given field conditions and the
+     * optional filter. When the pagination is paged, entities are ordered by entityId and the offset and limit apply
+     * to entities that pass both the conditions and the filter. The data store should stop reading as soon as the page
+     * is full.
+     *
+     * @param bucket to retrieve entities from
+     * @param clazz class of the given entity. All entities in a bucket should be the same class.
+     * @param filter is the optional filter to apply to the entity.
+     * @param conditions that each entity's fields must all satisfy. May be empty.
+     * @param pagination describing the page to return.
+     * @param <T> type of the object to be returned.
+     * @return a List of NoSQLEntity objects containing the requested page.
+     */
+    <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                         List<FieldCondition> conditions, Pagination pagination);
+
+    /**
+     * Stream the entities of the specified bucket to a consumer in chunks, instead of building one list of all of them.
+     * Entities are selected exactly as they are by getEntities with the same arguments. Each chunk is handed to the
+     * consumer as soon as it is full, and the last one may be smaller. If the consumer returns false, no more entities
+     * should be read.
+     *
+     * @param bucket to retrieve entities from
+     * @param clazz class of the given entity. All entities in a bucket should be the same class.
+     * @param filter is the optional filter to apply to the entity.
+     * @param conditions that each entity's fields must all satisfy. May be empty.
+     * @param pagination describing the entities to return.
+     * @param chunkSize the number of entities in each chunk.
+     * @param consumer to hand each chunk to.
+     * @param <T> type of the object to be returned.
+     */
+    <T> void streamEntities(String bucket, Class<T> clazz, DataFilter<T> filter, List<FieldCondition> conditions,
+                            Pagination pagination, int chunkSize, EntityConsumer<T> consumer);
 }
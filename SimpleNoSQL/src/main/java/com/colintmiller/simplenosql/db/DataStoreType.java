@@ -1,8 +1,24 @@
 package com.colintmiller.simplenosql.db;
 
 /**
- * //TODO: Add documentation
+ * The backends a {@link com.colintmiller.simplenosql.NoSQL} instance can store its entities in.
  */
 public enum DataStoreType {
-    SQLITE;
+    /**
+     * Entities are persisted to a SQLite database on the device.
+     */
+    SQLITE,
+
+    /**
+     * Entities are kept serialized in memory and are lost when the process dies. Retrieved entities are fresh copies,
+     * so changes to a saved object don't affect what's stored.
+     */
+    MEMORY,
+
+    /**
+     * Entities are kept in memory as the saved objects themselves, skipping serialization entirely. Retrievals return
+     * the same instances that were saved, so they must not be modified after saving unless that change is meant to be
+     * seen by every later retrieval.
+     */
+    MEMORY_OBJECTS;
 }
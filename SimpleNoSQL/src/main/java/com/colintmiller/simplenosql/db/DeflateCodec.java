@@ -0,0 +1,280 @@
+package com.colintmiller.simplenosql.db;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses stored entity data with Deflate, optionally using a preset dictionary trained from a sample of a bucket's
+ * data. This is pure Java with no Android dependencies.
+ * <p>
+ * Compressed data starts with a header byte of 0xC1, followed by the id of the dictionary it was compressed with (0 for
+ * none) and the length of the uncompressed data, both as unsigned varints, and then a zlib stream. 0xC1 never starts
+ * UTF-8 text and is unused in MessagePack, so neither JSON nor {@link com.colintmiller.simplenosql.BinarySerialization}
+ * data can be mistaken for compressed data, and compressed and uncompressed rows can sit side by side in a bucket.
+ */
+final class DeflateCodec {
+    static final int HEADER = 0xC1;
+    static final int MAX_DICTIONARY_SIZE = 16 * 1024;
+
+    private static final int MIN_FRAGMENT_LENGTH = 3;
+    private static final int BUFFER_SIZE = 4096;
+
+    // Deflaters and inflaters hold native memory, so each thread keeps one of each rather than creating them per row.
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+    };
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private DeflateCodec() {}
+
+    static boolean isCompressed(byte[] stored) {
+        return stored != null && stored.length > 0 && (stored[0] & 0xFF) == HEADER;
+    }
+
+    /**
+     * @param stored compressed data.
+     * @return the id of the dictionary the data was compressed with, or 0 if it was compressed without one.
+     */
+    static long getDictionaryId(byte[] stored) {
+        return new Header(stored).dictionaryId;
+    }
+
+    /**
+     * Compress data, unless that wouldn't make it any smaller.
+     *
+     * @param data to compress. May be null.
+     * @param dictionaryId to record in the header, or 0 for none.
+     * @param dictionary to compress with, or null for none.
+     * @return the compressed data, or the data itself if compressing didn't pay off.
+     */
+    static byte[] compress(byte[] data, long dictionaryId, byte[] dictionary) {
+        if (data == null || data.length == 0) {
+            return data;
+        }
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(data);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 16);
+        out.write(HEADER);
+        writeVarint(out, dictionaryId);
+        writeVarint(out, data.length);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            out.write(buffer, 0, length);
+        }
+
+        // Data that happens to start with the header byte can't be stored as is, so it's kept compressed regardless.
+        if (out.size() >= data.length && !isCompressed(data)) {
+            return data;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param stored data that may or may not be compressed.
+     * @param dictionary the data was compressed with, or null if it was compressed without one.
+     * @return the uncompressed data.
+     */
+    static byte[] decompress(byte[] stored, byte[] dictionary) {
+        if (!isCompressed(stored)) {
+            return stored;
+        }
+        Header header = new Header(stored);
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(stored, header.offset, stored.length - header.offset);
+
+        byte[] data = new byte[header.length];
+        int read = 0;
+        try {
+            while (read < data.length) {
+                int length = inflater.inflate(data, read, data.length - read);
+                if (length == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null) {
+                            throw new IllegalStateException("Compressed data needs a dictionary");
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new IllegalStateException("Compressed data is truncated");
+                    }
+                }
+                read += length;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed data is corrupt", e);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Compressed data was compressed with a different dictionary", e);
+        }
+        return data;
+    }
+
+    /**
+     * Build a preset dictionary from sample data. Samples are split into fragments at JSON structure: a fragment starts
+     * at each bracket or comma and ends after each colon, so field names and repeated values end up as fragments of
+     * their own. Fragments seen in more than one sample are kept, most valuable (most samples times longest) last,
+     * since Deflate can refer to the end of the dictionary most cheaply.
+     *
+     * @param samples of uncompressed data.
+     * @param maxSize of the dictionary in bytes.
+     * @return the dictionary, which is empty if the samples have nothing in common.
+     */
+    static byte[] train(List<byte[]> samples, int maxSize) {
+        final Map<Fragment, Integer> counts = new HashMap<Fragment, Integer>();
+        for (byte[] sample : samples) {
+            if (sample == null) {
+                continue;
+            }
+            for (Fragment fragment : fragments(sample)) {
+                Integer count = counts.get(fragment);
+                counts.put(fragment, count == null ? 1 : count + 1);
+            }
+        }
+
+        int minCount = Math.min(2, samples.size());
+        List<Fragment> common = new ArrayList<Fragment>();
+        for (Map.Entry<Fragment, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() >= minCount) {
+                common.add(entry.getKey());
+            }
+        }
+        Collections.sort(common, new Comparator<Fragment>() {
+            @Override
+            public int compare(Fragment lhs, Fragment rhs) {
+                long lhsScore = (long) counts.get(lhs) * lhs.bytes.length;
+                long rhsScore = (long) counts.get(rhs) * rhs.bytes.length;
+                return lhsScore < rhsScore ? 1 : lhsScore == rhsScore ? 0 : -1;
+            }
+        });
+
+        List<Fragment> chosen = new ArrayList<Fragment>();
+        int size = 0;
+        for (Fragment fragment : common) {
+            if (size + fragment.bytes.length <= maxSize) {
+                chosen.add(fragment);
+                size += fragment.bytes.length;
+            }
+        }
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            byte[] bytes = chosen.get(i).bytes;
+            dictionary.write(bytes, 0, bytes.length);
+        }
+        return dictionary.toByteArray();
+    }
+
+    private static Set<Fragment> fragments(byte[] sample) {
+        Set<Fragment> fragments = new HashSet<Fragment>();
+        int start = 0;
+        for (int i = 0; i < sample.length; i++) {
+            byte b = sample[i];
+            if (b == '{' || b == '}' || b == '[' || b == ']' || b == ',') {
+                addFragment(fragments, sample, start, i);
+                start = i;
+            } else if (b == ':') {
+                addFragment(fragments, sample, start, i + 1);
+                start = i + 1;
+            }
+        }
+        addFragment(fragments, sample, start, sample.length);
+        return fragments;
+    }
+
+    private static void addFragment(Set<Fragment> fragments, byte[] sample, int start, int end) {
+        if (end - start >= MIN_FRAGMENT_LENGTH) {
+            fragments.add(new Fragment(Arrays.copyOfRange(sample, start, end)));
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * The fields at the start of compressed data.
+     */
+    private static class Header {
+        private final long dictionaryId;
+        private final int length;
+        private final int offset;
+
+        private Header(byte[] stored) {
+            int position = 1;
+            long[] value = new long[1];
+            position = readVarint(stored, position, value);
+            dictionaryId = value[0];
+            position = readVarint(stored, position, value);
+            if (value[0] > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Compressed data has an invalid length");
+            }
+            length = (int) value[0];
+            offset = position;
+        }
+
+        private static int readVarint(byte[] stored, int position, long[] value) {
+            long result = 0;
+            int shift = 0;
+            while (true) {
+                if (position >= stored.length || shift > 63) {
+                    throw new IllegalStateException("Compressed data has a malformed header");
+                }
+                byte b = stored[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    value[0] = result;
+                    return position;
+                }
+                shift += 7;
+            }
+        }
+    }
+
+    private static class Fragment {
+        private final byte[] bytes;
+        private final int hash;
+
+        private Fragment(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Fragment && Arrays.equals(bytes, ((Fragment) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
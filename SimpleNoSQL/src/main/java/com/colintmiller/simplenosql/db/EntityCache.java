@@ -0,0 +1,306 @@
+package com.colintmiller.simplenosql.db;
+
+import com.colintmiller.simplenosql.NoSQLEntity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded, least recently used cache of deserialized entities, keyed by bucket, entityId and the class they
+ * were deserialized as. Install one on a {@link com.colintmiller.simplenosql.NoSQL} instance with
+ * {@link com.colintmiller.simplenosql.NoSQL#withCache(EntityCache)} to serve repeated retrievals of the same entity
+ * without going to the DataStore.
+ * <p>
+ * The cache hands out the same data objects to every retrieval, so retrieved data should be treated as read only. To
+ * change an entity, save a new object for it instead, which also invalidates the cached one.
+ * <p>
+ * By default every entity counts as one towards the cache's size. A {@link Weigher} can be supplied to bound the cache
+ * by something else, such as an estimate of each entity's size in bytes.
+ */
+public class EntityCache {
+
+    /**
+     * Measures how much of the cache's capacity an entity uses.
+     */
+    public interface Weigher {
+        /**
+         * @param entity being cached.
+         * @return the entity's weight, which must not be negative.
+         */
+        long weigh(NoSQLEntity<?> entity);
+    }
+
+    private static final Weigher SINGLE_ENTRY = new Weigher() {
+        @Override
+        public long weigh(NoSQLEntity<?> entity) {
+            return 1;
+        }
+    };
+
+    private final long maxWeight;
+    private final Weigher weigher;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    // The keys of the entries, by bucket and entityId, so that invalidating doesn't have to scan every entry.
+    private final Map<String, Map<String, Set<Key>>> keysByBucket = new HashMap<String, Map<String, Set<Key>>>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long weight;
+    // Bumped on every invalidation, so that a value read from the DataStore before a write isn't cached after it.
+    private long generation;
+    // Invalidations made inside a transaction on each thread, repeated once it ends. Until the transaction commits,
+    // readers on other connections still see the old data and may cache it again.
+    private final ThreadLocal<Transaction> transactions = new ThreadLocal<Transaction>();
+
+    /**
+     * Create a cache that holds up to the given number of entities.
+     *
+     * @param maxEntries to hold before evicting the least recently used.
+     */
+    public EntityCache(int maxEntries) {
+        this(maxEntries, SINGLE_ENTRY);
+    }
+
+    /**
+     * Create a cache that holds entities up to the given total weight.
+     *
+     * @param maxWeight of all cached entities before evicting the least recently used.
+     * @param weigher to measure each entity with.
+     */
+    public EntityCache(long maxWeight, Weigher weigher) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("Cache size must be greater than 0");
+        }
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * @return the number of lookups that were answered by the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that had to go to the DataStore.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of entities currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove every cached entity.
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        keysByBucket.clear();
+        weight = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized <T> NoSQLEntity<T> get(String bucket, String entityId, Class<T> clazz) {
+        Entry entry = entries.get(new Key(bucket, entityId, clazz));
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return (NoSQLEntity<T>) entry.entity;
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache an entity read from the DataStore, unless the cache was invalidated since the read began.
+     *
+     * @param entity to cache.
+     * @param clazz the entity was deserialized as.
+     * @param readGeneration from {@link #getGeneration()} taken before reading the entity.
+     */
+    synchronized <T> void put(NoSQLEntity<T> entity, Class<T> clazz, long readGeneration) {
+        if (readGeneration != generation) {
+            return;
+        }
+        long entityWeight = weigher.weigh(entity);
+        if (entityWeight > maxWeight) {
+            return;
+        }
+        Key key = new Key(entity.getBucket(), entity.getId(), clazz);
+        Entry previous = entries.put(key, new Entry(entity, entityWeight));
+        if (previous != null) {
+            weight -= previous.weight;
+        } else {
+            addKey(key);
+        }
+        weight += entityWeight;
+        evict();
+    }
+
+    /**
+     * Start deferring a repeat of this thread's invalidations until the matching {@link #endTransaction()}. Calls nest.
+     */
+    void beginTransaction() {
+        Transaction transaction = transactions.get();
+        if (transaction == null) {
+            transaction = new Transaction();
+            transactions.set(transaction);
+        }
+        transaction.depth++;
+    }
+
+    /**
+     * End a transaction started with {@link #beginTransaction()}. Once the outermost one ends, committed or not, every
+     * invalidation made inside it is made again, removing anything cached from the data as it was before the commit.
+     */
+    void endTransaction() {
+        Transaction transaction = transactions.get();
+        if (--transaction.depth > 0) {
+            return;
+        }
+        transactions.remove();
+        for (String bucket : transaction.buckets) {
+            invalidateBucket(bucket);
+        }
+        for (String[] entity : transaction.entities) {
+            invalidate(entity[0], entity[1]);
+        }
+    }
+
+    synchronized void invalidate(String bucket, String entityId) {
+        Transaction transaction = transactions.get();
+        if (transaction != null) {
+            transaction.entities.add(new String[] {bucket, entityId});
+        }
+        generation++;
+        Map<String, Set<Key>> bucketKeys = keysByBucket.get(bucket);
+        Set<Key> keys = bucketKeys == null ? null : bucketKeys.remove(entityId);
+        if (keys == null) {
+            return;
+        }
+        if (bucketKeys.isEmpty()) {
+            keysByBucket.remove(bucket);
+        }
+        for (Key key : keys) {
+            weight -= entries.remove(key).weight;
+        }
+    }
+
+    synchronized void invalidateBucket(String bucket) {
+        Transaction transaction = transactions.get();
+        if (transaction != null) {
+            transaction.buckets.add(bucket);
+        }
+        generation++;
+        Map<String, Set<Key>> bucketKeys = keysByBucket.remove(bucket);
+        if (bucketKeys == null) {
+            return;
+        }
+        for (Set<Key> keys : bucketKeys.values()) {
+            for (Key key : keys) {
+                weight -= entries.remove(key).weight;
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            Map.Entry<Key, Entry> eldest = iterator.next();
+            weight -= eldest.getValue().weight;
+            iterator.remove();
+            removeKey(eldest.getKey());
+        }
+    }
+
+    private void addKey(Key key) {
+        Map<String, Set<Key>> bucketKeys = keysByBucket.get(key.bucket);
+        if (bucketKeys == null) {
+            bucketKeys = new HashMap<String, Set<Key>>();
+            keysByBucket.put(key.bucket, bucketKeys);
+        }
+        Set<Key> keys = bucketKeys.get(key.entityId);
+        if (keys == null) {
+            // Usually an entity is only ever retrieved as one class.
+            keys = new HashSet<Key>(2);
+            bucketKeys.put(key.entityId, keys);
+        }
+        keys.add(key);
+    }
+
+    private void removeKey(Key key) {
+        Map<String, Set<Key>> bucketKeys = keysByBucket.get(key.bucket);
+        Set<Key> keys = bucketKeys.get(key.entityId);
+        keys.remove(key);
+        if (keys.isEmpty()) {
+            bucketKeys.remove(key.entityId);
+            if (bucketKeys.isEmpty()) {
+                keysByBucket.remove(key.bucket);
+            }
+        }
+    }
+
+    private static class Transaction {
+        private int depth;
+        private final List<String[]> entities = new ArrayList<String[]>();
+        private final Set<String> buckets = new HashSet<String>();
+    }
+
+    private static class Entry {
+        private final NoSQLEntity<?> entity;
+        private final long weight;
+
+        private Entry(NoSQLEntity<?> entity, long weight) {
+            this.entity = entity;
+            this.weight = weight;
+        }
+    }
+
+    private static class Key {
+        private final String bucket;
+        private final String entityId;
+        private final Class<?> clazz;
+
+        private Key(String bucket, String entityId, Class<?> clazz) {
+            this.bucket = bucket;
+            this.entityId = entityId;
+            this.clazz = clazz;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return bucket.equals(key.bucket) && entityId.equals(key.entityId) && clazz.equals(key.clazz);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = bucket.hashCode();
+            result = 31 * result + entityId.hashCode();
+            result = 31 * result + clazz.hashCode();
+            return result;
+        }
+    }
+}
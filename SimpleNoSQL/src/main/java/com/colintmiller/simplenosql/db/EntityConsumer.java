@@ -0,0 +1,21 @@
+package com.colintmiller.simplenosql.db;
+
+import com.colintmiller.simplenosql.NoSQLEntity;
+
+import java.util.List;
+
+/**
+ * Receives the entities of a streaming retrieval from a {@link com.colintmiller.simplenosql.db.DataStore} one chunk at
+ * a time, as they are read.
+ */
+public interface EntityConsumer<T> {
+
+    /**
+     * Called with each chunk of entities as it is read. The list belongs to the consumer; the data store won't touch it
+     * again.
+     *
+     * @param entities in this chunk. Never empty.
+     * @return true to keep reading, or false to stop the retrieval without reading any more entities.
+     */
+    public boolean consume(List<NoSQLEntity<T>> entities);
+}
@@ -0,0 +1,340 @@
+package com.colintmiller.simplenosql.db;
+
+import com.colintmiller.simplenosql.FieldCondition;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.colintmiller.simplenosql.db.SimpleNoSQLContract.EntityEntry;
+
+/**
+ * Translates {@link com.colintmiller.simplenosql.FieldCondition}s for the SQLite store. Where the database has the JSON1
+ * extension, conditions become part of the WHERE clause using json_extract. Otherwise they can be matched against the
+ * raw stored JSON, which is still much cheaper than binding every row to an object just to throw it away.
+ */
+final class FieldConditions {
+    private static final String EXTRACT = "json_extract(CAST(" + EntityEntry.COLUMN_NAME_DATA + " AS TEXT), ?)";
+    private static final String TYPE = "json_type(CAST(" + EntityEntry.COLUMN_NAME_DATA + " AS TEXT), ?)";
+    private static final String VALID = "json_valid(CAST(" + EntityEntry.COLUMN_NAME_DATA + " AS TEXT))";
+    private static final int INCOMPARABLE = Integer.MIN_VALUE;
+
+    private FieldConditions() {}
+
+    /**
+     * Append the given conditions to a selection, AND'd with whatever is already there. Each comparison only applies to
+     * fields of the same JSON type as its value, as when matching the raw data: SQLite would otherwise happily compare
+     * a number to text, or a boolean to the number 1. Rows that don't hold JSON, such as entities saved with
+     * {@link com.colintmiller.simplenosql.BinarySerialization}, don't match instead of making the JSON functions fail.
+     *
+     * @param selection to append to.
+     * @param selectionArgs to add the arguments of each condition to.
+     * @param conditions to append.
+     */
+    static void appendSelection(StringBuilder selection, List<String> selectionArgs, List<FieldCondition> conditions) {
+        if (conditions.isEmpty()) {
+            return;
+        }
+        // Unlike AND, CASE is guaranteed to skip the conditions when the data isn't valid JSON.
+        selection.append(" AND CASE WHEN ").append(VALID).append(" THEN 1");
+        for (FieldCondition condition : conditions) {
+            String path = jsonPath(condition.getPath());
+            List<Object> values = condition.getValues();
+            selection.append(" AND ");
+            if (condition.getOperator() == FieldCondition.Operator.IN) {
+                appendTypedIn(selection, selectionArgs, path, values);
+                continue;
+            }
+            if (values.get(0) != null) {
+                for (Object value : values) {
+                    selection.append(TYPE).append(typeMatch(value)).append(" AND ");
+                    selectionArgs.add(path);
+                }
+            }
+            selection.append(EXTRACT);
+            selectionArgs.add(path);
+            appendComparison(selection, selectionArgs, condition);
+        }
+        selection.append(" ELSE 0 END");
+    }
+
+    /**
+     * Append an IN condition as one IN per JSON type among its values, each limited to fields of that type.
+     */
+    private static void appendTypedIn(StringBuilder selection, List<String> selectionArgs, String path,
+                                      List<Object> values) {
+        Map<String, List<Object>> byType = new LinkedHashMap<String, List<Object>>();
+        for (Object value : values) {
+            String type = typeMatch(value);
+            List<Object> sameType = byType.get(type);
+            if (sameType == null) {
+                sameType = new ArrayList<Object>();
+                byType.put(type, sameType);
+            }
+            sameType.add(value);
+        }
+        selection.append("(");
+        boolean first = true;
+        for (Map.Entry<String, List<Object>> entry : byType.entrySet()) {
+            if (!first) {
+                selection.append(" OR ");
+            }
+            first = false;
+            selection.append(TYPE).append(entry.getKey()).append(" AND ").append(EXTRACT);
+            selectionArgs.add(path);
+            selectionArgs.add(path);
+            selection.append(" IN (");
+            List<Object> sameType = entry.getValue();
+            for (int i = 0; i < sameType.size(); i++) {
+                if (i > 0) {
+                    selection.append(",");
+                }
+                appendValue(selection, selectionArgs, sameType.get(i));
+            }
+            selection.append(")");
+        }
+        selection.append(")");
+    }
+
+    /**
+     * @return the test of a json_type result for fields that can be compared to the value.
+     */
+    private static String typeMatch(Object value) {
+        if (value instanceof Boolean) {
+            return " IN ('true','false')";
+        } else if (value instanceof Number) {
+            return " IN ('integer','real')";
+        } else {
+            return " = 'text'";
+        }
+    }
+
+    /**
+     * Append the comparison part of a condition (everything to the right of the value being compared), such as
+     * " BETWEEN ? AND ?".
+     *
+     * @param selection to append to.
+     * @param selectionArgs to add the arguments of the condition to.
+     * @param condition to append.
+     */
+    static void appendComparison(StringBuilder selection, List<String> selectionArgs, FieldCondition condition) {
+        List<Object> values = condition.getValues();
+
+        switch (condition.getOperator()) {
+            case EQUAL:
+                if (values.get(0) == null) {
+                    selection.append(" IS NULL");
+                } else {
+                    selection.append(" = ");
+                    appendValue(selection, selectionArgs, values.get(0));
+                }
+                break;
+            case GREATER_THAN:
+                selection.append(" > ");
+                appendValue(selection, selectionArgs, values.get(0));
+                break;
+            case GREATER_THAN_OR_EQUAL:
+                selection.append(" >= ");
+                appendValue(selection, selectionArgs, values.get(0));
+                break;
+            case LESS_THAN:
+                selection.append(" < ");
+                appendValue(selection, selectionArgs, values.get(0));
+                break;
+            case LESS_THAN_OR_EQUAL:
+                selection.append(" <= ");
+                appendValue(selection, selectionArgs, values.get(0));
+                break;
+            case BETWEEN:
+                selection.append(" BETWEEN ");
+                appendValue(selection, selectionArgs, values.get(0));
+                selection.append(" AND ");
+                appendValue(selection, selectionArgs, values.get(1));
+                break;
+            case IN:
+                selection.append(" IN (");
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        selection.append(",");
+                    }
+                    appendValue(selection, selectionArgs, values.get(i));
+                }
+                selection.append(")");
+                break;
+            default:
+                throw new IllegalStateException("Unknown operator " + condition.getOperator());
+        }
+    }
+
+    /**
+     * Parse stored data as JSON.
+     *
+     * @param data the raw stored JSON.
+     * @return the parsed document, or null if the data isn't valid JSON.
+     */
+    static JsonElement parse(byte[] data) {
+        try {
+            return new JsonParser().parse(new InputStreamReader(new ByteArrayInputStream(data), "UTF-8"));
+        } catch (JsonParseException e) {
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Check whether stored JSON data satisfies all of the given conditions.
+     *
+     * @param data the raw stored JSON.
+     * @param conditions to check.
+     * @return true if every condition matches, false otherwise or if the data isn't a JSON object.
+     */
+    static boolean matches(byte[] data, List<FieldCondition> conditions) {
+        JsonElement document = parse(data);
+        if (document == null) {
+            return false;
+        }
+
+        for (FieldCondition condition : conditions) {
+            if (!matches(extractElement(document, condition.getPath()), condition)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Extract a field from a stored JSON object.
+     *
+     * @param document the parsed JSON.
+     * @param path the segments of the field to extract.
+     * @return the field's value, or null if it's missing or isn't a primitive.
+     */
+    static JsonPrimitive extract(JsonElement document, String[] path) {
+        JsonElement field = extractElement(document, path);
+        if (field == null || !field.isJsonPrimitive()) {
+            return null;
+        }
+        return field.getAsJsonPrimitive();
+    }
+
+    /**
+     * @return the field's value, which may be JSON null, or null if it's missing.
+     */
+    private static JsonElement extractElement(JsonElement document, String[] path) {
+        JsonElement current = document;
+        for (String segment : path) {
+            if (current == null || !current.isJsonObject()) {
+                return null;
+            }
+            current = ((JsonObject) current).get(segment);
+        }
+        return current;
+    }
+
+    /**
+     * Build the JSON1 path of a field. Segments are quoted, and SQLite has no way to escape a quote inside one, which is
+     * why {@link FieldCondition} rejects fields containing them.
+     */
+    static String jsonPath(String[] path) {
+        StringBuilder jsonPath = new StringBuilder("$");
+        for (String segment : path) {
+            jsonPath.append(".\"").append(segment).append('"');
+        }
+        return jsonPath.toString();
+    }
+
+    private static void appendValue(StringBuilder selection, List<String> selectionArgs, Object value) {
+        // selection arguments are always bound as text, so cast them back to match json_extract's result types.
+        if (value instanceof Boolean) {
+            selection.append("CAST(? AS INTEGER)");
+            selectionArgs.add((Boolean) value ? "1" : "0");
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            selection.append("CAST(? AS INTEGER)");
+            selectionArgs.add(value.toString());
+        } else if (value instanceof Number) {
+            selection.append("CAST(? AS REAL)");
+            selectionArgs.add(value.toString());
+        } else {
+            selection.append("?");
+            selectionArgs.add(value.toString());
+        }
+    }
+
+    private static boolean matches(JsonElement element, FieldCondition condition) {
+        List<Object> values = condition.getValues();
+        // Like json_extract, only a missing field or JSON null is null. Objects and arrays are neither null nor
+        // comparable to any value.
+        JsonPrimitive field = element != null && element.isJsonPrimitive() ? element.getAsJsonPrimitive() : null;
+        switch (condition.getOperator()) {
+            case EQUAL:
+                if (values.get(0) == null) {
+                    return element == null || element.isJsonNull();
+                }
+                return compare(field, values.get(0)) == 0;
+            case GREATER_THAN:
+                return isComparison(compare(field, values.get(0)), 1, 1);
+            case GREATER_THAN_OR_EQUAL:
+                return isComparison(compare(field, values.get(0)), 0, 1);
+            case LESS_THAN:
+                return isComparison(compare(field, values.get(0)), -1, -1);
+            case LESS_THAN_OR_EQUAL:
+                return isComparison(compare(field, values.get(0)), -1, 0);
+            case BETWEEN:
+                return isComparison(compare(field, values.get(0)), 0, 1)
+                        && isComparison(compare(field, values.get(1)), -1, 0);
+            case IN:
+                for (Object value : values) {
+                    if (compare(field, value) == 0) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                throw new IllegalStateException("Unknown operator " + condition.getOperator());
+        }
+    }
+
+    private static boolean isComparison(int comparison, int lowest, int highest) {
+        if (comparison == INCOMPARABLE) {
+            return false;
+        }
+        int sign = Integer.signum(comparison);
+        return sign >= lowest && sign <= highest;
+    }
+
+    /**
+     * Compare a JSON field to a condition value.
+     *
+     * @return the comparison of the two, or INCOMPARABLE if they can't be compared (missing field or different types).
+     */
+    private static int compare(JsonPrimitive field, Object value) {
+        if (field == null) {
+            return INCOMPARABLE;
+        }
+        if (value instanceof Boolean && field.isBoolean()) {
+            return Boolean.valueOf(field.getAsBoolean()).compareTo((Boolean) value);
+        }
+        if (value instanceof Number && field.isNumber()) {
+            try {
+                return new BigDecimal(field.getAsString()).compareTo(new BigDecimal(value.toString()));
+            } catch (NumberFormatException e) {
+                return INCOMPARABLE;
+            }
+        }
+        if (value instanceof String && field.isString()) {
+            return field.getAsString().compareTo((String) value);
+        }
+        return INCOMPARABLE;
+    }
+}
@@ -0,0 +1,317 @@
+package com.colintmiller.simplenosql.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import com.colintmiller.simplenosql.FieldCondition;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.colintmiller.simplenosql.db.SimpleNoSQLContract.EntityEntry;
+import static com.colintmiller.simplenosql.db.SimpleNoSQLContract.IndexDefinitionEntry;
+import static com.colintmiller.simplenosql.db.SimpleNoSQLContract.IndexEntry;
+
+/**
+ * Secondary indexes on the fields of entities in a bucket. When a bucket has indexed fields, their values are extracted
+ * from the stored JSON every time an entity is saved and written to a side table keyed by (bucket, field, value,
+ * entityId). Field conditions on an indexed field can then be answered from that table instead of scanning the bucket.
+ * <p>
+ * All methods expect to be called inside a transaction on the given database when they write more than one row.
+ */
+final class FieldIndexes {
+    private static final String COMMA_SEP = ",";
+
+    static final String SQL_CREATE_DEFINITIONS =
+            "CREATE TABLE IF NOT EXISTS " + IndexDefinitionEntry.TABLE_NAME + " (" +
+            IndexDefinitionEntry._ID + " INTEGER PRIMARY KEY," +
+            IndexDefinitionEntry.COLUMN_NAME_BUCKET_ID + " TEXT" + COMMA_SEP +
+            IndexDefinitionEntry.COLUMN_NAME_FIELD + " TEXT" + COMMA_SEP +
+            " UNIQUE(" + IndexDefinitionEntry.COLUMN_NAME_BUCKET_ID + COMMA_SEP +
+                    IndexDefinitionEntry.COLUMN_NAME_FIELD + ") ON CONFLICT IGNORE)";
+
+    // The value column is deliberately untyped so that numbers, strings and booleans keep the same storage classes that
+    // json_extract would give them, and compare the same way.
+    static final String SQL_CREATE_INDEX =
+            "CREATE TABLE IF NOT EXISTS " + IndexEntry.TABLE_NAME + " (" +
+            IndexEntry._ID + " INTEGER PRIMARY KEY," +
+            IndexEntry.COLUMN_NAME_BUCKET_ID + " TEXT" + COMMA_SEP +
+            IndexEntry.COLUMN_NAME_FIELD + " TEXT" + COMMA_SEP +
+            IndexEntry.COLUMN_NAME_VALUE + COMMA_SEP +
+            IndexEntry.COLUMN_NAME_ENTITY_ID + " TEXT)";
+
+    static final String SQL_CREATE_VALUE_LOOKUP =
+            "CREATE INDEX IF NOT EXISTS " + IndexEntry.TABLE_NAME + "_value ON " + IndexEntry.TABLE_NAME + " (" +
+            IndexEntry.COLUMN_NAME_BUCKET_ID + COMMA_SEP +
+            IndexEntry.COLUMN_NAME_FIELD + COMMA_SEP +
+            IndexEntry.COLUMN_NAME_VALUE + ")";
+
+    static final String SQL_CREATE_ENTITY_LOOKUP =
+            "CREATE INDEX IF NOT EXISTS " + IndexEntry.TABLE_NAME + "_entity ON " + IndexEntry.TABLE_NAME + " (" +
+            IndexEntry.COLUMN_NAME_BUCKET_ID + COMMA_SEP +
+            IndexEntry.COLUMN_NAME_ENTITY_ID + ")";
+
+    static final String SQL_INSERT_VALUE =
+            "INSERT INTO " + IndexEntry.TABLE_NAME + " (" +
+            IndexEntry.COLUMN_NAME_BUCKET_ID + COMMA_SEP +
+            IndexEntry.COLUMN_NAME_FIELD + COMMA_SEP +
+            IndexEntry.COLUMN_NAME_VALUE + COMMA_SEP +
+            IndexEntry.COLUMN_NAME_ENTITY_ID + ") VALUES (?,?,?,?)";
+
+    // Shared by every helper in the process, since they all open the same database file. Cleared whenever the tables are
+    // created or upgraded, since definitions cached for an earlier copy of the database would be wrong for the new one.
+    private static final ConcurrentHashMap<String, Set<String>> fieldsByBucket =
+            new ConcurrentHashMap<String, Set<String>>();
+
+    private FieldIndexes() {}
+
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_DEFINITIONS);
+        db.execSQL(SQL_CREATE_INDEX);
+        db.execSQL(SQL_CREATE_VALUE_LOOKUP);
+        db.execSQL(SQL_CREATE_ENTITY_LOOKUP);
+    }
+
+    /**
+     * Forget the cached index definitions, so that they are read again from the database on next use. Must be called
+     * whenever the database is created or upgraded.
+     */
+    static void clearCache() {
+        fieldsByBucket.clear();
+    }
+
+    /**
+     * Get the indexed fields of a bucket. Definitions are read from the database once and cached afterwards.
+     *
+     * @param db to read definitions from.
+     * @param bucket to get the indexed fields of.
+     * @return the indexed fields, which may be empty.
+     */
+    static Set<String> getFields(SQLiteDatabase db, String bucket) {
+        if (bucket == null) {
+            return Collections.emptySet();
+        }
+        Set<String> fields = fieldsByBucket.get(bucket);
+        if (fields == null) {
+            fields = loadFields(db, bucket);
+            fieldsByBucket.put(bucket, fields);
+        }
+        return fields;
+    }
+
+    /**
+     * Declare an index on a field of a bucket and build it from the entities already in the bucket. Must be called
+     * inside a transaction.
+     *
+     * @param db to create the index in.
+     * @param bucket to index.
+     * @param field to index, using the same dotted naming as {@link com.colintmiller.simplenosql.FieldCondition}.
+     */
+    static void createIndex(SQLiteDatabase db, String bucket, String field) {
+        ContentValues definition = new ContentValues();
+        definition.put(IndexDefinitionEntry.COLUMN_NAME_BUCKET_ID, bucket);
+        definition.put(IndexDefinitionEntry.COLUMN_NAME_FIELD, field);
+        db.insert(IndexDefinitionEntry.TABLE_NAME, null, definition);
+
+        String[] args = {bucket, field};
+        db.delete(IndexEntry.TABLE_NAME, IndexEntry.COLUMN_NAME_BUCKET_ID + "=? AND " +
+                IndexEntry.COLUMN_NAME_FIELD + "=?", args);
+
+        Set<String> fields = Collections.singleton(field);
+        boolean compressed = CompressedBuckets.isCompressed(db, bucket);
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_VALUE);
+        String[] columns = {EntityEntry.COLUMN_NAME_ENTITY_ID, EntityEntry.COLUMN_NAME_DATA};
+        String[] selectionArgs = {bucket};
+        Cursor cursor = db.query(EntityEntry.TABLE_NAME, columns, EntityEntry.COLUMN_NAME_BUCKET_ID + "=?",
+                selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                byte[] data = cursor.getBlob(1);
+                insertValues(insert, bucket, cursor.getString(0),
+                        compressed ? CompressedBuckets.decompress(db, data) : data, fields);
+            }
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+
+        Set<String> updated = new HashSet<String>(getFields(db, bucket));
+        updated.add(field);
+        fieldsByBucket.put(bucket, Collections.unmodifiableSet(updated));
+    }
+
+    /**
+     * Replace the index values of a saved entity.
+     *
+     * @param db the entity was saved to.
+     * @param insert a statement compiled from {@link #SQL_INSERT_VALUE}.
+     * @param bucket the entity was saved in.
+     * @param entityId of the saved entity.
+     * @param data the entity's serialized JSON, before any compression.
+     */
+    static void updateEntity(SQLiteDatabase db, SQLiteStatement insert, String bucket, String entityId, byte[] data) {
+        Set<String> fields = getFields(db, bucket);
+        if (fields.isEmpty()) {
+            return;
+        }
+        deleteEntity(db, bucket, entityId);
+        insertValues(insert, bucket, entityId, data, fields);
+    }
+
+    static void deleteEntity(SQLiteDatabase db, String bucket, String entityId) {
+        if (getFields(db, bucket).isEmpty()) {
+            return;
+        }
+        String[] args = {bucket, entityId};
+        db.delete(IndexEntry.TABLE_NAME, IndexEntry.COLUMN_NAME_BUCKET_ID + "=? AND " +
+                IndexEntry.COLUMN_NAME_ENTITY_ID + "=?", args);
+    }
+
+    static void deleteEntities(SQLiteDatabase db, String bucket, List<String> entityIds) {
+        if (getFields(db, bucket).isEmpty()) {
+            return;
+        }
+        db.delete(IndexEntry.TABLE_NAME, IndexEntry.COLUMN_NAME_BUCKET_ID + "=? AND " +
+                IndexEntry.COLUMN_NAME_ENTITY_ID + " IN (" + SimpleNoSQLDBHelper.placeholders(entityIds.size()) + ")",
+                SimpleNoSQLDBHelper.bucketAndIds(bucket, entityIds));
+    }
+
+    static void deleteBucket(SQLiteDatabase db, String bucket) {
+        if (getFields(db, bucket).isEmpty()) {
+            return;
+        }
+        String[] args = {bucket};
+        db.delete(IndexEntry.TABLE_NAME, IndexEntry.COLUMN_NAME_BUCKET_ID + "=?", args);
+    }
+
+    /**
+     * Append the conditions that can be answered by an index to a selection on the entity table.
+     *
+     * @param selection to append to.
+     * @param selectionArgs to add the arguments of each condition to.
+     * @param bucket being queried.
+     * @param fields indexed in the bucket.
+     * @param conditions of the query.
+     * @return the conditions that could not use an index and still need to be applied.
+     */
+    static List<FieldCondition> appendSelection(StringBuilder selection, List<String> selectionArgs, String bucket,
+                                                Set<String> fields, List<FieldCondition> conditions) {
+        if (fields.isEmpty()) {
+            return conditions;
+        }
+        List<FieldCondition> remaining = new ArrayList<FieldCondition>(conditions.size());
+        for (FieldCondition condition : conditions) {
+            // Missing fields have no index rows, so IS NULL can't be answered from the index, and booleans are stored
+            // like numbers.
+            String typeMatch = typeMatch(condition.getValues());
+            if (!fields.contains(condition.getField()) || typeMatch == null) {
+                remaining.add(condition);
+                continue;
+            }
+            selection.append(" AND ").append(EntityEntry.COLUMN_NAME_ENTITY_ID).append(" IN (SELECT ")
+                    .append(IndexEntry.COLUMN_NAME_ENTITY_ID).append(" FROM ").append(IndexEntry.TABLE_NAME)
+                    .append(" WHERE ").append(IndexEntry.COLUMN_NAME_BUCKET_ID).append("=? AND ")
+                    .append(IndexEntry.COLUMN_NAME_FIELD).append("=? AND typeof(")
+                    .append(IndexEntry.COLUMN_NAME_VALUE).append(")").append(typeMatch).append(" AND ")
+                    .append(IndexEntry.COLUMN_NAME_VALUE);
+            selectionArgs.add(bucket);
+            selectionArgs.add(condition.getField());
+            FieldConditions.appendComparison(selection, selectionArgs, condition);
+            selection.append(")");
+        }
+        return remaining;
+    }
+
+    /**
+     * Indexed values keep the storage class json_extract gives them, so numbers and text can be told apart with typeof,
+     * but booleans are stored as the integers 1 and 0. Conditions on booleans, which would match numbers too, and IS
+     * NULL checks are left to the entity table instead.
+     *
+     * @return the test of a typeof result for values comparable to all of the given ones, or null if the index can't
+     * answer a condition on them.
+     */
+    private static String typeMatch(List<Object> values) {
+        String typeMatch = null;
+        for (Object value : values) {
+            String valueMatch;
+            if (value == null || value instanceof Boolean) {
+                return null;
+            } else if (value instanceof Number) {
+                valueMatch = " IN ('integer','real')";
+            } else {
+                valueMatch = " = 'text'";
+            }
+            if (typeMatch != null && !typeMatch.equals(valueMatch)) {
+                return null;
+            }
+            typeMatch = valueMatch;
+        }
+        return typeMatch;
+    }
+
+    private static Set<String> loadFields(SQLiteDatabase db, String bucket) {
+        Set<String> fields = new HashSet<String>();
+        String[] columns = {IndexDefinitionEntry.COLUMN_NAME_FIELD};
+        String[] args = {bucket};
+        Cursor cursor = db.query(IndexDefinitionEntry.TABLE_NAME, columns,
+                IndexDefinitionEntry.COLUMN_NAME_BUCKET_ID + "=?", args, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                fields.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return Collections.unmodifiableSet(fields);
+    }
+
+    private static void insertValues(SQLiteStatement insert, String bucket, String entityId, byte[] data,
+                                     Set<String> fields) {
+        if (data == null || entityId == null) {
+            return;
+        }
+        JsonElement document = FieldConditions.parse(data);
+        if (document == null) {
+            return;
+        }
+        for (String field : fields) {
+            JsonPrimitive value = FieldConditions.extract(document, field.split("\\."));
+            if (value == null) {
+                continue;
+            }
+            insert.bindString(1, bucket);
+            insert.bindString(2, field);
+            bindValue(insert, 3, value);
+            insert.bindString(4, entityId);
+            insert.executeInsert();
+            insert.clearBindings();
+        }
+    }
+
+    /**
+     * Bind a JSON value using the storage class json_extract would give it: booleans and whole numbers as integers,
+     * other numbers as reals and strings as text.
+     */
+    private static void bindValue(SQLiteStatement statement, int index, JsonPrimitive value) {
+        if (value.isBoolean()) {
+            statement.bindLong(index, value.getAsBoolean() ? 1 : 0);
+        } else if (value.isNumber()) {
+            BigDecimal number = new BigDecimal(value.getAsString());
+            try {
+                statement.bindLong(index, number.longValueExact());
+            } catch (ArithmeticException e) {
+                statement.bindDouble(index, number.doubleValue());
+            }
+        } else {
+            statement.bindString(index, value.getAsString());
+        }
+    }
+}
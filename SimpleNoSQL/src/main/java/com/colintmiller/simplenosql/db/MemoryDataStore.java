@@ -0,0 +1,381 @@
+package com.colintmiller.simplenosql.db;
+
+import com.colintmiller.simplenosql.DataDeserializer;
+import com.colintmiller.simplenosql.DataFilter;
+import com.colintmiller.simplenosql.DataSerializer;
+import com.colintmiller.simplenosql.FieldCondition;
+import com.colintmiller.simplenosql.NoSQLEntity;
+import com.colintmiller.simplenosql.Pagination;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A DataStore that keeps everything in memory, in a concurrent map of buckets to entities. Nothing is persisted, so
+ * this is meant for caches, ephemeral data and tests. It has no Android dependencies and can be used directly in plain
+ * JVM unit tests.
+ * <p>
+ * Entities are either stored serialized, which keeps the stored copy isolated from later changes to the saved object,
+ * or as the live objects themselves, which skips serialization entirely. Entities in a bucket are kept ordered by
+ * entityId, so paged retrievals come for free. Field conditions are evaluated against the serialized JSON (serializing
+ * live objects when needed), and {@link #createIndex(String, String)} is a no-op since there's nothing to seek on.
+ * <p>
+ * Writes are applied as they're made, even inside {@link #runInTransaction(Runnable)}, which keeps the previous value
+ * of everything the transaction changes so that it can put them back if the transaction fails.
+ */
+public class MemoryDataStore implements DataStore {
+
+    private static final List<FieldCondition> NO_CONDITIONS = Collections.emptyList();
+    // Concurrent maps can't hold nulls, but a saved entity's data may be null.
+    private static final Object NULL_DATA = new Object();
+
+    private final ConcurrentMap<String, ConcurrentSkipListMap<String, Object>> buckets;
+    // The undo log of the transaction running on each thread, shared by every view of the same entities.
+    private final ThreadLocal<List<Undo>> transactions;
+    private final boolean storeObjects;
+    private final DataSerializer serializer;
+    private final DataDeserializer deserializer;
+
+    /**
+     * @param storeObjects true to store the saved objects themselves, false to store serialized copies of them.
+     * @param serializer to serialize data with.
+     * @param deserializer to deserialize data with.
+     */
+    public MemoryDataStore(boolean storeObjects, DataSerializer serializer, DataDeserializer deserializer) {
+        this(new ConcurrentHashMap<String, ConcurrentSkipListMap<String, Object>>(), new ThreadLocal<List<Undo>>(),
+                storeObjects, serializer, deserializer);
+    }
+
+    private MemoryDataStore(ConcurrentMap<String, ConcurrentSkipListMap<String, Object>> buckets,
+                            ThreadLocal<List<Undo>> transactions, boolean storeObjects, DataSerializer serializer,
+                            DataDeserializer deserializer) {
+        this.buckets = buckets;
+        this.transactions = transactions;
+        this.storeObjects = storeObjects;
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+    }
+
+    /**
+     * Get a DataStore over the same stored entities that uses the given serializer and deserializer.
+     *
+     * @param serializer to use when saving entities.
+     * @param deserializer to use when retrieving entities.
+     * @return a DataStore sharing this store's entities.
+     */
+    public MemoryDataStore withSerialization(DataSerializer serializer, DataDeserializer deserializer) {
+        return new MemoryDataStore(buckets, transactions, storeObjects, serializer, deserializer);
+    }
+
+    @Override
+    public <T> void saveEntity(NoSQLEntity<T> entity) {
+        saveEntities(Collections.singletonList(entity));
+    }
+
+    @Override
+    public <T> void saveEntities(List<NoSQLEntity<T>> entities) {
+        // Serialize everything up front so that a failure part way through doesn't leave half the batch saved.
+        List<Object> values = new ArrayList<Object>(entities.size());
+        for (NoSQLEntity<T> entity : entities) {
+            if (entity.getBucket() == null || entity.getId() == null) {
+                throw new IllegalArgumentException("Entities need a bucket and an id to be saved in memory");
+            }
+            values.add(storeObjects ? entity.getData() : serializer.serialize(entity.getData()));
+        }
+        for (int i = 0; i < entities.size(); i++) {
+            NoSQLEntity<T> entity = entities.get(i);
+            Object previous = getBucket(entity.getBucket()).put(entity.getId(), wrap(values.get(i)));
+            logUndo(entity.getBucket(), entity.getId(), previous);
+        }
+    }
+
+    @Override
+    public boolean deleteEntity(String bucket, String entityId) {
+        if (bucket == null || entityId == null) {
+            return false;
+        }
+        Map<String, Object> entities = buckets.get(bucket);
+        Object removed = entities == null ? null : entities.remove(entityId);
+        logUndo(bucket, entityId, removed);
+        return removed != null;
+    }
+
+    @Override
+    public boolean deleteBucket(String bucket) {
+        if (bucket == null) {
+            return false;
+        }
+        Map<String, Object> entities = buckets.remove(bucket);
+        logUndo(bucket, entities);
+        return entities != null && !entities.isEmpty();
+    }
+
+    @Override
+    public int deleteEntities(String bucket, Collection<String> entityIds) {
+        int deleted = 0;
+        for (String entityId : new HashSet<String>(entityIds)) {
+            if (deleteEntity(bucket, entityId)) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public int deleteEntitiesWhere(String bucket, List<FieldCondition> conditions) {
+        if (bucket == null) {
+            return 0;
+        }
+        if (conditions.isEmpty()) {
+            Map<String, Object> entities = buckets.remove(bucket);
+            logUndo(bucket, entities);
+            return entities == null ? 0 : entities.size();
+        }
+        Map<String, Object> entities = buckets.get(bucket);
+        if (entities == null) {
+            return 0;
+        }
+        int deleted = 0;
+        for (Map.Entry<String, Object> stored : entities.entrySet()) {
+            // An entity saved again since it was matched is left alone.
+            if (matches(stored.getValue(), conditions) && entities.remove(stored.getKey(), stored.getValue())) {
+                logUndo(bucket, stored.getKey(), stored.getValue());
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public void createIndex(String bucket, String field) {
+        // Field conditions are always evaluated by scanning the bucket in memory.
+    }
+
+    @Override
+    public void setCompression(String bucket, boolean enabled) {
+        // Nothing is written to disk, so there's no I/O to save.
+    }
+
+    @Override
+    public void runInTransaction(Runnable operations) {
+        if (transactions.get() != null) {
+            // Part of the transaction already running on this thread, which undoes it if anything fails.
+            operations.run();
+            return;
+        }
+        List<Undo> undoLog = new ArrayList<Undo>();
+        transactions.set(undoLog);
+        boolean committed = false;
+        try {
+            operations.run();
+            committed = true;
+        } finally {
+            transactions.remove();
+            if (!committed) {
+                // Callers such as group commit retry each write on its own after a failure, so none may stay applied.
+                for (int i = undoLog.size() - 1; i >= 0; i--) {
+                    undoLog.get(i).apply();
+                }
+            }
+        }
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, String entityId, Class<T> clazz, DataFilter<T> filter) {
+        return getEntities(bucket, entityId, clazz, filter, NO_CONDITIONS);
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, String entityId, Class<T> clazz, DataFilter<T> filter,
+                                                List<FieldCondition> conditions) {
+        List<NoSQLEntity<T>> results = new ArrayList<NoSQLEntity<T>>(1);
+        if (bucket == null || entityId == null) {
+            return results;
+        }
+        Map<String, Object> entities = buckets.get(bucket);
+        Object value = entities == null ? null : entities.get(entityId);
+        if (value != null && matches(value, conditions)) {
+            NoSQLEntity<T> entity = toEntity(bucket, entityId, value, clazz);
+            if (filter == null || filter.isIncluded(entity)) {
+                results.add(entity);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, Collection<String> entityIds, Class<T> clazz,
+                                                DataFilter<T> filter, List<FieldCondition> conditions) {
+        List<NoSQLEntity<T>> results = new ArrayList<NoSQLEntity<T>>(entityIds.size());
+        for (String entityId : new LinkedHashSet<String>(entityIds)) {
+            results.addAll(getEntities(bucket, entityId, clazz, filter, conditions));
+        }
+        return results;
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter) {
+        return getEntities(bucket, clazz, filter, NO_CONDITIONS, Pagination.NONE);
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                                List<FieldCondition> conditions) {
+        return getEntities(bucket, clazz, filter, conditions, Pagination.NONE);
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                                List<FieldCondition> conditions, Pagination pagination) {
+        final List<NoSQLEntity<T>> results = new ArrayList<NoSQLEntity<T>>();
+        streamEntities(bucket, clazz, filter, conditions, pagination, Integer.MAX_VALUE, new EntityConsumer<T>() {
+            @Override
+            public boolean consume(List<NoSQLEntity<T>> entities) {
+                results.addAll(entities);
+                return true;
+            }
+        });
+        return results;
+    }
+
+    @Override
+    public <T> void streamEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                   List<FieldCondition> conditions, Pagination pagination, int chunkSize,
+                                   EntityConsumer<T> consumer) {
+        if (bucket == null) {
+            return;
+        }
+        NavigableMap<String, Object> entities = buckets.get(bucket);
+        if (entities == null) {
+            return;
+        }
+        if (pagination.getAfter() != null) {
+            entities = entities.tailMap(pagination.getAfter(), false);
+        }
+
+        int toSkip = pagination.getOffset();
+        int remaining = pagination.getLimit() == 0 ? Integer.MAX_VALUE : pagination.getLimit();
+        List<NoSQLEntity<T>> chunk = new ArrayList<NoSQLEntity<T>>();
+        for (Map.Entry<String, Object> stored : entities.entrySet()) {
+            if (remaining == 0) {
+                break;
+            }
+            if (!matches(stored.getValue(), conditions)) {
+                continue;
+            }
+            NoSQLEntity<T> entity = toEntity(bucket, stored.getKey(), stored.getValue(), clazz);
+            if (filter != null && !filter.isIncluded(entity)) {
+                continue;
+            }
+            if (toSkip > 0) {
+                toSkip--;
+                continue;
+            }
+            chunk.add(entity);
+            remaining--;
+
+            if (chunk.size() >= chunkSize) {
+                if (!consumer.consume(chunk)) {
+                    return;
+                }
+                chunk = new ArrayList<NoSQLEntity<T>>();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            consumer.consume(chunk);
+        }
+    }
+
+    private ConcurrentSkipListMap<String, Object> getBucket(String bucket) {
+        ConcurrentSkipListMap<String, Object> entities = buckets.get(bucket);
+        if (entities == null) {
+            ConcurrentSkipListMap<String, Object> newEntities = new ConcurrentSkipListMap<String, Object>();
+            entities = buckets.putIfAbsent(bucket, newEntities);
+            if (entities == null) {
+                entities = newEntities;
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Record the value an entity had before a change made in a transaction on this thread, if there is one.
+     *
+     * @param previous stored value, or null if the entity didn't exist.
+     */
+    private void logUndo(String bucket, String entityId, Object previous) {
+        List<Undo> undoLog = transactions.get();
+        if (undoLog != null) {
+            undoLog.add(new Undo(bucket, entityId, previous));
+        }
+    }
+
+    private void logUndo(String bucket, Map<String, Object> removed) {
+        if (removed == null || transactions.get() == null) {
+            return;
+        }
+        for (Map.Entry<String, Object> stored : removed.entrySet()) {
+            logUndo(bucket, stored.getKey(), stored.getValue());
+        }
+    }
+
+    private boolean matches(Object value, List<FieldCondition> conditions) {
+        if (conditions.isEmpty()) {
+            return true;
+        }
+        Object data = unwrap(value);
+        byte[] json = storeObjects ? serializer.serialize(data) : (byte[]) data;
+        return FieldConditions.matches(json, conditions);
+    }
+
+    private <T> NoSQLEntity<T> toEntity(String bucket, String entityId, Object value, Class<T> clazz) {
+        Object data = unwrap(value);
+        if (storeObjects) {
+            return new NoSQLEntity<T>(bucket, entityId, clazz.cast(data));
+        }
+        return new NoSQLEntity<T>(bucket, entityId, deserializer.deserialize((byte[]) data, clazz));
+    }
+
+    private static Object wrap(Object data) {
+        return data == null ? NULL_DATA : data;
+    }
+
+    private static Object unwrap(Object value) {
+        return value == NULL_DATA ? null : value;
+    }
+
+    /**
+     * Puts an entity back the way it was before a failed transaction changed it.
+     */
+    private class Undo {
+        private final String bucket;
+        private final String entityId;
+        private final Object previous;
+
+        Undo(String bucket, String entityId, Object previous) {
+            this.bucket = bucket;
+            this.entityId = entityId;
+            this.previous = previous;
+        }
+
+        void apply() {
+            if (previous == null) {
+                Map<String, Object> entities = buckets.get(bucket);
+                if (entities != null) {
+                    entities.remove(entityId);
+                }
+            } else {
+                getBucket(bucket).put(entityId, previous);
+            }
+        }
+    }
+}
@@ -7,20 +7,134 @@ import com.colintmiller.simplenosql.DataSerializer;
 /**
  * A factory for choosing between different Data Stores. This will allow us to change the backend of SimpleNoSQL without
  * having to change much of how it works.
+ * <p>
+ * The factory owns the underlying storage connection. It is opened with {@link #open(android.content.Context)} and
+ * shared by every DataStore handed out until {@link #close()} is called, so creating a DataStore per query is cheap.
+ * No DataStore is handed out while the factory is closed. In-memory stores have no connection; their entities live as
+ * long as the factory does, across close and open.
+ * <p>
+ * If an {@link EntityCache} is set, every DataStore handed out is wrapped in a {@link CachingDataStore} using it.
+ * <p>
+ * SQLite stores can be opened in write-ahead logging mode, letting retrievals run in parallel with writes.
  */
 public class SimpleDataStoreFactory {
 
     private DataStoreType type;
+    private SimpleNoSQLDBHelper sqliteHelper;
+    private MemoryDataStore memoryStore;
+    private volatile EntityCache cache;
+    private boolean writeAheadLogging;
+    private Context context;
+    private volatile boolean open;
 
     public SimpleDataStoreFactory(DataStoreType type) {
         this.type = type;
     }
 
+    /**
+     * Open the shared connection used by this factory's DataStores. Calling this while already open is a no-op.
+     *
+     * @param context to open the connection with. May be null for in-memory stores.
+     */
+    public synchronized void open(Context context) {
+        this.context = context;
+        open = true;
+        if (type == DataStoreType.SQLITE) {
+            getSQLiteHelper();
+        }
+    }
+
+    /**
+     * Close the shared connection. DataStores handed out before this call should no longer be used, and no more are
+     * handed out until the factory is opened again.
+     */
+    public synchronized void close() {
+        open = false;
+        if (sqliteHelper != null) {
+            sqliteHelper.close();
+            sqliteHelper = null;
+        }
+    }
+
+    /**
+     * Turn write-ahead logging on or off for SQLite stores. If the shared connection is already open, it's closed and
+     * reopened in the new mode the next time a DataStore is requested, so no DataStore handed out before may be in use.
+     * {@link com.colintmiller.simplenosql.threading.QueryProcessor#setWriteAheadLogging} makes sure of that.
+     *
+     * @param writeAheadLogging true to let retrievals run in parallel with writes.
+     */
+    public synchronized void setWriteAheadLogging(boolean writeAheadLogging) {
+        if (this.writeAheadLogging != writeAheadLogging) {
+            this.writeAheadLogging = writeAheadLogging;
+            if (sqliteHelper != null) {
+                sqliteHelper.close();
+                sqliteHelper = null;
+            }
+        }
+    }
+
+    /**
+     * @return true if retrievals from this factory's DataStores can run in parallel with writes and always see
+     * committed data, so they don't need to be locked out while writes are in progress.
+     */
+    public synchronized boolean isWriteAheadLogging() {
+        return type == DataStoreType.SQLITE && writeAheadLogging;
+    }
+
+    /**
+     * Set the cache to put in front of the DataStores handed out from now on.
+     *
+     * @param cache to use, or null to stop caching.
+     */
+    public void setCache(EntityCache cache) {
+        this.cache = cache;
+    }
+
+    public EntityCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @throws IllegalStateException if the factory isn't open.
+     */
     public DataStore getDataStore(Context context, DataSerializer serializer, DataDeserializer deserializer) {
+        if (!open) {
+            throw new IllegalStateException("The data store is closed. Start NoSQL again to perform queries.");
+        }
+        DataStore dataStore;
         switch (type) {
+            case MEMORY:
+            case MEMORY_OBJECTS:
+                dataStore = getMemoryStore().withSerialization(serializer, deserializer);
+                break;
             case SQLITE:
             default:
-                return new SimpleNoSQLDBHelper(context, serializer, deserializer);
+                dataStore = getSQLiteHelper().withSerialization(serializer, deserializer);
+                break;
+        }
+
+        EntityCache entityCache = cache;
+        if (entityCache != null) {
+            return new CachingDataStore(dataStore, entityCache);
+        }
+        return dataStore;
+    }
+
+    private synchronized MemoryDataStore getMemoryStore() {
+        if (memoryStore == null) {
+            memoryStore = new MemoryDataStore(type == DataStoreType.MEMORY_OBJECTS, null, null);
+        }
+        return memoryStore;
+    }
+
+    private synchronized SimpleNoSQLDBHelper getSQLiteHelper() {
+        if (!open) {
+            // Closed since the caller checked.
+            throw new IllegalStateException("The data store is closed. Start NoSQL again to perform queries.");
+        }
+        if (sqliteHelper == null) {
+            sqliteHelper = new SimpleNoSQLDBHelper(context.getApplicationContext(), null, null, writeAheadLogging);
         }
+        return sqliteHelper;
     }
 }
@@ -14,4 +14,42 @@ public class SimpleNoSQLContract {
         public static final String COLUMN_NAME_ENTITY_ID = "entityid";
         public static final String COLUMN_NAME_DATA = "data";
     }
+
+    /**
+     * The fields that have been indexed for each bucket.
+     */
+    public static abstract class IndexDefinitionEntry implements BaseColumns {
+        public static final String TABLE_NAME = "simplenosql_indexes";
+        public static final String COLUMN_NAME_BUCKET_ID = "bucketid";
+        public static final String COLUMN_NAME_FIELD = "field";
+    }
+
+    /**
+     * Values of indexed fields, extracted from each entity when it's saved.
+     */
+    public static abstract class IndexEntry implements BaseColumns {
+        public static final String TABLE_NAME = "simplenosql_index";
+        public static final String COLUMN_NAME_BUCKET_ID = "bucketid";
+        public static final String COLUMN_NAME_FIELD = "field";
+        public static final String COLUMN_NAME_VALUE = "value";
+        public static final String COLUMN_NAME_ENTITY_ID = "entityid";
+    }
+
+    /**
+     * The buckets that store their data compressed, and the dictionary new data in each is compressed with.
+     */
+    public static abstract class CompressionEntry implements BaseColumns {
+        public static final String TABLE_NAME = "simplenosql_compression";
+        public static final String COLUMN_NAME_BUCKET_ID = "bucketid";
+        public static final String COLUMN_NAME_DICTIONARY_ID = "dictionaryid";
+    }
+
+    /**
+     * Compression dictionaries trained for each bucket. The row id is the dictionary id recorded in compressed data.
+     */
+    public static abstract class DictionaryEntry implements BaseColumns {
+        public static final String TABLE_NAME = "simplenosql_dictionaries";
+        public static final String COLUMN_NAME_BUCKET_ID = "bucketid";
+        public static final String COLUMN_NAME_DATA = "data";
+    }
 }
@@ -1,17 +1,28 @@
 package com.colintmiller.simplenosql.db;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import com.colintmiller.simplenosql.DataDeserializer;
 import com.colintmiller.simplenosql.DataFilter;
 import com.colintmiller.simplenosql.DataSerializer;
+import com.colintmiller.simplenosql.FieldCondition;
 import com.colintmiller.simplenosql.NoSQLEntity;
+import com.colintmiller.simplenosql.Pagination;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static com.colintmiller.simplenosql.db.SimpleNoSQLContract.EntityEntry;
 
@@ -19,15 +30,28 @@ import static com.colintmiller.simplenosql.db.SimpleNoSQLContract.EntityEntry;
  * The NoSQL datastore is in fact backed by SQL. This might seem counter to the ideals of the project at first. However,
  * the framework prevents the user from having to interact with SQL directly and deals purely with documents.
  * The database is still useful in implementation however for it's indexing retrieval and storage options.
+ * <p>
+ * The helper keeps its database open between operations. Call {@link #close()} once you are done with it rather than
+ * after every operation; reopening the database is by far the most expensive part of a small read or write.
+ * <p>
+ * With write-ahead logging, SQLite keeps a small pool of extra read-only connections next to the one that writes.
+ * Retrievals then run on those in parallel with each other and with a write in progress, each seeing the data as of
+ * its last commit. Without it, every operation goes through the single connection one at a time.
  */
 public class SimpleNoSQLDBHelper extends SQLiteOpenHelper implements DataStore {
 
     private DataSerializer serializer;
     private DataDeserializer deserializer;
+    private volatile Boolean supportsJson;
+    private final boolean writeAheadLogging;
 
-    public static int DATABASE_VERSION = 3;
+    public static int DATABASE_VERSION = 5;
     public static String DATABASE_NAME = "simplenosql.db";
 
+    private static final List<FieldCondition> NO_CONDITIONS = Collections.emptyList();
+    // Older SQLite releases allow at most 999 arguments per statement, and field conditions need some of their own.
+    private static final int MAX_IDS_PER_QUERY = 500;
+
     // DB Creation
     private static final String TEXT_TYPE = " BLOB";
     private static final String COMMA_SEP = ",";
@@ -40,23 +64,62 @@ public class SimpleNoSQLDBHelper extends SQLiteOpenHelper implements DataStore {
             " UNIQUE(" + EntityEntry.COLUMN_NAME_BUCKET_ID + COMMA_SEP +
                     EntityEntry.COLUMN_NAME_ENTITY_ID + ") ON CONFLICT REPLACE)";
 
+    private static final String SQL_INSERT_ENTRY =
+            "INSERT OR REPLACE INTO " + EntityEntry.TABLE_NAME + " (" +
+            EntityEntry.COLUMN_NAME_BUCKET_ID + COMMA_SEP +
+            EntityEntry.COLUMN_NAME_ENTITY_ID + COMMA_SEP +
+            EntityEntry.COLUMN_NAME_DATA + ") VALUES (?,?,?)";
+
     private static final String SQL_DELETE_ENTRIES =
             "DROP TABLE " + EntityEntry.TABLE_NAME;
 
 
     public SimpleNoSQLDBHelper(Context context, DataSerializer serializer, DataDeserializer deserializer) {
+        this(context, serializer, deserializer, false);
+    }
+
+    /**
+     * @param context to open the database with.
+     * @param serializer to use when saving entities.
+     * @param deserializer to use when retrieving entities.
+     * @param writeAheadLogging true to open the database in write-ahead logging mode, so that retrievals can run in
+     *                          parallel with writes.
+     */
+    public SimpleNoSQLDBHelper(Context context, DataSerializer serializer, DataDeserializer deserializer,
+                               boolean writeAheadLogging) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
         this.serializer = serializer;
         this.deserializer = deserializer;
+        this.writeAheadLogging = writeAheadLogging;
+    }
+
+    /**
+     * @return true if this helper opens its database in write-ahead logging mode.
+     */
+    public boolean isWriteAheadLogging() {
+        return writeAheadLogging;
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (writeAheadLogging && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        // The database may have been deleted and recreated while this process cached settings of the old one.
+        clearCaches();
         db.execSQL(SQL_CREATE_ENTRIES);
+        FieldIndexes.createTables(db);
+        CompressedBuckets.createTables(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        clearCaches();
         switch (oldVersion) {
             case 1:
                 db.execSQL(SQL_DELETE_ENTRIES);
@@ -64,12 +127,23 @@ public class SimpleNoSQLDBHelper extends SQLiteOpenHelper implements DataStore {
                 break;
             case 2:
                 upgradeFrom2To3(db);
+                // fall through
+            case 3:
+                FieldIndexes.createTables(db);
+                // fall through
+            case 4:
+                CompressedBuckets.createTables(db);
                 break;
             default:
                 break;
         }
     }
 
+    private static void clearCaches() {
+        FieldIndexes.clearCache();
+        CompressedBuckets.clearCache();
+    }
+
     private void upgradeFrom2To3(SQLiteDatabase db) {
         final String tempTableName = "OLD_TABLE";
         final String alter = "ALTER TABLE " + EntityEntry.TABLE_NAME + " RENAME TO " + tempTableName;
@@ -81,69 +155,413 @@ public class SimpleNoSQLDBHelper extends SQLiteOpenHelper implements DataStore {
         db.execSQL(deleteTemp);
     }
 
+    /**
+     * Get a DataStore that shares this helper's open database connection but uses the given serializer and
+     * deserializer for its entities. This is cheap to call for every query since no database is opened or closed.
+     *
+     * @param serializer to use when saving entities.
+     * @param deserializer to use when retrieving entities.
+     * @return a DataStore backed by this helper's connection.
+     */
+    public DataStore withSerialization(DataSerializer serializer, DataDeserializer deserializer) {
+        return new SerializingDataStore(serializer, deserializer);
+    }
+
     @Override
     public <T> void saveEntity(NoSQLEntity<T> entity) {
-        SQLiteDatabase db = getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(EntityEntry.COLUMN_NAME_BUCKET_ID, entity.getBucket());
-        values.put(EntityEntry.COLUMN_NAME_ENTITY_ID, entity.getId());
-        values.put(EntityEntry.COLUMN_NAME_DATA, serializer.serialize(entity.getData()));
-        db.insertWithOnConflict(EntityEntry.TABLE_NAME, EntityEntry.COLUMN_NAME_BUCKET_ID, values, SQLiteDatabase.CONFLICT_REPLACE);
-        db.close();
+        saveEntities(Collections.singletonList(entity), serializer);
+    }
+
+    @Override
+    public <T> void streamEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                   List<FieldCondition> conditions, Pagination pagination, int chunkSize,
+                                   EntityConsumer<T> consumer) {
+        streamEntities(bucket, clazz, filter, conditions, pagination, chunkSize, consumer, deserializer);
+    }
+
+    @Override
+    public <T> void saveEntities(List<NoSQLEntity<T>> entities) {
+        saveEntities(entities, serializer);
     }
 
     @Override
     public boolean deleteEntity(String bucket, String entityId) {
         SQLiteDatabase db = getWritableDatabase();
         String[] args = {bucket, entityId};
-        int deleted = db.delete(EntityEntry.TABLE_NAME, EntityEntry.COLUMN_NAME_BUCKET_ID + "=? and " + EntityEntry
-                .COLUMN_NAME_ENTITY_ID + "=?", args);
-        db.close();
-        return deleted != 0;
+        db.beginTransaction();
+        try {
+            int deleted = db.delete(EntityEntry.TABLE_NAME, EntityEntry.COLUMN_NAME_BUCKET_ID + "=? and " + EntityEntry
+                    .COLUMN_NAME_ENTITY_ID + "=?", args);
+            FieldIndexes.deleteEntity(db, bucket, entityId);
+            db.setTransactionSuccessful();
+            return deleted != 0;
+        } finally {
+            db.endTransaction();
+        }
     }
 
     @Override
     public boolean deleteBucket(String bucket) {
+        return deleteEntitiesWhere(bucket, NO_CONDITIONS) != 0;
+    }
+
+    @Override
+    public int deleteEntities(String bucket, Collection<String> entityIds) {
+        Set<String> ids = new LinkedHashSet<String>(entityIds);
+        ids.remove(null);
+        if (bucket == null || ids.isEmpty()) {
+            return 0;
+        }
         SQLiteDatabase db = getWritableDatabase();
-        String[] args = {bucket};
-        int deleted = db.delete(EntityEntry.TABLE_NAME, EntityEntry.COLUMN_NAME_BUCKET_ID + "=?", args);
-        db.close();
-        return deleted != 0;
+        db.beginTransaction();
+        try {
+            int deleted = deleteEntities(db, bucket, new ArrayList<String>(ids));
+            db.setTransactionSuccessful();
+            return deleted;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public int deleteEntitiesWhere(String bucket, List<FieldCondition> conditions) {
+        if (bucket == null) {
+            return 0;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            int deleted;
+            if (conditions.isEmpty()) {
+                String[] args = {bucket};
+                deleted = db.delete(EntityEntry.TABLE_NAME, EntityEntry.COLUMN_NAME_BUCKET_ID + "=?", args);
+                FieldIndexes.deleteBucket(db, bucket);
+            } else {
+                // The matching entities are found first, since their index rows go with them and the conditions may
+                // need those rows, or the raw data, to be evaluated.
+                deleted = deleteEntities(db, bucket, findEntityIds(db, bucket, conditions));
+            }
+            db.setTransactionSuccessful();
+            return deleted;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void createIndex(String bucket, String field) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            FieldIndexes.createIndex(db, bucket, field);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void setCompression(String bucket, boolean enabled) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            CompressedBuckets.setCompression(db, bucket, enabled);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void runInTransaction(Runnable operations) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            operations.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     @Override
     public <T> List<NoSQLEntity<T>> getEntities(String bucket, String entityId, Class<T> clazz, DataFilter<T> filter) {
+        return getEntities(bucket, entityId, clazz, filter, NO_CONDITIONS, deserializer);
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, String entityId, Class<T> clazz, DataFilter<T> filter,
+                                                List<FieldCondition> conditions) {
+        return getEntities(bucket, entityId, clazz, filter, conditions, deserializer);
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, Collection<String> entityIds, Class<T> clazz,
+                                                DataFilter<T> filter, List<FieldCondition> conditions) {
+        return getEntities(bucket, entityIds, clazz, filter, conditions, deserializer);
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter) {
+        return getEntities(bucket, clazz, filter, NO_CONDITIONS, Pagination.NONE, deserializer);
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                                List<FieldCondition> conditions) {
+        return getEntities(bucket, clazz, filter, conditions, Pagination.NONE, deserializer);
+    }
+
+    @Override
+    public <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                                List<FieldCondition> conditions, Pagination pagination) {
+        return getEntities(bucket, clazz, filter, conditions, pagination, deserializer);
+    }
+
+    private <T> void saveEntities(List<NoSQLEntity<T>> entities, DataSerializer serializer) {
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_ENTRY);
+        SQLiteStatement insertIndex = db.compileStatement(FieldIndexes.SQL_INSERT_VALUE);
+        db.beginTransaction();
+        try {
+            for (NoSQLEntity<T> entity : entities) {
+                byte[] data = serializer.serialize(entity.getData());
+                bindStringOrNull(insert, 1, entity.getBucket());
+                bindStringOrNull(insert, 2, entity.getId());
+                insert.bindBlob(3, CompressedBuckets.compress(db, entity.getBucket(), data));
+                insert.executeInsert();
+                insert.clearBindings();
+                FieldIndexes.updateEntity(db, insertIndex, entity.getBucket(), entity.getId(), data);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+            insertIndex.close();
+        }
+    }
+
+    /**
+     * Delete entities and their index rows, as many at a time as fit in one statement. Must be called in a transaction.
+     */
+    private static int deleteEntities(SQLiteDatabase db, String bucket, List<String> entityIds) {
+        int deleted = 0;
+        for (int start = 0; start < entityIds.size(); start += MAX_IDS_PER_QUERY) {
+            List<String> chunk = entityIds.subList(start, Math.min(entityIds.size(), start + MAX_IDS_PER_QUERY));
+            deleted += db.delete(EntityEntry.TABLE_NAME, EntityEntry.COLUMN_NAME_BUCKET_ID + "=? AND " +
+                    EntityEntry.COLUMN_NAME_ENTITY_ID + " IN (" + placeholders(chunk.size()) + ")",
+                    bucketAndIds(bucket, chunk));
+            FieldIndexes.deleteEntities(db, bucket, chunk);
+        }
+        return deleted;
+    }
+
+    /**
+     * Find the entityIds of the entities of a bucket that match all of the given field conditions, without
+     * deserializing any of them.
+     */
+    private List<String> findEntityIds(SQLiteDatabase db, String bucket, List<FieldCondition> conditions) {
+        boolean compressed = CompressedBuckets.isCompressed(db, bucket);
+        StringBuilder selection = new StringBuilder(EntityEntry.COLUMN_NAME_BUCKET_ID + "=?");
+        List<String> selectionArgs = new ArrayList<String>();
+        selectionArgs.add(bucket);
+        conditions = appendConditions(db, bucket, compressed, selection, selectionArgs, conditions);
+        boolean matchRawData = !conditions.isEmpty();
+
+        String[] columns = matchRawData
+                ? new String[] {EntityEntry.COLUMN_NAME_ENTITY_ID, EntityEntry.COLUMN_NAME_DATA}
+                : new String[] {EntityEntry.COLUMN_NAME_ENTITY_ID};
+        List<String> entityIds = new ArrayList<String>();
+        Cursor cursor = db.query(EntityEntry.TABLE_NAME, columns, selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]), null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (matchRawData) {
+                    byte[] data = cursor.getBlob(cursor.getColumnIndex(EntityEntry.COLUMN_NAME_DATA));
+                    if (compressed) {
+                        data = CompressedBuckets.decompress(db, data);
+                    }
+                    if (!FieldConditions.matches(data, conditions)) {
+                        continue;
+                    }
+                }
+                entityIds.add(cursor.getString(cursor.getColumnIndex(EntityEntry.COLUMN_NAME_ENTITY_ID)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return entityIds;
+    }
+
+    /**
+     * @return count comma separated placeholders, for an IN clause.
+     */
+    static String placeholders(int count) {
+        StringBuilder placeholders = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            placeholders.append(i == 0 ? "?" : ",?");
+        }
+        return placeholders.toString();
+    }
+
+    /**
+     * @return selection arguments of a bucket followed by entityIds.
+     */
+    static String[] bucketAndIds(String bucket, List<String> entityIds) {
+        String[] args = new String[entityIds.size() + 1];
+        args[0] = bucket;
+        for (int i = 0; i < entityIds.size(); i++) {
+            args[i + 1] = entityIds.get(i);
+        }
+        return args;
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private <T> List<NoSQLEntity<T>> getEntities(String bucket, String entityId, Class<T> clazz, DataFilter<T> filter,
+                                                 List<FieldCondition> conditions, DataDeserializer deserializer) {
         if (bucket == null || entityId == null) {
             return new ArrayList<NoSQLEntity<T>>(0);
         }
         String selection = EntityEntry.COLUMN_NAME_BUCKET_ID + "=? AND " + EntityEntry.COLUMN_NAME_ENTITY_ID + "=?";
         String[] selectionArgs = {bucket, entityId};
-        return getEntities(selection, selectionArgs, clazz, filter);
+        EntityCollector<T> collector = new EntityCollector<T>();
+        queryEntities(bucket, selection, selectionArgs, clazz, filter, conditions, Pagination.NONE, Integer.MAX_VALUE,
+                collector, deserializer);
+        return collector.results;
     }
 
+    private <T> List<NoSQLEntity<T>> getEntities(String bucket, Collection<String> entityIds, Class<T> clazz,
+                                                 DataFilter<T> filter, List<FieldCondition> conditions,
+                                                 DataDeserializer deserializer) {
+        Set<String> ids = new LinkedHashSet<String>(entityIds);
+        ids.remove(null);
+        if (bucket == null || ids.isEmpty()) {
+            return new ArrayList<NoSQLEntity<T>>(0);
+        }
 
-    @Override
-    public <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter) {
+        final Map<String, NoSQLEntity<T>> found = new HashMap<String, NoSQLEntity<T>>(ids.size());
+        EntityConsumer<T> collector = new EntityConsumer<T>() {
+            @Override
+            public boolean consume(List<NoSQLEntity<T>> entities) {
+                for (NoSQLEntity<T> entity : entities) {
+                    found.put(entity.getId(), entity);
+                }
+                return true;
+            }
+        };
+
+        // More ids than fit in one query are read in chunks. The chunks share a transaction so that they all see the
+        // same data, but a single query doesn't need one, and under write-ahead logging can then run on a reader
+        // connection in parallel with writes.
+        List<String> idList = new ArrayList<String>(ids);
+        SQLiteDatabase db = getReadableDatabase();
+        boolean chunked = idList.size() > MAX_IDS_PER_QUERY;
+        if (chunked) {
+            db.beginTransactionNonExclusive();
+        }
+        try {
+            for (int start = 0; start < idList.size(); start += MAX_IDS_PER_QUERY) {
+                List<String> chunk = idList.subList(start, Math.min(idList.size(), start + MAX_IDS_PER_QUERY));
+                String selection = EntityEntry.COLUMN_NAME_BUCKET_ID + "=? AND " + EntityEntry.COLUMN_NAME_ENTITY_ID +
+                        " IN (" + placeholders(chunk.size()) + ")";
+                queryEntities(bucket, selection, bucketAndIds(bucket, chunk), clazz, filter, conditions,
+                        Pagination.NONE, Integer.MAX_VALUE, collector, deserializer);
+            }
+            if (chunked) {
+                db.setTransactionSuccessful();
+            }
+        } finally {
+            if (chunked) {
+                db.endTransaction();
+            }
+        }
+
+        List<NoSQLEntity<T>> results = new ArrayList<NoSQLEntity<T>>(found.size());
+        for (String entityId : idList) {
+            NoSQLEntity<T> entity = found.get(entityId);
+            if (entity != null) {
+                results.add(entity);
+            }
+        }
+        return results;
+    }
+
+    private <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                                 List<FieldCondition> conditions, Pagination pagination,
+                                                 DataDeserializer deserializer) {
+        EntityCollector<T> collector = new EntityCollector<T>();
+        streamEntities(bucket, clazz, filter, conditions, pagination, Integer.MAX_VALUE, collector, deserializer);
+        return collector.results;
+    }
+
+    private <T> void streamEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                    List<FieldCondition> conditions, Pagination pagination, int chunkSize,
+                                    EntityConsumer<T> consumer, DataDeserializer deserializer) {
         if (bucket == null) {
-            return new ArrayList<NoSQLEntity<T>>(0);
+            return;
         }
         String selection = EntityEntry.COLUMN_NAME_BUCKET_ID + "=?";
         String[] selectionArgs = {bucket};
-        return getEntities(selection, selectionArgs, clazz, filter);
+        if (pagination.getAfter() != null) {
+            selection += " AND " + EntityEntry.COLUMN_NAME_ENTITY_ID + ">?";
+            selectionArgs = new String[] {bucket, pagination.getAfter()};
+        }
+        queryEntities(bucket, selection, selectionArgs, clazz, filter, conditions, pagination, chunkSize, consumer,
+                deserializer);
     }
 
-    private <T> List<NoSQLEntity<T>> getEntities(String selection, String[] selectionArgs, Class<T> clazz, DataFilter<T> filter) {
-        List<NoSQLEntity<T>> results = new ArrayList<NoSQLEntity<T>>();
+    private <T> void queryEntities(String bucket, String selection, String[] selectionArgs, Class<T> clazz,
+                                   DataFilter<T> filter, List<FieldCondition> conditions, Pagination pagination,
+                                   int chunkSize, EntityConsumer<T> consumer, DataDeserializer deserializer) {
         SQLiteDatabase db = getReadableDatabase();
 
+        // Field conditions on indexed fields are answered from the index. The rest go into the query when SQLite can
+        // evaluate them, otherwise they're checked against the raw data below. Either way, rows that don't match are
+        // never deserialized. Compressed data can't be read by SQLite, so conditions on compressed buckets are always
+        // checked here after decompressing.
+        boolean compressed = CompressedBuckets.isCompressed(db, bucket);
+        boolean matchRawData = false;
+        if (!conditions.isEmpty()) {
+            StringBuilder conditionSelection = new StringBuilder(selection);
+            List<String> conditionArgs = new ArrayList<String>(Arrays.asList(selectionArgs));
+            conditions = appendConditions(db, bucket, compressed, conditionSelection, conditionArgs, conditions);
+            matchRawData = !conditions.isEmpty();
+            selection = conditionSelection.toString();
+            selectionArgs = conditionArgs.toArray(new String[conditionArgs.size()]);
+        }
+
         String[] columns = {EntityEntry.COLUMN_NAME_BUCKET_ID, EntityEntry.COLUMN_NAME_ENTITY_ID, EntityEntry.COLUMN_NAME_DATA};
 
-        Cursor cursor = db.query(EntityEntry.TABLE_NAME, columns, selection, selectionArgs, null, null, null);
+        // Paged results are ordered by entityId so that a page can continue after the last id of the previous one.
+        // Limit and offset can only be given to SQLite when every row it returns is a result. With a filter (or raw
+        // data matching) they're applied here instead, stopping as soon as the page is full.
+        String orderBy = pagination.isPaged() ? EntityEntry.COLUMN_NAME_ENTITY_ID : null;
+        boolean pageInQuery = filter == null && !matchRawData && pagination.getLimit() > 0;
+        String limit = pageInQuery ? pagination.getOffset() + "," + pagination.getLimit() : null;
+        int toSkip = pageInQuery ? 0 : pagination.getOffset();
+        int remaining = pageInQuery || pagination.getLimit() == 0 ? Integer.MAX_VALUE : pagination.getLimit();
+
+        List<NoSQLEntity<T>> chunk = new ArrayList<NoSQLEntity<T>>();
+        Cursor cursor = db.query(EntityEntry.TABLE_NAME, columns, selection, selectionArgs, null, null, orderBy, limit);
         try {
-            while (cursor.moveToNext()) {
+            while (remaining > 0 && cursor.moveToNext()) {
                 String bucketId = cursor.getString(cursor.getColumnIndex(EntityEntry.COLUMN_NAME_BUCKET_ID));
                 String entityId = cursor.getString(cursor.getColumnIndex(EntityEntry.COLUMN_NAME_ENTITY_ID));
                 byte[] data = cursor.getBlob(cursor.getColumnIndex(EntityEntry.COLUMN_NAME_DATA));
+                if (compressed) {
+                    data = CompressedBuckets.decompress(db, data);
+                }
+
+                if (matchRawData && !FieldConditions.matches(data, conditions)) {
+                    continue;
+                }
 
                 NoSQLEntity<T> entity = new NoSQLEntity<T>(bucketId, entityId);
                 entity.setData(deserializer.deserialize(data, clazz));
@@ -151,12 +569,173 @@ public class SimpleNoSQLDBHelper extends SQLiteOpenHelper implements DataStore {
                     // skip this item, it's been filtered out.
                     continue;
                 }
-                results.add(entity);
+                if (toSkip > 0) {
+                    toSkip--;
+                    continue;
+                }
+                chunk.add(entity);
+                remaining--;
+
+                if (chunk.size() >= chunkSize) {
+                    if (!consumer.consume(chunk)) {
+                        return;
+                    }
+                    chunk = new ArrayList<NoSQLEntity<T>>();
+                }
             }
         } finally {
             cursor.close();
-            db.close();
         }
-        return results;
+        if (!chunk.isEmpty()) {
+            consumer.consume(chunk);
+        }
+    }
+
+    /**
+     * Append field conditions to a selection on the entity table, answering them from indexes or in SQL where possible.
+     *
+     * @return the conditions that still have to be checked against the raw data of each row.
+     */
+    private List<FieldCondition> appendConditions(SQLiteDatabase db, String bucket, boolean compressed,
+                                                  StringBuilder selection, List<String> selectionArgs,
+                                                  List<FieldCondition> conditions) {
+        conditions = FieldIndexes.appendSelection(selection, selectionArgs, bucket, FieldIndexes.getFields(db, bucket),
+                conditions);
+        if (supportsJson(db) && !compressed) {
+            FieldConditions.appendSelection(selection, selectionArgs, conditions);
+            return NO_CONDITIONS;
+        }
+        return conditions;
+    }
+
+    /**
+     * Checks (once) whether this SQLite build includes the JSON1 functions. Older Android releases don't ship them.
+     */
+    private boolean supportsJson(SQLiteDatabase db) {
+        if (supportsJson == null) {
+            try {
+                DatabaseUtils.stringForQuery(db, "SELECT json_extract('{\"a\":1}', '$.a')", null);
+                supportsJson = true;
+            } catch (SQLiteException e) {
+                supportsJson = false;
+            }
+        }
+        return supportsJson;
+    }
+
+    /**
+     * Keeps the entities of a non-streaming retrieval, which are read as a single unbounded chunk.
+     */
+    private static class EntityCollector<T> implements EntityConsumer<T> {
+        private List<NoSQLEntity<T>> results = new ArrayList<NoSQLEntity<T>>(0);
+
+        @Override
+        public boolean consume(List<NoSQLEntity<T>> entities) {
+            results = entities;
+            return true;
+        }
+    }
+
+    /**
+     * A DataStore view over this helper's connection with its own serialization. Deletions don't touch serialized
+     * data, so they go straight to the helper.
+     */
+    private class SerializingDataStore implements DataStore {
+        private final DataSerializer serializer;
+        private final DataDeserializer deserializer;
+
+        SerializingDataStore(DataSerializer serializer, DataDeserializer deserializer) {
+            this.serializer = serializer;
+            this.deserializer = deserializer;
+        }
+
+        @Override
+        public <T> void saveEntity(NoSQLEntity<T> entity) {
+            SimpleNoSQLDBHelper.this.saveEntities(Collections.singletonList(entity), serializer);
+        }
+
+        @Override
+        public <T> void saveEntities(List<NoSQLEntity<T>> entities) {
+            SimpleNoSQLDBHelper.this.saveEntities(entities, serializer);
+        }
+
+        @Override
+        public <T> void streamEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                       List<FieldCondition> conditions, Pagination pagination, int chunkSize,
+                                       EntityConsumer<T> consumer) {
+            SimpleNoSQLDBHelper.this.streamEntities(bucket, clazz, filter, conditions, pagination, chunkSize, consumer,
+                    deserializer);
+        }
+
+        @Override
+        public boolean deleteEntity(String bucket, String entityId) {
+            return SimpleNoSQLDBHelper.this.deleteEntity(bucket, entityId);
+        }
+
+        @Override
+        public boolean deleteBucket(String bucket) {
+            return SimpleNoSQLDBHelper.this.deleteBucket(bucket);
+        }
+
+        @Override
+        public int deleteEntities(String bucket, Collection<String> entityIds) {
+            return SimpleNoSQLDBHelper.this.deleteEntities(bucket, entityIds);
+        }
+
+        @Override
+        public int deleteEntitiesWhere(String bucket, List<FieldCondition> conditions) {
+            return SimpleNoSQLDBHelper.this.deleteEntitiesWhere(bucket, conditions);
+        }
+
+        @Override
+        public void createIndex(String bucket, String field) {
+            SimpleNoSQLDBHelper.this.createIndex(bucket, field);
+        }
+
+        @Override
+        public void setCompression(String bucket, boolean enabled) {
+            SimpleNoSQLDBHelper.this.setCompression(bucket, enabled);
+        }
+
+        @Override
+        public void runInTransaction(Runnable operations) {
+            SimpleNoSQLDBHelper.this.runInTransaction(operations);
+        }
+
+        @Override
+        public <T> List<NoSQLEntity<T>> getEntities(String bucket, String entityId, Class<T> clazz, DataFilter<T> filter) {
+            return SimpleNoSQLDBHelper.this.getEntities(bucket, entityId, clazz, filter, NO_CONDITIONS, deserializer);
+        }
+
+        @Override
+        public <T> List<NoSQLEntity<T>> getEntities(String bucket, String entityId, Class<T> clazz,
+                                                    DataFilter<T> filter, List<FieldCondition> conditions) {
+            return SimpleNoSQLDBHelper.this.getEntities(bucket, entityId, clazz, filter, conditions, deserializer);
+        }
+
+        @Override
+        public <T> List<NoSQLEntity<T>> getEntities(String bucket, Collection<String> entityIds, Class<T> clazz,
+                                                    DataFilter<T> filter, List<FieldCondition> conditions) {
+            return SimpleNoSQLDBHelper.this.getEntities(bucket, entityIds, clazz, filter, conditions, deserializer);
+        }
+
+        @Override
+        public <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter) {
+            return SimpleNoSQLDBHelper.this.getEntities(bucket, clazz, filter, NO_CONDITIONS, Pagination.NONE,
+                    deserializer);
+        }
+
+        @Override
+        public <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                                    List<FieldCondition> conditions) {
+            return SimpleNoSQLDBHelper.this.getEntities(bucket, clazz, filter, conditions, Pagination.NONE,
+                    deserializer);
+        }
+
+        @Override
+        public <T> List<NoSQLEntity<T>> getEntities(String bucket, Class<T> clazz, DataFilter<T> filter,
+                                                    List<FieldCondition> conditions, Pagination pagination) {
+            return SimpleNoSQLDBHelper.this.getEntities(bucket, clazz, filter, conditions, pagination, deserializer);
+        }
     }
 }
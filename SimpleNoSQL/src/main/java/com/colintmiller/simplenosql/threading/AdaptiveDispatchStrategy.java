@@ -0,0 +1,226 @@
+package com.colintmiller.simplenosql.threading;
+
+import android.os.Process;
+import android.util.Log;
+import com.colintmiller.simplenosql.NoSQLQuery;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link DispatchStrategy} whose number of threads follows the load. No thread is started until a query is queued.
+ * From then on, a thread is added whenever more queries are waiting than the idle threads can take, by more than the
+ * queue depth threshold, or whenever a query has waited at the front of the queue for longer than the wait threshold,
+ * up to the maximum. A thread that has been idle for the idle timeout quits, down to the minimum. An idle app therefore
+ * holds only the minimum number of threads, which may be none, while a burst of queries gets as many as allowed.
+ */
+public class AdaptiveDispatchStrategy implements DispatchStrategy, QueryQueue.Listener {
+    private static final String TAG = AdaptiveDispatchStrategy.class.getName();
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final long idleTimeoutMillis;
+    private final int queueDepthThreshold;
+    private final long waitThresholdMillis;
+
+    // Guarded by this.
+    private QueryQueue queue;
+    private QueryProcessor processor;
+    private final Set<Worker> workers = new HashSet<Worker>();
+    private int idleWorkers;
+
+    /**
+     * Create a strategy that adds a thread as soon as a query is waiting without an idle thread to take it.
+     *
+     * @param minThreads to keep once started, even when idle. May be 0.
+     * @param maxThreads to run at most.
+     * @param idleTimeoutMillis how long a thread above the minimum waits for a query before it quits.
+     */
+    public AdaptiveDispatchStrategy(int minThreads, int maxThreads, long idleTimeoutMillis) {
+        this(minThreads, maxThreads, idleTimeoutMillis, 0, 0);
+    }
+
+    /**
+     * @param minThreads to keep once started, even when idle. May be 0.
+     * @param maxThreads to run at most.
+     * @param idleTimeoutMillis how long a thread above the minimum waits for a query before it quits.
+     * @param queueDepthThreshold how many queries may wait beyond those the idle threads can take before a thread is
+     *                            added. 0 adds one for every such query.
+     * @param waitThresholdMillis how long a query may wait at the front of the queue before a thread is added for it,
+     *                            however short the queue. 0 disables the check.
+     */
+    public AdaptiveDispatchStrategy(int minThreads, int maxThreads, long idleTimeoutMillis, int queueDepthThreshold,
+                                    long waitThresholdMillis) {
+        if (minThreads < 0 || maxThreads < 1 || minThreads > maxThreads) {
+            throw new IllegalArgumentException("Thread counts must satisfy 0 <= minThreads <= maxThreads and 1 <= " +
+                    "maxThreads");
+        }
+        if (idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("The idle timeout must be positive");
+        }
+        if (queueDepthThreshold < 0 || waitThresholdMillis < 0) {
+            throw new IllegalArgumentException("The growth thresholds can't be negative");
+        }
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.queueDepthThreshold = queueDepthThreshold;
+        this.waitThresholdMillis = waitThresholdMillis;
+    }
+
+    @Override
+    public synchronized void start(QueryQueue queue, QueryProcessor processor) {
+        stop();
+        this.queue = queue;
+        this.processor = processor;
+        queue.addListener(this);
+        grow();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (queue != null) {
+            queue.removeListener(this);
+            queue = null;
+            processor = null;
+        }
+        for (Worker worker : workers) {
+            worker.quit();
+        }
+        workers.clear();
+        idleWorkers = 0;
+    }
+
+    @Override
+    public synchronized void queryQueued(QueryQueue queue) {
+        if (queue == this.queue) {
+            grow();
+        }
+    }
+
+    /**
+     * @return the number of threads currently running.
+     */
+    public synchronized int getThreadCount() {
+        return workers.size();
+    }
+
+    /**
+     * Add threads while fewer are running than the minimum, or while the queries waiting without an idle thread to
+     * take them cross the depth or wait threshold.
+     */
+    private void grow() {
+        int waiting = queue.size();
+        if (waiting == 0) {
+            return;
+        }
+        boolean waitedTooLong = waitThresholdMillis > 0 && queue.getOldestWaitMillis() >= waitThresholdMillis;
+        while (workers.size() < maxThreads && (workers.size() < minThreads || waiting - idleWorkers >
+                queueDepthThreshold || (waitedTooLong && waiting > idleWorkers))) {
+            Worker worker = new Worker(queue, processor);
+            workers.add(worker);
+            // A new worker counts as idle until it takes a query, so that no more are started for the same queries.
+            idleWorkers++;
+            worker.start();
+        }
+    }
+
+    /**
+     * Called by a worker that found nothing to do within the idle timeout.
+     *
+     * @return true if the worker should quit.
+     */
+    private synchronized boolean retire(Worker worker) {
+        // Queries queued since the poll timed out were counted against this worker as idle, so it has to stay for them.
+        if (!workers.contains(worker) || (workers.size() > minThreads && queue.isEmpty())) {
+            if (workers.remove(worker)) {
+                idleWorkers--;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void setIdle(Worker worker, boolean idle) {
+        if (workers.contains(worker)) {
+            idleWorkers += idle ? 1 : -1;
+            if (idle && queue != null) {
+                // Queries left waiting behind the one just processed may have crossed the wait threshold by now.
+                grow();
+            }
+        }
+    }
+
+    /**
+     * Called by a worker whose thread is ending, whether it quit or a query failed with an unchecked exception. A
+     * worker that is still counted would otherwise hold a slot, as idle, that no thread serves.
+     */
+    private synchronized void exited(Worker worker) {
+        if (workers.remove(worker)) {
+            idleWorkers--;
+            if (queue != null) {
+                grow();
+            }
+        }
+    }
+
+    private class Worker extends Thread {
+        private final QueryQueue queue;
+        private final QueryProcessor processor;
+        private volatile boolean hasQuit = false;
+
+        Worker(QueryQueue queue, QueryProcessor processor) {
+            this.queue = queue;
+            this.processor = processor;
+        }
+
+        void quit() {
+            hasQuit = true;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            try {
+                runQueries();
+            } finally {
+                exited(this);
+            }
+        }
+
+        private void runQueries() {
+            // The worker was counted as idle when it was started.
+            boolean core = false;
+            while (!hasQuit) {
+                NoSQLQuery<?> query;
+                try {
+                    // A thread kept for the minimum has no reason to wake up until there is work.
+                    query = core ? queue.take() : queue.poll(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (query == null) {
+                    if (retire(this)) {
+                        return;
+                    }
+                    core = true;
+                    continue;
+                }
+
+                core = false;
+                setIdle(this, false);
+                try {
+                    processor.process(query);
+                } catch (RuntimeException e) {
+                    // The query is lost either way, but the thread can go on serving the others.
+                    Log.e(TAG, "Query failed on " + getName(), e);
+                } finally {
+                    setIdle(this, true);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.colintmiller.simplenosql.threading;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An executor that collects tasks and runs them in batches on another executor, such as one that posts to the UI
+ * thread's Handler. However many tasks arrive at once, at most one drain is posted to the target at a time, and each
+ * drain runs queued tasks in order until it has run a maximum number of them or used up its time budget. Whatever is
+ * left is posted as a new drain, so the target thread gets to do other work, such as drawing a frame, in between.
+ * <p>
+ * Tasks are queued without locking, so the dispatcher threads finishing queries never wait on each other or on the
+ * thread running the drains.
+ */
+public class BatchingExecutor implements Executor {
+
+    private final Executor target;
+    private final int maxPerDrain;
+    private final long maxDrainNanos;
+    private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param target to run drains on.
+     * @param maxPerDrain the most tasks to run in one drain.
+     * @param maxDrainMillis how long a drain may keep starting tasks, or 0 to bound drains only by their number of
+     *                       tasks.
+     */
+    public BatchingExecutor(Executor target, int maxPerDrain, long maxDrainMillis) {
+        if (maxPerDrain < 1) {
+            throw new IllegalArgumentException("A drain must run at least one task");
+        }
+        this.target = target;
+        this.maxPerDrain = maxPerDrain;
+        this.maxDrainNanos = TimeUnit.MILLISECONDS.toNanos(maxDrainMillis);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        pending.add(command);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            target.execute(drain);
+        }
+    }
+
+    private void drain() {
+        long start = System.nanoTime();
+        try {
+            Runnable next;
+            for (int ran = 0; ran < maxPerDrain && (next = pending.poll()) != null; ran++) {
+                next.run();
+                if (maxDrainNanos > 0 && System.nanoTime() - start >= maxDrainNanos) {
+                    break;
+                }
+            }
+        } finally {
+            // A task queued while this drain was finishing saw it scheduled and didn't post one of its own.
+            scheduled.set(false);
+            if (!pending.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
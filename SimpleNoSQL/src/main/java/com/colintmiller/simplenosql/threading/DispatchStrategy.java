@@ -0,0 +1,24 @@
+package com.colintmiller.simplenosql.threading;
+
+/**
+ * Decides which threads perform the queries of a NoSQL instance. A strategy is started with the instance's queue and
+ * {@link QueryProcessor}, and from then on must make sure that every query added to the queue is eventually taken from
+ * it and passed to {@link QueryProcessor#process}. The processor is thread-safe, so queries may be processed on as many
+ * threads at once as the strategy likes.
+ */
+public interface DispatchStrategy {
+
+    /**
+     * Start processing queries. Queries already in the queue must be processed as well.
+     *
+     * @param queue holding the queries to process.
+     * @param processor to perform each query with.
+     */
+    public void start(QueryQueue queue, QueryProcessor processor);
+
+    /**
+     * Stop taking queries from the queue. Queries already taken may still finish, and queries left in the queue are
+     * processed once a strategy is started again.
+     */
+    public void stop();
+}
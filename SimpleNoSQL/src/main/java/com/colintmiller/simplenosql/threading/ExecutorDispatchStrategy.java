@@ -0,0 +1,84 @@
+package com.colintmiller.simplenosql.threading;
+
+import com.colintmiller.simplenosql.NoSQLQuery;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link DispatchStrategy} that runs queries on a supplied {@link Executor} instead of on threads of its own, so that
+ * they can share a thread pool with the rest of an application. Every query added to the queue submits one task, which
+ * takes the next query from the queue when it runs, so queries still come out in priority order however the executor
+ * orders its tasks. How many queries are processed at once is up to the executor.
+ * <p>
+ * Any executor works, for example a shared {@link java.util.concurrent.ThreadPoolExecutor}, a
+ * {@link java.util.concurrent.ForkJoinPool}, or a virtual thread per task executor on a JVM that has them. The executor
+ * isn't shut down when the strategy is stopped. If the executor rejects a task, the exception is thrown to the code
+ * that queued the query, and one query is left in the queue until the strategy is started again.
+ */
+public class ExecutorDispatchStrategy implements DispatchStrategy {
+
+    private final Executor executor;
+    private Dispatch dispatch;
+
+    /**
+     * @param executor to run queries on.
+     */
+    public ExecutorDispatchStrategy(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("An executor is required");
+        }
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void start(QueryQueue queue, QueryProcessor processor) {
+        stop();
+        dispatch = new Dispatch(executor, queue, processor);
+        queue.addListener(dispatch);
+        for (int i = queue.size(); i > 0; i--) {
+            executor.execute(dispatch);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (dispatch != null) {
+            dispatch.stopped = true;
+            dispatch.queue.removeListener(dispatch);
+            dispatch = null;
+        }
+    }
+
+    /**
+     * Submits itself once for every query queued while started, and processes one query each time it runs. A task
+     * can find the queue empty when another task's group commit took its query, which is harmless.
+     */
+    private static class Dispatch implements Runnable, QueryQueue.Listener {
+        private final Executor executor;
+        private final QueryQueue queue;
+        private final QueryProcessor processor;
+        private volatile boolean stopped;
+
+        Dispatch(Executor executor, QueryQueue queue, QueryProcessor processor) {
+            this.executor = executor;
+            this.queue = queue;
+            this.processor = processor;
+        }
+
+        @Override
+        public void queryQueued(QueryQueue queue) {
+            executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            if (stopped) {
+                return;
+            }
+            NoSQLQuery<?> query = queue.poll();
+            if (query != null) {
+                processor.process(query);
+            }
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.colintmiller.simplenosql.threading;
 
 import android.os.Handler;
+import com.colintmiller.simplenosql.DeletionObserver;
+import com.colintmiller.simplenosql.MissingEntitiesCallback;
 import com.colintmiller.simplenosql.NoSQLEntity;
 import com.colintmiller.simplenosql.OperationObserver;
+import com.colintmiller.simplenosql.PagedRetrievalCallback;
 import com.colintmiller.simplenosql.RetrievalCallback;
+import com.colintmiller.simplenosql.StreamingRetrievalCallback;
 
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -28,6 +32,28 @@ public class QueryDelivery {
         };
     }
 
+    /**
+     * Creates a new QueryDelivery which will post to the given executor.
+     * @param executor to run query result deliveries on.
+     */
+    public QueryDelivery(Executor executor) {
+        poster = executor;
+    }
+
+    /**
+     * Creates a QueryDelivery that posts to the same place as this one, but in batches. Instead of one message per
+     * callback and per observer, results that are ready at about the same time are delivered by a single message, so
+     * hundreds of queries finishing together don't flood the UI thread's looper. See {@link BatchingExecutor}.
+     *
+     * @param maxPerDrain the most callbacks and observer notifications to deliver in one message.
+     * @param maxDrainMillis how long one message may keep delivering before leaving the rest to the next, or 0 for no
+     *                       time limit.
+     * @return a batching QueryDelivery.
+     */
+    public QueryDelivery batched(int maxPerDrain, long maxDrainMillis) {
+        return new QueryDelivery(new BatchingExecutor(poster, maxPerDrain, maxDrainMillis));
+    }
+
     /**
      * Notifies observers that the operation has finished.
      * @param observers to notify.
@@ -45,6 +71,28 @@ public class QueryDelivery {
         }
     }
 
+    /**
+     * Notifies observers that a deletion has finished, telling any {@link DeletionObserver}s how many entities it
+     * deleted first.
+     * @param observers to notify.
+     * @param deletedCount the number of entities that were deleted.
+     */
+    public void notifyObservers(List<OperationObserver> observers, final int deletedCount) {
+        for (final OperationObserver observer : observers) {
+            if (observer != null) {
+                poster.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (observer instanceof DeletionObserver) {
+                            ((DeletionObserver) observer).entitiesDeleted(deletedCount);
+                        }
+                        observer.hasFinished();
+                    }
+                });
+            }
+        }
+    }
+
     /**
      * Sends query results to the given callback.
      * @param callback to call via the handler
@@ -59,4 +107,66 @@ public class QueryDelivery {
             }
         });
     }
+
+    /**
+     * Tells the given callback which of the requested entities weren't retrieved.
+     * @param callback to call via the handler
+     * @param entityIds that weren't retrieved
+     */
+    public void performMissingCallback(final MissingEntitiesCallback callback, final List<String> entityIds) {
+        poster.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.entitiesMissing(entityIds);
+            }
+        });
+    }
+
+    /**
+     * Sends a page of query results to the given callback.
+     * @param callback to call via the handler
+     * @param entities in the page
+     * @param continuationToken for the next page, or null if there isn't one
+     * @param <T> type of data being returned to the callback
+     */
+    public <T> void performPagedCallback(final PagedRetrievalCallback<T> callback,
+                                         final List<NoSQLEntity<T>> entities,
+                                         final String continuationToken) {
+        poster.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.retrievedPage(entities, continuationToken);
+            }
+        });
+    }
+
+    /**
+     * Sends one chunk of streamed query results to the given callback.
+     * @param callback to call via the handler
+     * @param entities in the chunk
+     * @param <T> type of data being returned to the callback
+     */
+    public <T> void performChunkCallback(final StreamingRetrievalCallback<T> callback,
+                                         final List<NoSQLEntity<T>> entities) {
+        poster.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.retrievedChunk(entities);
+            }
+        });
+    }
+
+    /**
+     * Tells the given callback that all chunks of a streamed query have been sent.
+     * @param callback to call via the handler
+     * @param <T> type of data being returned to the callback
+     */
+    public <T> void performCompleteCallback(final StreamingRetrievalCallback<T> callback) {
+        poster.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.retrievalComplete();
+            }
+        });
+    }
 }
@@ -0,0 +1,553 @@
+package com.colintmiller.simplenosql.threading;
+
+import android.content.Context;
+import com.colintmiller.simplenosql.DataComparator;
+import com.colintmiller.simplenosql.MissingEntitiesCallback;
+import com.colintmiller.simplenosql.NoSQLEntity;
+import com.colintmiller.simplenosql.NoSQLQuery;
+import com.colintmiller.simplenosql.OperationObserver;
+import com.colintmiller.simplenosql.QueryFuture;
+import com.colintmiller.simplenosql.StreamingRetrievalCallback;
+import com.colintmiller.simplenosql.db.DataStore;
+import com.colintmiller.simplenosql.db.EntityConsumer;
+import com.colintmiller.simplenosql.db.SimpleDataStoreFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Performs the data operations of queries taken from a queue, on whichever thread the {@link DispatchStrategy} calls it
+ * from. One processor is shared by every thread dispatching queries of a NoSQL instance.
+ *
+ * Queries are dispatched based on their operation type. Retrieval queries have their results posted to the supplied
+ * callback in the query. All operations also notify any observers. Both callback and observer notification are handled
+ * by the {@link com.colintmiller.simplenosql.threading.QueryDelivery} class which will post those results via the UI
+ * thread (or possibly a supplied thread).
+ *
+ * DataStores are obtained from a shared {@link com.colintmiller.simplenosql.db.SimpleDataStoreFactory} so that all
+ * threads reuse the same open connection instead of opening the database for every query.
+ *
+ * With group commit turned on, a thread that processes a save or delete keeps taking the writes queued right behind it,
+ * up to a batch size or until a short window passes, and commits all of them in one transaction. Observers of every
+ * write in the group are notified only once that transaction has committed.
+ *
+ * Each query locks what it touches in the processor's {@link StripedLocks} table. Saves and deletes of entities by id
+ * normally lock out retrievals of those entities and whole-bucket retrievals of their bucket, but not each other or
+ * retrievals of other entities. When the data store uses write-ahead logging, every retrieval reads a committed
+ * snapshot instead, so retrievals don't wait for writes at all. Deleting a bucket, or the entities of a bucket that
+ * match field conditions, locks the bucket exclusively unless the data store uses write-ahead logging. Index and
+ * compression changes, which also change how a bucket is read, always lock it exclusively.
+ */
+public class QueryProcessor {
+
+    private BlockingQueue<NoSQLQuery<?>> queue;
+    private Context context;
+    private volatile QueryDelivery delivery;
+    // Delivers results on the dispatcher thread itself, for queries that complete a future.
+    private final QueryDelivery directDelivery = new QueryDelivery(new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    });
+    private final StripedLocks locks = new StripedLocks();
+    // Held for reading by every query in progress, and for writing while the data store changes modes underneath them.
+    private final ReentrantReadWriteLock modeLock = new ReentrantReadWriteLock();
+    private SimpleDataStoreFactory dataStoreFactory;
+    private volatile int groupCommitSize = 1;
+    private volatile long groupCommitWindow;
+
+    public QueryProcessor(
+            BlockingQueue<NoSQLQuery<?>> queue,
+            Context context,
+            QueryDelivery delivery,
+            SimpleDataStoreFactory dataStoreFactory) {
+        this.queue = queue;
+        this.context = context;
+        this.delivery = delivery;
+        this.dataStoreFactory = dataStoreFactory;
+    }
+
+    /**
+     * Commit queued writes in groups. A batch size of 1 or less turns group commit off.
+     *
+     * @param maxBatchSize the most writes to commit in one transaction.
+     * @param windowMillis how long to wait for more writes after taking the first one of a group. With 0, only writes
+     *                     that are already queued are added to the group.
+     */
+    public void setGroupCommit(int maxBatchSize, long windowMillis) {
+        this.groupCommitSize = maxBatchSize;
+        this.groupCommitWindow = windowMillis;
+    }
+
+    /**
+     * Turn write-ahead logging on or off for the data store. Changing modes reopens the shared connection, so this
+     * waits for the queries in progress to finish, and holds back the others until the change is made.
+     *
+     * @param writeAheadLogging true to let retrievals run in parallel with writes.
+     * @throws IllegalStateException if called from a query's callback or observer on the thread performing it.
+     */
+    public void setWriteAheadLogging(boolean writeAheadLogging) {
+        if (modeLock.getReadHoldCount() > 0) {
+            throw new IllegalStateException("Can't change write-ahead logging from within a query");
+        }
+        modeLock.writeLock().lock();
+        try {
+            dataStoreFactory.setWriteAheadLogging(writeAheadLogging);
+        } finally {
+            modeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Close the data store connection once the queries in progress are done. Queries made afterwards fail until the
+     * data store factory is opened again.
+     *
+     * @throws IllegalStateException if called from a query's callback or observer on the thread performing it.
+     */
+    public void closeDataStores() {
+        if (modeLock.getReadHoldCount() > 0) {
+            throw new IllegalStateException("Can't close the data store from within a query");
+        }
+        modeLock.writeLock().lock();
+        try {
+            dataStoreFactory.close();
+        } finally {
+            modeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param delivery to deliver results and notify observers with from now on.
+     */
+    public void setDelivery(QueryDelivery delivery) {
+        this.delivery = delivery;
+    }
+
+    /**
+     * Perform a query taken from the queue. A save or delete may take more writes from the queue to commit with it.
+     *
+     * @param query to perform.
+     */
+    public void process(NoSQLQuery<?> query) {
+        if (query.isCanceled()) {
+            // TODO: Add Logging of canceled request.
+            return;
+        }
+
+        modeLock.readLock().lock();
+        try {
+            if (groupCommitSize > 1 && isWrite(query)) {
+                List<NoSQLQuery<?>> group = new ArrayList<NoSQLQuery<?>>();
+                group.add(query);
+                NoSQLQuery<?> next = takeWrites(group);
+                RuntimeException failure = null;
+                try {
+                    commit(group);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+                // The query that ended the group was taken from the queue too, so it runs whatever became of the group.
+                if (next != null) {
+                    try {
+                        execute(next);
+                    } catch (RuntimeException e) {
+                        failure = failure == null ? e : failure;
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            } else {
+                execute(query);
+            }
+        } finally {
+            modeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Perform a query on the calling thread instead of taking it from the queue, with the same locking as queued
+     * queries. Its callback and observers are called on the calling thread before this returns, and anything the
+     * query throws is thrown to the caller. Group commit doesn't apply, the query is committed on its own.
+     *
+     * @param query to perform.
+     */
+    public void processNow(NoSQLQuery<?> query) {
+        query.setDirectDelivery(true);
+        modeLock.readLock().lock();
+        try {
+            execute(query);
+        } finally {
+            modeLock.readLock().unlock();
+        }
+    }
+
+    private void execute(NoSQLQuery<?> query) {
+        try {
+            DataStore dataStore = getDataStore(query);
+
+            switch (query.getOperation()) {
+                case SAVE:
+                case DELETE:
+                    lockAndWrite(query, dataStore);
+                    break;
+                case RETRIEVE:
+                    retrieve(query, dataStore);
+                    break;
+                case INDEX:
+                    index(query, dataStore);
+                    break;
+                case COMPRESS:
+                    compress(query, dataStore);
+                    break;
+                default:
+                    throw new IllegalStateException("Should not have a null operation");
+            }
+
+            notifyObservers(query);
+        } catch (RuntimeException e) {
+            if (!failFutures(query, e)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Hand an exception thrown by a query to any futures waiting on it, instead of letting it end the thread.
+     *
+     * @return true if there was a future to hand it to.
+     */
+    private static boolean failFutures(NoSQLQuery<?> query, RuntimeException e) {
+        boolean failed = false;
+        if (query.getCallback() instanceof QueryFuture) {
+            ((QueryFuture<?>) query.getCallback()).fail(e);
+            failed = true;
+        }
+        for (OperationObserver observer : query.getObservers()) {
+            if (observer instanceof QueryFuture) {
+                ((QueryFuture<?>) observer).fail(e);
+                failed = true;
+            }
+        }
+        return failed;
+    }
+
+    private void notifyObservers(NoSQLQuery<?> query) {
+        if (query.getOperation() == NoSQLQuery.NoSQLOperation.DELETE) {
+            getDelivery(query).notifyObservers(query.getObservers(), query.getDeletedCount());
+        } else {
+            getDelivery(query).notifyObservers(query.getObservers());
+        }
+    }
+
+    private QueryDelivery getDelivery(NoSQLQuery<?> query) {
+        return query.isDirectDelivery() ? directDelivery : delivery;
+    }
+
+    private DataStore getDataStore(NoSQLQuery<?> query) {
+        return dataStoreFactory.getDataStore(context, query.getSerializer(), query.getDeserializer());
+    }
+
+    private static boolean isWrite(NoSQLQuery<?> query) {
+        return query.getOperation() == NoSQLQuery.NoSQLOperation.SAVE
+                || query.getOperation() == NoSQLQuery.NoSQLOperation.DELETE;
+    }
+
+    /**
+     * Take the writes queued behind the first one of a group until the group is full, the window has passed or a
+     * query that isn't a write is taken.
+     *
+     * @param group to add writes to, starting with the write that was already taken.
+     * @return the query that ended the group and still needs to be executed, or null.
+     */
+    private NoSQLQuery<?> takeWrites(List<NoSQLQuery<?>> group) {
+        int maxBatchSize = groupCommitSize;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(groupCommitWindow);
+        while (group.size() < maxBatchSize) {
+            NoSQLQuery<?> next;
+            try {
+                long remaining = deadline - System.nanoTime();
+                next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+            } catch (InterruptedException e) {
+                // Commit what's been taken so far. The interrupt is kept for the next take.
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (next == null) {
+                return null;
+            }
+            if (next.isCanceled()) {
+                continue;
+            }
+            if (!isWrite(next)) {
+                return next;
+            }
+            group.add(next);
+        }
+        return null;
+    }
+
+    /**
+     * Execute a group of writes in one transaction, holding the locks of every write involved until it commits.
+     * The locks are taken together so that two threads committing groups can't deadlock. If the transaction
+     * fails, each write is retried on its own so that one bad write doesn't take the others down with it. The first
+     * exception thrown by a retried write is rethrown once all of them have been retried.
+     */
+    private void commit(final List<NoSQLQuery<?>> group) {
+        if (group.size() == 1) {
+            execute(group.get(0));
+            return;
+        }
+
+        boolean committed = false;
+        StripedLocks.Request request = locks.request();
+        for (NoSQLQuery<?> query : group) {
+            addWriteLocks(request, query);
+        }
+        request.acquire();
+        try {
+            getDataStore(group.get(0)).runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    for (NoSQLQuery<?> query : group) {
+                        write(query, getDataStore(query));
+                    }
+                }
+            });
+            committed = true;
+        } catch (RuntimeException e) {
+            // Nothing was committed, the writes are retried one at a time below.
+        } finally {
+            request.release();
+        }
+
+        RuntimeException failure = null;
+        for (NoSQLQuery<?> query : group) {
+            if (committed) {
+                notifyObservers(query);
+                continue;
+            }
+            try {
+                execute(query);
+            } catch (RuntimeException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void lockAndWrite(NoSQLQuery<?> query, DataStore dataStore) {
+        StripedLocks.Request request = locks.request();
+        addWriteLocks(request, query);
+        request.acquire();
+        try {
+            write(query, dataStore);
+        } finally {
+            request.release();
+        }
+    }
+
+    /**
+     * Add the locks a save or delete needs to a request. Writes of single entities lock each entity, which keeps out
+     * retrievals of the entity as well unless the data store uses write-ahead logging.
+     */
+    private void addWriteLocks(StripedLocks.Request request, NoSQLQuery<?> query) {
+        if (query.getOperation() == NoSQLQuery.NoSQLOperation.SAVE) {
+            for (NoSQLEntity<?> entity : query.getEntities()) {
+                request.entity(entity.getBucket(), entity.getId(), true);
+            }
+        } else if (query.getEntityId() != null) {
+            request.entity(query.getBucketId(), query.getEntityId(), true);
+        } else if (query.getEntityIds() != null) {
+            for (String entityId : query.getEntityIds()) {
+                request.entity(query.getBucketId(), entityId, true);
+            }
+        } else {
+            request.bucket(query.getBucketId(), dataStoreFactory.isWriteAheadLogging()
+                    ? StripedLocks.Mode.INTENT_WRITE : StripedLocks.Mode.WRITE);
+        }
+    }
+
+    private void write(NoSQLQuery<?> query, DataStore dataStore) {
+        if (query.getOperation() == NoSQLQuery.NoSQLOperation.SAVE) {
+            save(query, dataStore);
+        } else {
+            delete(query, dataStore);
+        }
+    }
+
+    private <T> void save(NoSQLQuery<T> query, DataStore dataStore) {
+        dataStore.saveEntities(query.getEntities());
+    }
+
+    private <T> void delete(NoSQLQuery<T> query, DataStore dataStore) {
+        String bucket = query.getBucketId();
+
+        int deleted = 0;
+        if (bucket != null && query.getEntityId() != null) {
+            deleted = dataStore.deleteEntity(bucket, query.getEntityId()) ? 1 : 0;
+        } else if (bucket != null && query.getEntityIds() != null) {
+            deleted = dataStore.deleteEntities(bucket, query.getEntityIds());
+        } else if (bucket != null) {
+            deleted = dataStore.deleteEntitiesWhere(bucket, query.getConditions());
+        }
+        query.setDeletedCount(deleted);
+    }
+
+    private <T> void index(NoSQLQuery<T> query, DataStore dataStore) {
+        String bucket = query.getBucketId();
+
+        StripedLocks.Request request = locks.request().bucket(bucket, StripedLocks.Mode.WRITE);
+        request.acquire();
+        try {
+            if (bucket != null && query.getIndexField() != null) {
+                dataStore.createIndex(bucket, query.getIndexField());
+            }
+        } finally {
+            request.release();
+        }
+    }
+
+    private <T> void compress(NoSQLQuery<T> query, DataStore dataStore) {
+        String bucket = query.getBucketId();
+
+        StripedLocks.Request request = locks.request().bucket(bucket, StripedLocks.Mode.WRITE);
+        request.acquire();
+        try {
+            if (bucket != null) {
+                dataStore.setCompression(bucket, query.isCompressionEnabled());
+            }
+        } finally {
+            request.release();
+        }
+    }
+
+    private <T> void retrieve(NoSQLQuery<T> query, DataStore dataStore) {
+        String bucket = query.getBucketId();
+        
+        StripedLocks.Request request = locks.request();
+        if (dataStoreFactory.isWriteAheadLogging()) {
+            request.bucket(bucket, StripedLocks.Mode.INTENT_READ);
+        } else if (query.getEntityId() != null) {
+            request.entity(bucket, query.getEntityId(), false);
+        } else if (query.getEntityIds() != null) {
+            for (String entityId : query.getEntityIds()) {
+                request.entity(bucket, entityId, false);
+            }
+        } else {
+            request.bucket(bucket, StripedLocks.Mode.READ);
+        }
+        List<NoSQLEntity<T>> entityList = null;
+        request.acquire();
+        try {
+            if (query.getStreamingCallback() != null) {
+                stream(query, dataStore);
+            } else if (bucket != null && query.getEntityId() != null) {
+                entityList = dataStore.getEntities(bucket, query.getEntityId(), query.getClazz(), query.getFilter(),
+                        query.getConditions());
+            } else if (bucket != null && query.getEntityIds() != null) {
+                entityList = dataStore.getEntities(bucket, query.getEntityIds(), query.getClazz(), query.getFilter(),
+                        query.getConditions());
+            } else if (bucket != null) {
+                entityList = dataStore.getEntities(bucket, query.getClazz(), query.getFilter(),
+                        query.getConditions(), query.getPagination());
+            }
+        } finally {
+            request.release();
+        }
+
+        // Delivered once the locks are released, so that a callback called on this thread can make queries of its own.
+        if (entityList != null) {
+            deliverMissing(query, entityList);
+            sortAndDeliver(entityList, query);
+        }
+    }
+
+    private <T> void stream(final NoSQLQuery<T> query, DataStore dataStore) {
+        final StreamingRetrievalCallback<T> callback = query.getStreamingCallback();
+        final QueryDelivery delivery = getDelivery(query);
+        String bucket = query.getBucketId();
+
+        if (bucket != null && query.getEntityId() != null) {
+            List<NoSQLEntity<T>> entityList = dataStore.getEntities(bucket, query.getEntityId(), query.getClazz(),
+                    query.getFilter(), query.getConditions());
+            if (!entityList.isEmpty()) {
+                delivery.performChunkCallback(callback, entityList);
+            }
+        } else if (bucket != null && query.getEntityIds() != null) {
+            List<NoSQLEntity<T>> entityList = dataStore.getEntities(bucket, query.getEntityIds(), query.getClazz(),
+                    query.getFilter(), query.getConditions());
+            deliverMissing(query, entityList);
+            int chunkSize = query.getChunkSize();
+            for (int start = 0; start < entityList.size() && !query.isCanceled(); start += chunkSize) {
+                delivery.performChunkCallback(callback, new ArrayList<NoSQLEntity<T>>(
+                        entityList.subList(start, Math.min(entityList.size(), start + chunkSize))));
+            }
+        } else if (bucket != null) {
+            dataStore.streamEntities(bucket, query.getClazz(), query.getFilter(), query.getConditions(),
+                    query.getPagination(), query.getChunkSize(), new EntityConsumer<T>() {
+                        @Override
+                        public boolean consume(List<NoSQLEntity<T>> entities) {
+                            if (query.isCanceled()) {
+                                return false;
+                            }
+                            delivery.performChunkCallback(callback, entities);
+                            return true;
+                        }
+                    });
+        }
+
+        if (!query.isCanceled()) {
+            delivery.performCompleteCallback(callback);
+        }
+    }
+
+    /**
+     * Tell the query's missing entities callback, if it has one, which of the requested entityIds weren't retrieved.
+     */
+    private <T> void deliverMissing(NoSQLQuery<T> query, List<NoSQLEntity<T>> entities) {
+        MissingEntitiesCallback callback = query.getMissingCallback();
+        if (callback == null || query.getEntityIds() == null) {
+            return;
+        }
+        Set<String> missing = new LinkedHashSet<String>(query.getEntityIds());
+        missing.remove(null);
+        for (NoSQLEntity<T> entity : entities) {
+            missing.remove(entity.getId());
+        }
+        if (!missing.isEmpty()) {
+            getDelivery(query).performMissingCallback(callback, new ArrayList<String>(missing));
+        }
+    }
+
+    private <T> void sortAndDeliver(List<NoSQLEntity<T>> entities, NoSQLQuery<T> query) {
+        // The token has to come from the last entity in entityId order, before any comparator reorders the page.
+        // Retrievals of several entityIds aren't paged.
+        String continuationToken = null;
+        int limit = query.getPagination().getLimit();
+        if (query.getEntityIds() == null && limit > 0 && entities.size() == limit) {
+            continuationToken = entities.get(entities.size() - 1).getId();
+        }
+
+        DataComparator<T> comparator = query.getComparator();
+        if (comparator != null) {
+            Collections.sort(entities, comparator);
+        }
+        QueryDelivery delivery = getDelivery(query);
+        if (query.getPagedCallback() != null) {
+            delivery.performPagedCallback(query.getPagedCallback(), entities, continuationToken);
+        } else {
+            delivery.performCallback(query.getCallback(), entities);
+        }
+    }
+}
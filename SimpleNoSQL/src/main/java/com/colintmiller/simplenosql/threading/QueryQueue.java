@@ -0,0 +1,432 @@
+package com.colintmiller.simplenosql.threading;
+
+import com.colintmiller.simplenosql.NoSQLEntity;
+import com.colintmiller.simplenosql.NoSQLQuery;
+import com.colintmiller.simplenosql.OperationObserver;
+import com.colintmiller.simplenosql.QueryPriority;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The queue of queries waiting to be processed. Queries are handed out highest {@link QueryPriority}
+ * first, and in the order they were queued within a priority.
+ * <p>
+ * So that a steady stream of higher priority queries can't starve lower priority ones, a query that has waited at the
+ * front of its priority for the aging interval competes as if it were one priority higher, and another interval later
+ * as if it were two higher. A backlog of lower priority work therefore gets one query through every so often, while
+ * newly queued higher priority queries still go ahead of the rest of it.
+ * <p>
+ * With write collapsing turned on, a save of a single entity or a delete of a single entity replaces any earlier write
+ * to the same bucket and entityId that no dispatcher has started yet. Only the latest write to an entity is then
+ * executed, and the observers of the writes it replaced are notified along with its own once it's done. The latest
+ * write takes on the highest priority of the writes it replaced. Replaced writes are taken out of the queue, so they
+ * don't count towards its size. Canceling a write that replaced others cancels those as well. Writes that complete a future on the dispatcher
+ * thread and writes whose observers are notified through the delivery don't replace each other.
+ */
+public class QueryQueue extends AbstractQueue<NoSQLQuery<?>> implements BlockingQueue<NoSQLQuery<?>> {
+
+    public static final long DEFAULT_AGING_MILLIS = 500;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    // One queue per priority, in priority order, and the time each one's head reached the front. Guarded by lock.
+    private final List<ArrayDeque<NoSQLQuery<?>>> levels;
+    private final long[] headSince;
+    private int count;
+    private volatile long agingNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_AGING_MILLIS);
+
+    // The latest queued write to each entity, while write collapsing is on.
+    private final ConcurrentHashMap<WriteKey, NoSQLQuery<?>> pendingWrites =
+            new ConcurrentHashMap<WriteKey, NoSQLQuery<?>>();
+    private volatile boolean collapseWrites;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    public QueryQueue() {
+        int priorities = QueryPriority.values().length;
+        levels = new ArrayList<ArrayDeque<NoSQLQuery<?>>>(priorities);
+        for (int i = 0; i < priorities; i++) {
+            levels.add(new ArrayDeque<NoSQLQuery<?>>());
+        }
+        headSince = new long[priorities];
+    }
+
+    /**
+     * @param listener to notify of every query added from now on.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener to stop notifying.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param collapseWrites true to replace pending writes to an entity with later writes to the same entity.
+     */
+    public void setCollapseWrites(boolean collapseWrites) {
+        this.collapseWrites = collapseWrites;
+    }
+
+    /**
+     * @param agingMillis how long a query waits at the front of its priority before it's promoted by one priority. With
+     *                    0, priorities take turns regardless of how urgent they are.
+     */
+    public void setAging(long agingMillis) {
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMillis);
+    }
+
+    @Override
+    public boolean offer(NoSQLQuery<?> query) {
+        if (query == null) {
+            throw new NullPointerException();
+        }
+        collapse(query);
+        lock.lock();
+        try {
+            int level = query.getPriority().ordinal();
+            ArrayDeque<NoSQLQuery<?>> queries = levels.get(level);
+            if (queries.isEmpty()) {
+                headSince[level] = System.nanoTime();
+            }
+            queries.addLast(query);
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        for (Listener listener : listeners) {
+            listener.queryQueued(this);
+        }
+        return true;
+    }
+
+    @Override
+    public void put(NoSQLQuery<?> query) {
+        offer(query);
+    }
+
+    @Override
+    public boolean offer(NoSQLQuery<?> query, long timeout, TimeUnit unit) {
+        return offer(query);
+    }
+
+    @Override
+    public NoSQLQuery<?> take() throws InterruptedException {
+        while (true) {
+            NoSQLQuery<?> query;
+            lock.lockInterruptibly();
+            try {
+                while (count == 0) {
+                    notEmpty.await();
+                }
+                query = dequeue();
+            } finally {
+                lock.unlock();
+            }
+            if (start(query)) {
+                return query;
+            }
+        }
+    }
+
+    @Override
+    public NoSQLQuery<?> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        while (true) {
+            NoSQLQuery<?> query;
+            lock.lockInterruptibly();
+            try {
+                while (count == 0) {
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    remaining = notEmpty.awaitNanos(remaining);
+                }
+                query = dequeue();
+            } finally {
+                lock.unlock();
+            }
+            if (start(query)) {
+                return query;
+            }
+        }
+    }
+
+    @Override
+    public NoSQLQuery<?> poll() {
+        while (true) {
+            NoSQLQuery<?> query;
+            lock.lock();
+            try {
+                if (count == 0) {
+                    return null;
+                }
+                query = dequeue();
+            } finally {
+                lock.unlock();
+            }
+            if (start(query)) {
+                return query;
+            }
+        }
+    }
+
+    /**
+     * @return how long the longest waiting query at the front of its priority has been there, in milliseconds, or 0 if
+     * nothing is queued. Queries behind it have waited at the front for no longer.
+     */
+    public long getOldestWaitMillis() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            long oldest = 0;
+            for (int level = 0; level < levels.size(); level++) {
+                if (!levels.get(level).isEmpty()) {
+                    oldest = Math.max(oldest, now - headSince[level]);
+                }
+            }
+            return TimeUnit.NANOSECONDS.toMillis(oldest);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public NoSQLQuery<?> peek() {
+        lock.lock();
+        try {
+            return count == 0 ? null : levels.get(nextLevel()).peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return an iterator over a snapshot of the queued queries, highest priority first.
+     */
+    @Override
+    public Iterator<NoSQLQuery<?>> iterator() {
+        lock.lock();
+        try {
+            List<NoSQLQuery<?>> snapshot = new ArrayList<NoSQLQuery<?>>(count);
+            for (ArrayDeque<NoSQLQuery<?>> queries : levels) {
+                snapshot.addAll(queries);
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super NoSQLQuery<?>> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super NoSQLQuery<?>> collection, int maxElements) {
+        int drained = 0;
+        NoSQLQuery<?> query;
+        while (drained < maxElements && (query = poll()) != null) {
+            collection.add(query);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Remove the next query to hand out. Must be called holding the lock, with at least one query queued.
+     */
+    private NoSQLQuery<?> dequeue() {
+        int level = nextLevel();
+        ArrayDeque<NoSQLQuery<?>> queries = levels.get(level);
+        NoSQLQuery<?> query = queries.pollFirst();
+        headSince[level] = System.nanoTime();
+        count--;
+        return query;
+    }
+
+    /**
+     * Pick the priority to hand out a query from. Each priority's head is ranked by its priority less one for every
+     * aging interval it has spent at the front. Ties go to the higher priority.
+     */
+    private int nextLevel() {
+        long now = System.nanoTime();
+        int best = -1;
+        long bestRank = 0;
+        for (int level = 0; level < levels.size(); level++) {
+            if (levels.get(level).isEmpty()) {
+                continue;
+            }
+            long rank = level * agingNanos - (now - headSince[level]);
+            if (best == -1 || rank < bestRank) {
+                best = level;
+                bestRank = rank;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Let a newly queued write replace the pending write to the same entity. Collapsing is serialized so that each
+     * write's observers are handed on exactly once, even when the write replacing it is queued at the same time.
+     */
+    private void collapse(NoSQLQuery<?> query) {
+        if (!collapseWrites) {
+            return;
+        }
+        WriteKey key = WriteKey.of(query);
+        if (key == null) {
+            return;
+        }
+        synchronized (pendingWrites) {
+            NoSQLQuery<?> replaced = pendingWrites.put(key, query);
+            // Observers are called the way their own write asked for, on the dispatcher thread or through the
+            // delivery, so writes that differ in that both run. Later writes can still replace this one.
+            if (replaced == null || replaced.isDirectDelivery() != query.isDirectDelivery()) {
+                return;
+            }
+            // A canceled write is left to be dropped by the dispatcher, so that its observers stay unnotified.
+            if (!replaced.isCanceled() && replaced.supersede()) {
+                removeSuperseded(replaced);
+                for (OperationObserver observer : replaced.getObservers()) {
+                    query.addObserver(observer);
+                }
+                if (replaced.getPriority().compareTo(query.getPriority()) < 0) {
+                    query.setPriority(replaced.getPriority());
+                }
+            }
+        }
+    }
+
+    /**
+     * Take a superseded write out of its priority's queue. A dispatcher may already have dequeued it without starting
+     * it yet, in which case it drops the write itself.
+     */
+    private void removeSuperseded(NoSQLQuery<?> superseded) {
+        lock.lock();
+        try {
+            int level = superseded.getPriority().ordinal();
+            ArrayDeque<NoSQLQuery<?>> queries = levels.get(level);
+            boolean wasHead = queries.peekFirst() == superseded;
+            if (queries.removeFirstOccurrence(superseded)) {
+                count--;
+                if (wasHead) {
+                    headSince[level] = System.nanoTime();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Claim a query for a dispatcher.
+     *
+     * @return false if the query was replaced by a later write and should be dropped.
+     */
+    private boolean start(NoSQLQuery<?> query) {
+        if (!query.start()) {
+            return false;
+        }
+        WriteKey key = WriteKey.of(query);
+        if (key != null) {
+            pendingWrites.remove(key, query);
+        }
+        return true;
+    }
+
+    /**
+     * Notified whenever a query is added to the queue, for dispatching queries without a thread blocked on the queue.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the thread that added the query, after it was added.
+         *
+         * @param queue the query was added to.
+         */
+        public void queryQueued(QueryQueue queue);
+    }
+
+    /**
+     * The entity a write applies to. Only writes of a single entity have one.
+     */
+    private static class WriteKey {
+        private final String bucket;
+        private final String entityId;
+
+        private WriteKey(String bucket, String entityId) {
+            this.bucket = bucket;
+            this.entityId = entityId;
+        }
+
+        static WriteKey of(NoSQLQuery<?> query) {
+            if (query.getOperation() == NoSQLQuery.NoSQLOperation.SAVE) {
+                List<? extends NoSQLEntity<?>> entities = query.getEntities();
+                if (entities == null || entities.size() != 1) {
+                    return null;
+                }
+                NoSQLEntity<?> entity = entities.get(0);
+                if (entity.getBucket() == null || entity.getId() == null) {
+                    return null;
+                }
+                return new WriteKey(entity.getBucket(), entity.getId());
+            }
+            if (query.getOperation() == NoSQLQuery.NoSQLOperation.DELETE && query.getBucketId() != null
+                    && query.getEntityId() != null) {
+                return new WriteKey(query.getBucketId(), query.getEntityId());
+            }
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof WriteKey)) {
+                return false;
+            }
+            WriteKey key = (WriteKey) o;
+            return bucket.equals(key.bucket) && entityId.equals(key.entityId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * bucket.hashCode() + entityId.hashCode();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.colintmiller.simplenosql.threading;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed-size table of locks shared by every thread of a {@link QueryProcessor}, so that memory stays bounded however
+ * many buckets and entities there are. Buckets and entities are hashed onto stripes, and unrelated keys that share a
+ * stripe simply share its lock.
+ * <p>
+ * Each bucket stripe is held in one of four {@link Mode}s. Operations on single entities hold their bucket in an intent
+ * mode plus the lock of the entity's own stripe, so writers to different entities of a bucket don't wait for each
+ * other. Operations on a whole bucket hold it in {@link Mode#READ} or {@link Mode#WRITE}, which exclude the intent
+ * modes that conflict with them.
+ * <p>
+ * A {@link Request} collects every lock an operation needs and takes them all at once, always bucket stripes before
+ * entity stripes and each in stripe order, so two requests can never deadlock. Locks are not reentrant: a thread must
+ * release a request before making another for the same keys.
+ */
+public class StripedLocks {
+
+    public static final int DEFAULT_STRIPES = 128;
+
+    /**
+     * How a bucket is held.
+     */
+    public enum Mode {
+        /**
+         * Reading single entities of the bucket.
+         */
+        INTENT_READ,
+        /**
+         * Writing single entities of the bucket.
+         */
+        INTENT_WRITE,
+        /**
+         * Reading the whole bucket, excluding writers.
+         */
+        READ,
+        /**
+         * Changing the whole bucket, excluding everything else.
+         */
+        WRITE;
+
+        private Mode combine(Mode other) {
+            if (this == other || other == INTENT_READ) {
+                return this;
+            }
+            if (this == INTENT_READ) {
+                return other;
+            }
+            // What's left pairs INTENT_WRITE with READ, or WRITE with anything, which only WRITE covers.
+            return WRITE;
+        }
+    }
+
+    private final BucketLock[] bucketLocks;
+    private final ReentrantReadWriteLock[] entityLocks;
+
+    public StripedLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes the number of bucket locks and of entity locks in the table.
+     */
+    public StripedLocks(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("There must be at least one stripe");
+        }
+        bucketLocks = new BucketLock[stripes];
+        entityLocks = new ReentrantReadWriteLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            bucketLocks[i] = new BucketLock();
+            entityLocks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * @return a new, empty request for locks from this table.
+     */
+    public Request request() {
+        return new Request();
+    }
+
+    private int bucketStripe(String bucket) {
+        return stripe(bucket.hashCode(), bucketLocks.length);
+    }
+
+    private int entityStripe(String bucket, String entityId) {
+        return stripe(31 * bucket.hashCode() + entityId.hashCode(), entityLocks.length);
+    }
+
+    private static int stripe(int hash, int stripes) {
+        // Spread the bits, since string hashes of similar keys often differ only in their low bits.
+        hash ^= (hash >>> 16);
+        hash *= 0x85EBCA6B;
+        hash ^= (hash >>> 13);
+        return (hash & Integer.MAX_VALUE) % stripes;
+    }
+
+    /**
+     * The locks one operation needs. Add every key first, then {@link #acquire()} and finally {@link #release()} them.
+     */
+    public class Request {
+        private final TreeMap<Integer, Mode> buckets = new TreeMap<Integer, Mode>();
+        private final TreeMap<Integer, Boolean> entities = new TreeMap<Integer, Boolean>();
+
+        private Request() {}
+
+        /**
+         * Lock a single entity, holding its bucket in the matching intent mode.
+         *
+         * @param bucket of the entity. Nothing is locked if null.
+         * @param entityId of the entity. Only the bucket is locked if null.
+         * @param write true to write the entity, false to read it.
+         * @return this for chaining.
+         */
+        public Request entity(String bucket, String entityId, boolean write) {
+            if (bucket == null) {
+                return this;
+            }
+            bucket(bucket, write ? Mode.INTENT_WRITE : Mode.INTENT_READ);
+            if (entityId != null) {
+                int stripe = entityStripe(bucket, entityId);
+                Boolean previous = entities.get(stripe);
+                entities.put(stripe, write || (previous != null && previous));
+            }
+            return this;
+        }
+
+        /**
+         * Lock a bucket in the given mode.
+         *
+         * @param bucket to lock. Nothing is locked if null.
+         * @param mode to hold the bucket in.
+         * @return this for chaining.
+         */
+        public Request bucket(String bucket, Mode mode) {
+            if (bucket == null) {
+                return this;
+            }
+            int stripe = bucketStripe(bucket);
+            Mode previous = buckets.get(stripe);
+            buckets.put(stripe, previous == null ? mode : previous.combine(mode));
+            return this;
+        }
+
+        /**
+         * Block until every requested lock is held.
+         */
+        public void acquire() {
+            for (Map.Entry<Integer, Mode> bucket : buckets.entrySet()) {
+                bucketLocks[bucket.getKey()].lock(bucket.getValue());
+            }
+            for (Map.Entry<Integer, Boolean> entity : entities.entrySet()) {
+                ReentrantReadWriteLock lock = entityLocks[entity.getKey()];
+                if (entity.getValue()) {
+                    lock.writeLock().lock();
+                } else {
+                    lock.readLock().lock();
+                }
+            }
+        }
+
+        /**
+         * Release every lock taken by {@link #acquire()}.
+         */
+        public void release() {
+            for (Map.Entry<Integer, Boolean> entity : entities.descendingMap().entrySet()) {
+                ReentrantReadWriteLock lock = entityLocks[entity.getKey()];
+                if (entity.getValue()) {
+                    lock.writeLock().unlock();
+                } else {
+                    lock.readLock().unlock();
+                }
+            }
+            for (Map.Entry<Integer, Mode> bucket : buckets.descendingMap().entrySet()) {
+                bucketLocks[bucket.getKey()].unlock(bucket.getValue());
+            }
+        }
+    }
+
+    /**
+     * A lock on a bucket stripe with the four {@link Mode}s. Once a thread is waiting for {@link Mode#WRITE}, new
+     * holders of other modes wait behind it, so index and compression changes can't be starved by steady traffic.
+     */
+    private static class BucketLock {
+        private final int[] holders = new int[Mode.values().length];
+        private int waitingWriters;
+
+        synchronized void lock(Mode mode) {
+            boolean interrupted = false;
+            if (mode == Mode.WRITE) {
+                waitingWriters++;
+            }
+            try {
+                while (!canLock(mode)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (mode == Mode.WRITE) {
+                    waitingWriters--;
+                }
+            }
+            holders[mode.ordinal()]++;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized void unlock(Mode mode) {
+            holders[mode.ordinal()]--;
+            notifyAll();
+        }
+
+        private boolean canLock(Mode mode) {
+            int intentReaders = holders[Mode.INTENT_READ.ordinal()];
+            int intentWriters = holders[Mode.INTENT_WRITE.ordinal()];
+            int readers = holders[Mode.READ.ordinal()];
+            int writers = holders[Mode.WRITE.ordinal()];
+            switch (mode) {
+                case INTENT_READ:
+                    return writers == 0 && waitingWriters == 0;
+                case INTENT_WRITE:
+                    return writers == 0 && readers == 0 && waitingWriters == 0;
+                case READ:
+                    return writers == 0 && intentWriters == 0 && waitingWriters == 0;
+                case WRITE:
+                default:
+                    return writers == 0 && readers == 0 && intentWriters == 0 && intentReaders == 0;
+            }
+        }
+    }
+}
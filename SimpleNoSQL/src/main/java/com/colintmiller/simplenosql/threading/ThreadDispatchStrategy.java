@@ -0,0 +1,65 @@
+package com.colintmiller.simplenosql.threading;
+
+/**
+ * The default {@link DispatchStrategy}: a fixed number of dedicated {@link DataDispatcher} threads, each blocking on
+ * the queue until there's a query to process. The threads aren't started until the first query is queued, so creating
+ * a NoSQL instance stays cheap.
+ */
+public class ThreadDispatchStrategy implements DispatchStrategy, QueryQueue.Listener {
+
+    private final DataDispatcher[] dispatchers;
+    private QueryQueue queue;
+    private QueryProcessor processor;
+
+    /**
+     * @param numberOfThreads to dispatch queries on.
+     */
+    public ThreadDispatchStrategy(int numberOfThreads) {
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("There must be at least one dispatcher thread");
+        }
+        dispatchers = new DataDispatcher[numberOfThreads];
+    }
+
+    @Override
+    public synchronized void start(QueryQueue queue, QueryProcessor processor) {
+        stop(); // in case there's already threads started.
+        this.queue = queue;
+        this.processor = processor;
+        queue.addListener(this);
+        if (!queue.isEmpty()) {
+            startThreads();
+        }
+    }
+
+    @Override
+    public synchronized void queryQueued(QueryQueue queue) {
+        if (queue == this.queue && dispatchers[0] == null) {
+            startThreads();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (queue != null) {
+            queue.removeListener(this);
+            queue = null;
+            processor = null;
+        }
+        for (int i = 0; i < dispatchers.length; i++) {
+            if (dispatchers[i] != null) {
+                dispatchers[i].quit();
+                dispatchers[i] = null;
+            }
+        }
+    }
+
+    private void startThreads() {
+        queue.removeListener(this);
+        for (int i = 0; i < dispatchers.length; i++) {
+            DataDispatcher dispatcher = new DataDispatcher(queue, processor);
+            dispatchers[i] = dispatcher;
+            dispatcher.start();
+        }
+    }
+}
@@ -13,6 +13,9 @@ import java.util.concurrent.TimeUnit;
  * A special type of RetrievalCallback that can perform synchronous retrieval of data. Use it like you would any
  * RetrievalCallback, then call {@link SynchronousRetrieval#retrievedResults(java.util.List)} to get your results. Note
  * that this method is a blocking call and should not be done on the main thread.
+ * <p>
+ * Results reach this callback through the QueryDelivery. Background code can skip that round trip by blocking on
+ * {@link com.colintmiller.simplenosql.QueryBuilder#retrieveAsync()} instead.
  */
 public class SynchronousRetrieval<T> implements RetrievalCallback<T> {
     public static final String TAG = SynchronousRetrieval.class.getName();
@@ -0,0 +1,130 @@
+package com.colintmiller.simplenosql;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the binary serialization codec.
+ */
+public class BinarySerializationTest {
+    private final BinarySerialization serialization = new BinarySerialization();
+
+    @Test
+    public void testRoundTrip() {
+        Document document = document(1);
+        document.children = new ArrayList<Document>();
+        for (int i = 0; i < 20; i++) {
+            document.children.add(document(i + 2));
+        }
+
+        Document result = serialization.deserialize(serialization.serialize(document), Document.class);
+
+        assertDocumentEquals(document, result);
+        assertEquals(20, result.children.size());
+        for (int i = 0; i < 20; i++) {
+            assertDocumentEquals(document.children.get(i), result.children.get(i));
+        }
+    }
+
+    @Test
+    public void testSmallerThanJson() {
+        Document document = document(1);
+        document.children = new ArrayList<Document>();
+        for (int i = 0; i < 20; i++) {
+            document.children.add(document(i + 2));
+        }
+
+        int binary = serialization.serialize(document).length;
+        int json = new Gson().toJson(document).length();
+
+        assertTrue("Binary form (" + binary + " bytes) should be smaller than JSON (" + json + " bytes)",
+                binary < json);
+    }
+
+    @Test
+    public void testChangedFields() {
+        // Data saved with one version of a class can be read by another that has fewer fields.
+        byte[] data = serialization.serialize(document(7));
+
+        Summary summary = serialization.deserialize(data, Summary.class);
+
+        assertEquals("document7", summary.name);
+        assertEquals(7, summary.count);
+    }
+
+    @Test
+    public void testNulls() {
+        Document document = new Document();
+
+        Document result = serialization.deserialize(serialization.serialize(document), Document.class);
+
+        assertNull(result.name);
+        assertNull(result.children);
+        assertNull(serialization.deserialize(serialization.serialize(null), Document.class));
+    }
+
+    private static Document document(int i) {
+        Document document = new Document();
+        document.name = "document" + i;
+        document.count = i;
+        document.total = i * 1000000000000L;
+        document.ratio = i / 3.0;
+        document.enabled = i % 2 == 0;
+        document.kind = Kind.values()[i % Kind.values().length];
+        document.tags = Arrays.asList("tag" + i, "shared");
+        document.scores = new HashMap<String, Integer>();
+        document.scores.put("first", i);
+        document.scores.put("second", -i * 1000);
+        document.counts = new int[] {i, -i, 300};
+        document.payload = new byte[] {1, 2, (byte) i};
+        return document;
+    }
+
+    private static void assertDocumentEquals(Document expected, Document actual) {
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.count, actual.count);
+        assertEquals(expected.total, actual.total);
+        assertEquals(expected.ratio, actual.ratio, 0);
+        assertEquals(expected.enabled, actual.enabled);
+        assertEquals(expected.kind, actual.kind);
+        assertEquals(expected.tags, actual.tags);
+        assertEquals(expected.scores, actual.scores);
+        assertArrayEquals(expected.counts, actual.counts);
+        assertArrayEquals(expected.payload, actual.payload);
+    }
+
+    private enum Kind {
+        SMALL, LARGE
+    }
+
+    private static class Document {
+        private String name;
+        private int count;
+        private long total;
+        private double ratio;
+        private boolean enabled;
+        private Kind kind;
+        private List<String> tags;
+        private Map<String, Integer> scores;
+        private int[] counts;
+        private byte[] payload;
+        private List<Document> children;
+    }
+
+    private static class Summary {
+        private String name;
+        private int count;
+    }
+}
@@ -0,0 +1,133 @@
+package com.colintmiller.simplenosql;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for the serializers generated for {@link NoSQLDocument} classes. Requires the SimpleNoSQL-compiler annotation
+ * processor on the test classpath.
+ */
+public class GeneratedSerializationTest {
+
+    @Test
+    public void testFindsGeneratedSerialization() {
+        assertSame(GeneratedSerializationTest_Document_NoSQLSerialization.INSTANCE.getClass(),
+                GeneratedSerialization.find(Document.class).getClass());
+        assertNull(GeneratedSerialization.find(String.class));
+    }
+
+    @Test
+    public void testWritesSameJsonAsGson() {
+        Document document = document();
+
+        byte[] data = GeneratedSerialization.find(Document.class).serialize(document);
+
+        assertEquals(new Gson().toJson(document), new String(data));
+    }
+
+    @Test
+    public void testReadsGsonJson() {
+        Document document = document();
+        byte[] data = new Gson().toJson(document).getBytes();
+
+        Document result = GeneratedSerialization.find(Document.class).deserialize(data, Document.class);
+
+        assertEquals(document.name, result.name);
+        assertEquals(document.count, result.count);
+        assertEquals(document.ratio, result.ratio, 0);
+        assertEquals(document.getHidden(), result.getHidden());
+        assertEquals(document.kind, result.kind);
+        assertEquals(document.tags, result.tags);
+        assertEquals(document.scores, result.scores);
+        assertArrayEquals(document.counts, result.counts);
+        assertEquals(document.created, result.created);
+        assertNotNull(result.child);
+        assertEquals(document.child.label, result.child.label);
+        assertEquals(document.children.get(1).label, result.children.get(1).label);
+    }
+
+    @Test
+    public void testSkipsUnknownFields() {
+        byte[] data = "{\"label\":\"known\",\"unknown\":{\"nested\":[1,2]}}".getBytes();
+
+        Child child = GeneratedSerialization.find(Child.class).deserialize(data, Child.class);
+
+        assertEquals("known", child.label);
+    }
+
+    private static Document document() {
+        Document document = new Document();
+        document.name = "document";
+        document.count = 42;
+        document.ratio = 0.1f;
+        document.setHidden(true);
+        document.kind = Kind.LARGE;
+        document.tags = Arrays.asList("a", "b", null);
+        document.scores = new HashMap<String, Integer>();
+        document.scores.put("first", 1);
+        document.counts = new int[] {1, 2, 3};
+        document.created = new Date(0);
+        document.child = new Child();
+        document.child.label = "<child>";
+        document.children = new ArrayList<Child>();
+        for (int i = 0; i < 2; i++) {
+            Child child = new Child();
+            child.label = "child" + i;
+            document.children.add(child);
+        }
+        return document;
+    }
+
+    enum Kind {
+        SMALL, LARGE
+    }
+
+    @NoSQLDocument
+    static class Document {
+        @SerializedName("title")
+        String name;
+        int count;
+        float ratio;
+        private boolean hidden;
+        Kind kind;
+        List<String> tags;
+        Map<String, Integer> scores;
+        int[] counts;
+        Date created;
+        Child child;
+        List<Child> children;
+        transient String ignored;
+
+        public boolean isHidden() {
+            return hidden;
+        }
+
+        public boolean getHidden() {
+            return hidden;
+        }
+
+        public void setHidden(boolean hidden) {
+            this.hidden = hidden;
+        }
+    }
+
+    @NoSQLDocument
+    static class Child {
+        String label;
+    }
+}
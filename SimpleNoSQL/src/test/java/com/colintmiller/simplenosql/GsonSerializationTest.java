@@ -0,0 +1,63 @@
+package com.colintmiller.simplenosql;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for reading and writing JSON directly between stored bytes and Gson.
+ */
+public class GsonSerializationTest {
+
+    @Test
+    public void testMatchesStringEncoding() throws Exception {
+        Document document = new Document("caf\u00E9 \u4E2D\u6587 \uD83D\uDE00", 3);
+
+        byte[] data = GsonSerialization.getDefault().serialize(document);
+
+        assertArrayEquals(new Gson().toJson(document).getBytes("UTF-8"), data);
+    }
+
+    @Test
+    public void testRoundTripLargeDocument() {
+        // Enough multi-byte and supplementary characters to straddle Gson's read buffer many times over.
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            values.add(i + "\u00E9\u4E2D\uD83D\uDE00");
+        }
+        Document document = new Document("large", values.size());
+        document.values = values;
+
+        GsonSerialization serialization = GsonSerialization.getDefault();
+        Document result = serialization.deserialize(serialization.serialize(document), Document.class);
+
+        assertEquals(document.name, result.name);
+        assertEquals(document.values, result.values);
+    }
+
+    @Test
+    public void testNullAndEmpty() {
+        GsonSerialization serialization = GsonSerialization.getDefault();
+
+        assertArrayEquals("null".getBytes(), serialization.serialize(null));
+        assertNull(serialization.deserialize(new byte[0], Document.class));
+    }
+
+    private static class Document {
+        private String name;
+        private int count;
+        private List<String> values;
+
+        Document(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+    }
+}
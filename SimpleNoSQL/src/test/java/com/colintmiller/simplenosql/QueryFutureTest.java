@@ -0,0 +1,120 @@
+package com.colintmiller.simplenosql;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for completing, failing and canceling query futures.
+ */
+public class QueryFutureTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private NoSQLQuery<String> query;
+    private TestFuture future;
+
+    @Before
+    public void setUp() {
+        query = new NoSQLQuery<String>(String.class);
+        future = new TestFuture(query);
+    }
+
+    @Test
+    public void testComplete() throws Exception {
+        assertFalse(future.isDone());
+        assertTrue(future.complete("result"));
+        assertFalse(future.complete("other"));
+
+        assertTrue(future.isDone());
+        assertEquals("result", future.get());
+        assertEquals("result", future.get(1, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFail() throws InterruptedException {
+        IllegalStateException failure = new IllegalStateException();
+        assertTrue(future.fail(failure));
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+            return;
+        }
+        throw new AssertionError("Expected an ExecutionException");
+    }
+
+    @Test(expected = CancellationException.class)
+    public void testCancel() throws Exception {
+        assertTrue(future.cancel(false));
+        assertTrue(query.isCanceled());
+        assertTrue(future.isCancelled());
+        assertFalse(future.complete("late"));
+        future.get();
+    }
+
+    @Test
+    public void testCancelAfterCompletion() {
+        future.complete("result");
+        assertFalse(future.cancel(false));
+        assertFalse(query.isCanceled());
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void testTimeout() throws Exception {
+        future.get(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testGetWaitsForCompletion() throws Exception {
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    // Complete right away.
+                }
+                future.complete("result");
+            }
+        }.start();
+        assertEquals("result", future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testListeners() {
+        final int[] runs = new int[1];
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                runs[0]++;
+            }
+        };
+        future.addListener(listener, DIRECT);
+        assertEquals(0, runs[0]);
+        future.complete("result");
+        assertEquals(1, runs[0]);
+        future.addListener(listener, DIRECT);
+        assertEquals(2, runs[0]);
+    }
+
+    private static class TestFuture extends QueryFuture<String> {
+        TestFuture(CancellableOperation operation) {
+            super(operation);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.colintmiller.simplenosql.db;
+
+import com.colintmiller.simplenosql.FieldCondition;
+import com.colintmiller.simplenosql.GsonSerialization;
+import com.colintmiller.simplenosql.NoSQLEntity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for caching entities in front of a DataStore, using the in-memory DataStore as the backend.
+ */
+public class CachingDataStoreTest {
+    private static final List<FieldCondition> NO_CONDITIONS = Collections.emptyList();
+
+    private MemoryDataStore backend;
+
+    @Before
+    public void setUp() {
+        GsonSerialization serialization = new GsonSerialization();
+        backend = new MemoryDataStore(false, serialization, serialization);
+    }
+
+    @Test
+    public void testCacheHits() {
+        EntityCache cache = new EntityCache(10);
+        CachingDataStore store = new CachingDataStore(backend, cache);
+        store.saveEntity(new NoSQLEntity<String>("test", "first", "value"));
+
+        List<NoSQLEntity<String>> first = store.getEntities("test", "first", String.class, null);
+        List<NoSQLEntity<String>> second = store.getEntities("test", "first", String.class, null);
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertSame(first.get(0).getData(), second.get(0).getData());
+    }
+
+    @Test
+    public void testInvalidation() {
+        EntityCache cache = new EntityCache(10);
+        CachingDataStore store = new CachingDataStore(backend, cache);
+        store.saveEntity(new NoSQLEntity<String>("test", "first", "value"));
+        store.getEntities("test", "first", String.class, null);
+
+        store.saveEntity(new NoSQLEntity<String>("test", "first", "changed"));
+        assertEquals("changed", store.getEntities("test", "first", String.class, null).get(0).getData());
+
+        store.deleteEntity("test", "first");
+        assertEquals(0, store.getEntities("test", "first", String.class, null).size());
+
+        store.saveEntity(new NoSQLEntity<String>("test", "second", "value"));
+        store.getEntities("test", "second", String.class, null);
+        store.deleteBucket("test");
+        assertEquals(0, cache.size());
+        assertEquals(0, store.getEntities("test", "second", String.class, null).size());
+    }
+
+    @Test
+    public void testInvalidationOfEveryClassAndEvictedEntries() {
+        EntityCache cache = new EntityCache(2);
+        CachingDataStore store = new CachingDataStore(backend, cache);
+        store.saveEntity(new NoSQLEntity<String>("test", "first", "value"));
+        store.saveEntity(new NoSQLEntity<String>("test", "second", "value"));
+        store.getEntities("test", "first", String.class, null);
+        store.getEntities("test", "first", Object.class, null);
+        assertEquals(2, cache.size());
+
+        store.saveEntity(new NoSQLEntity<String>("test", "first", "changed"));
+        assertEquals(0, cache.size());
+
+        store.getEntities("test", "first", String.class, null);
+        store.getEntities("test", "second", String.class, null);
+        store.getEntities("other", "first", String.class, null);
+        store.saveEntity(new NoSQLEntity<String>("other", "first", "value"));
+        store.getEntities("other", "first", String.class, null);
+        assertEquals(2, cache.size());
+        // The first entity was evicted, so deleting it leaves the others cached.
+        store.deleteEntity("test", "first");
+        assertEquals(2, cache.size());
+        store.deleteBucket("test");
+        assertEquals(1, cache.size());
+        assertEquals("value", store.getEntities("other", "first", String.class, null).get(0).getData());
+    }
+
+    @Test
+    public void testGettingSeveralEntities() {
+        EntityCache cache = new EntityCache(10);
+        CachingDataStore store = new CachingDataStore(backend, cache);
+        for (int i = 0; i < 3; i++) {
+            store.saveEntity(new NoSQLEntity<String>("test", "entity" + i, "value" + i));
+        }
+        store.getEntities("test", "entity1", String.class, null);
+
+        List<String> ids = Arrays.asList("entity2", "entity1", "missing", "entity0");
+        List<NoSQLEntity<String>> results = store.getEntities("test", ids, String.class, null, NO_CONDITIONS);
+        assertEquals(3, results.size());
+        assertEquals("entity2", results.get(0).getId());
+        assertEquals("entity1", results.get(1).getId());
+        assertEquals("entity0", results.get(2).getId());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.size());
+
+        store.getEntities("test", ids, String.class, null, NO_CONDITIONS);
+        assertEquals(4, cache.getHitCount());
+    }
+
+    @Test
+    public void testInvalidationWaitsForCommit() throws InterruptedException {
+        final EntityCache cache = new EntityCache(10);
+        CachingDataStore store = new CachingDataStore(backend, cache);
+        store.saveEntity(new NoSQLEntity<String>("test", "first", "old"));
+
+        // A group commit saves through its own DataStore inside the transaction of another one, as the processor does.
+        store.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                new CachingDataStore(backend, cache).saveEntity(new NoSQLEntity<String>("test", "first", "new"));
+
+                // A reader on another connection still sees the last committed data and caches it.
+                Thread reader = new Thread() {
+                    @Override
+                    public void run() {
+                        long generation = cache.getGeneration();
+                        cache.put(new NoSQLEntity<String>("test", "first", "old"), String.class, generation);
+                    }
+                };
+                reader.start();
+                try {
+                    reader.join();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                assertEquals(1, cache.size());
+            }
+        });
+
+        assertEquals(0, cache.size());
+        assertEquals("new", store.getEntities("test", "first", String.class, null).get(0).getData());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        EntityCache cache = new EntityCache(2);
+        CachingDataStore store = new CachingDataStore(backend, cache);
+        for (int i = 0; i < 3; i++) {
+            store.saveEntity(new NoSQLEntity<String>("test", "entity" + i, "value" + i));
+        }
+
+        store.getEntities("test", "entity0", String.class, null);
+        store.getEntities("test", "entity1", String.class, null);
+        store.getEntities("test", "entity0", String.class, null);
+        store.getEntities("test", "entity2", String.class, null);
+        assertEquals(2, cache.size());
+
+        long misses = cache.getMissCount();
+        store.getEntities("test", "entity0", String.class, null);
+        assertEquals("entity0 was used more recently than entity1", misses, cache.getMissCount());
+        store.getEntities("test", "entity1", String.class, null);
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+}
@@ -0,0 +1,106 @@
+package com.colintmiller.simplenosql.db;
+
+import com.colintmiller.simplenosql.GsonSerialization;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for compressing stored data and training compression dictionaries.
+ */
+public class DeflateCodecTest {
+    private final GsonSerialization serialization = new GsonSerialization();
+
+    @Test
+    public void testRoundTripWithoutDictionary() {
+        byte[] data = document(1);
+        byte[] compressed = DeflateCodec.compress(data, 0, null);
+
+        assertTrue(DeflateCodec.isCompressed(compressed));
+        assertTrue(compressed.length < data.length);
+        assertEquals(0, DeflateCodec.getDictionaryId(compressed));
+        assertArrayEquals(data, DeflateCodec.decompress(compressed, null));
+    }
+
+    @Test
+    public void testRoundTripWithDictionary() {
+        byte[] dictionary = DeflateCodec.train(samples(20), DeflateCodec.MAX_DICTIONARY_SIZE);
+        byte[] data = document(100);
+        byte[] withDictionary = DeflateCodec.compress(data, 300, dictionary);
+        byte[] withoutDictionary = DeflateCodec.compress(data, 0, null);
+
+        assertEquals(300, DeflateCodec.getDictionaryId(withDictionary));
+        assertTrue(withDictionary.length < withoutDictionary.length);
+        assertArrayEquals(data, DeflateCodec.decompress(withDictionary, dictionary));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissingDictionary() {
+        byte[] dictionary = DeflateCodec.train(samples(5), DeflateCodec.MAX_DICTIONARY_SIZE);
+        DeflateCodec.decompress(DeflateCodec.compress(document(6), 1, dictionary), null);
+    }
+
+    @Test
+    public void testUncompressedDataPassesThrough() {
+        byte[] small = "1".getBytes();
+        assertSame(small, DeflateCodec.compress(small, 0, null));
+        assertFalse(DeflateCodec.isCompressed(small));
+        assertSame(small, DeflateCodec.decompress(small, null));
+        assertEquals(null, DeflateCodec.compress(null, 0, null));
+    }
+
+    @Test
+    public void testDataStartingWithHeaderStaysCompressed() {
+        byte[] data = {(byte) DeflateCodec.HEADER};
+        byte[] compressed = DeflateCodec.compress(data, 0, null);
+
+        assertTrue(compressed.length > data.length);
+        assertArrayEquals(data, DeflateCodec.decompress(compressed, null));
+    }
+
+    @Test
+    public void testTrainingKeepsCommonFragments() {
+        byte[] dictionary = DeflateCodec.train(samples(10), 64);
+        String text = new String(dictionary);
+
+        assertTrue(dictionary.length > 0);
+        assertTrue(dictionary.length <= 64);
+        assertTrue(text.contains("\"description\":"));
+        assertFalse(text.contains("document-3"));
+    }
+
+    @Test
+    public void testTrainingWithoutCommonFragments() {
+        List<byte[]> samples = Arrays.asList("{\"a\":\"first\"}".getBytes(), "[1234,5678]".getBytes());
+        assertEquals(0, DeflateCodec.train(samples, DeflateCodec.MAX_DICTIONARY_SIZE).length);
+        assertEquals(0, DeflateCodec.train(new ArrayList<byte[]>(), DeflateCodec.MAX_DICTIONARY_SIZE).length);
+    }
+
+    private List<byte[]> samples(int count) {
+        List<byte[]> samples = new ArrayList<byte[]>();
+        for (int i = 0; i < count; i++) {
+            samples.add(document(i));
+        }
+        return samples;
+    }
+
+    private byte[] document(int i) {
+        Map<String, Object> document = new HashMap<String, Object>();
+        document.put("name", "document-" + i);
+        document.put("description", "A fairly long description that every document in the bucket shares");
+        document.put("status", i % 2 == 0 ? "published" : "draft");
+        document.put("views", i * 31);
+        return serialization.serialize(document);
+    }
+}
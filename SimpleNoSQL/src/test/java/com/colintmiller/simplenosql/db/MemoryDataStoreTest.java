@@ -0,0 +1,211 @@
+package com.colintmiller.simplenosql.db;
+
+import com.colintmiller.simplenosql.FieldCondition;
+import com.colintmiller.simplenosql.GsonSerialization;
+import com.colintmiller.simplenosql.NoSQLEntity;
+import com.colintmiller.simplenosql.Pagination;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the in-memory DataStore. These run on the JVM since the memory store has no Android dependencies.
+ */
+public class MemoryDataStoreTest {
+    private static final List<FieldCondition> NO_CONDITIONS = Collections.emptyList();
+
+    @Test
+    public void testSaveAndRetrieve() {
+        GsonSerialization serialization = new GsonSerialization();
+        MemoryDataStore store = new MemoryDataStore(false, serialization, serialization);
+        Bean bean = new Bean("first", 1);
+        store.saveEntity(new NoSQLEntity<Bean>("test", "first", bean));
+        bean.name = "changed";
+
+        List<NoSQLEntity<Bean>> results = store.getEntities("test", "first", Bean.class, null);
+        assertEquals(1, results.size());
+        assertEquals("Stored copy should not see changes made after saving", "first", results.get(0).getData().name);
+        assertNotSame(bean, results.get(0).getData());
+    }
+
+    @Test
+    public void testStoringObjects() {
+        MemoryDataStore store = new MemoryDataStore(true, null, null);
+        Bean bean = new Bean("first", 1);
+        store.saveEntity(new NoSQLEntity<Bean>("test", "first", bean));
+
+        List<NoSQLEntity<Bean>> results = store.getEntities("test", "first", Bean.class, null);
+        assertEquals(1, results.size());
+        assertSame(bean, results.get(0).getData());
+    }
+
+    @Test
+    public void testDeleting() {
+        GsonSerialization serialization = new GsonSerialization();
+        MemoryDataStore store = new MemoryDataStore(false, serialization, serialization);
+        store.saveEntities(entities(3));
+
+        assertTrue(store.deleteEntity("test", "entity1"));
+        assertFalse(store.deleteEntity("test", "entity1"));
+        assertEquals(2, store.getEntities("test", Bean.class, null).size());
+
+        assertTrue(store.deleteBucket("test"));
+        assertEquals(0, store.getEntities("test", Bean.class, null).size());
+    }
+
+    @Test
+    public void testDeletingSeveralEntities() {
+        GsonSerialization serialization = new GsonSerialization();
+        MemoryDataStore store = new MemoryDataStore(false, serialization, serialization);
+        store.saveEntities(entities(10));
+
+        assertEquals(2, store.deleteEntities("test", Arrays.asList("entity1", "entity2", "missing", "entity2")));
+        List<FieldCondition> conditions = Collections.singletonList(FieldCondition.greaterThanOrEqualTo("value", 6));
+        assertEquals(4, store.deleteEntitiesWhere("test", conditions));
+        assertEquals(0, store.deleteEntitiesWhere("test", conditions));
+
+        List<NoSQLEntity<Bean>> remaining = store.getEntities("test", Bean.class, null);
+        assertEquals(4, remaining.size());
+        assertEquals("entity0", remaining.get(0).getId());
+        assertEquals("entity5", remaining.get(3).getId());
+        assertEquals(4, store.deleteEntitiesWhere("test", NO_CONDITIONS));
+    }
+
+    @Test
+    public void testFailedTransactionIsUndone() {
+        GsonSerialization serialization = new GsonSerialization();
+        final MemoryDataStore store = new MemoryDataStore(false, serialization, serialization);
+        store.saveEntities(entities(3));
+        store.saveEntity(new NoSQLEntity<Bean>("other", "kept", new Bean("kept", 0)));
+
+        try {
+            store.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    store.saveEntity(new NoSQLEntity<Bean>("test", "entity0", new Bean("changed", 10)));
+                    store.saveEntity(new NoSQLEntity<Bean>("test", "added", new Bean("added", 11)));
+                    assertEquals(1, store.deleteEntities("test", Arrays.asList("entity1")));
+                    // Views with other serialization take part in the same transaction.
+                    assertTrue(store.withSerialization(null, null).deleteBucket("other"));
+                    throw new IllegalStateException("Failed part way through");
+                }
+            });
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        List<NoSQLEntity<Bean>> results = store.getEntities("test", Bean.class, null);
+        assertEquals(3, results.size());
+        assertEquals("entity0", results.get(0).getData().name);
+        assertEquals("entity1", results.get(1).getId());
+        assertEquals(1, store.getEntities("other", Bean.class, null).size());
+        // A retried delete finds what the failed transaction had deleted.
+        assertEquals(1, store.deleteEntities("test", Arrays.asList("entity1")));
+    }
+
+    @Test
+    public void testConditionsAndPaging() {
+        GsonSerialization serialization = new GsonSerialization();
+        MemoryDataStore objects = new MemoryDataStore(true, serialization, serialization);
+        MemoryDataStore serialized = new MemoryDataStore(false, serialization, serialization);
+        for (MemoryDataStore store : new MemoryDataStore[] {objects, serialized}) {
+            store.saveEntities(entities(10));
+
+            List<FieldCondition> conditions = Collections.singletonList(FieldCondition.greaterThanOrEqualTo("value", 4));
+            List<NoSQLEntity<Bean>> page = store.getEntities("test", Bean.class, null, conditions,
+                    new Pagination(3, 1, null));
+            assertEquals(3, page.size());
+            assertEquals("entity5", page.get(0).getId());
+            assertEquals("entity7", page.get(2).getId());
+
+            page = store.getEntities("test", Bean.class, null, NO_CONDITIONS, new Pagination(2, 0, "entity7"));
+            assertEquals(2, page.size());
+            assertEquals("entity8", page.get(0).getId());
+        }
+    }
+
+    @Test
+    public void testConditionsOnMixedTypes() {
+        GsonSerialization serialization = new GsonSerialization();
+        MemoryDataStore store = new MemoryDataStore(false, serialization, serialization);
+        Object[] ages = {5, "5", "abc", true, 1};
+        String[] ids = {"number5", "string5", "text", "yes", "one"};
+        for (int i = 0; i < ages.length; i++) {
+            store.saveEntity(new NoSQLEntity<Aged>("mixed", ids[i], new Aged(ages[i])));
+        }
+
+        assertEquals(Arrays.asList("number5"), ids(store, FieldCondition.greaterThan("age", 3)));
+        assertEquals(Arrays.asList("yes"), ids(store, FieldCondition.equalTo("age", true)));
+        assertEquals(Arrays.asList("one"), ids(store, FieldCondition.equalTo("age", 1)));
+        assertEquals(Arrays.asList("one", "string5"), ids(store, FieldCondition.in("age", "5", 1)));
+        assertEquals(Arrays.asList("string5", "text"), ids(store, FieldCondition.greaterThanOrEqualTo("age", "0")));
+        assertEquals(0, ids(store, FieldCondition.between("age", 0, "z")).size());
+    }
+
+    @Test
+    public void testNullConditionMatchesOnlyMissingFields() {
+        GsonSerialization serialization = new GsonSerialization();
+        MemoryDataStore store = new MemoryDataStore(false, serialization, serialization);
+        Object[] ages = {Collections.singletonMap("years", 5), Arrays.asList(5), 5};
+        String[] ids = {"object", "array", "number"};
+        for (int i = 0; i < ages.length; i++) {
+            store.saveEntity(new NoSQLEntity<Aged>("mixed", ids[i], new Aged(ages[i])));
+        }
+        store.saveEntity(new NoSQLEntity<Aged>("mixed", "missing", new Aged(null)));
+
+        assertEquals(Arrays.asList("missing"), ids(store, FieldCondition.equalTo("age", null)));
+        assertEquals(Arrays.asList("number"), ids(store, FieldCondition.equalTo("age", 5)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsQuotedFields() {
+        FieldCondition.equalTo("a\".b", 1);
+    }
+
+    private static List<String> ids(MemoryDataStore store, FieldCondition condition) {
+        List<String> ids = new ArrayList<String>();
+        for (NoSQLEntity<Aged> entity : store.getEntities("mixed", Aged.class, null,
+                Collections.singletonList(condition))) {
+            ids.add(entity.getId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static List<NoSQLEntity<Bean>> entities(int count) {
+        List<NoSQLEntity<Bean>> entities = new ArrayList<NoSQLEntity<Bean>>();
+        for (int i = 0; i < count; i++) {
+            entities.add(new NoSQLEntity<Bean>("test", "entity" + i, new Bean("entity" + i, i)));
+        }
+        return entities;
+    }
+
+    private static class Bean {
+        private String name;
+        private int value;
+
+        Bean(String name, int value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    // Holds a field of any JSON type, for testing conditions on fields whose type differs between entities.
+    private static class Aged {
+        private Object age;
+
+        Aged(Object age) {
+            this.age = age;
+        }
+    }
+}
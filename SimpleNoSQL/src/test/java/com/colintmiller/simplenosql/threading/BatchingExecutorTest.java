@@ -0,0 +1,121 @@
+package com.colintmiller.simplenosql.threading;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for running tasks in bounded batches on a target executor.
+ */
+public class BatchingExecutorTest {
+    private List<Runnable> posted;
+    private Executor target;
+    private List<Integer> ran;
+
+    @Before
+    public void setUp() {
+        posted = new ArrayList<Runnable>();
+        ran = new ArrayList<Integer>();
+        target = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                posted.add(command);
+            }
+        };
+    }
+
+    @Test
+    public void testOnePostPerBatch() {
+        BatchingExecutor executor = new BatchingExecutor(target, 100, 0);
+        for (int i = 0; i < 50; i++) {
+            executor.execute(task(i));
+        }
+
+        assertEquals(1, posted.size());
+        runPosted();
+        assertEquals(50, ran.size());
+        assertEquals(0, posted.size());
+    }
+
+    @Test
+    public void testDrainsAreBounded() {
+        BatchingExecutor executor = new BatchingExecutor(target, 100, 0);
+        for (int i = 0; i < 250; i++) {
+            executor.execute(task(i));
+        }
+
+        runPosted();
+        assertEquals(100, ran.size());
+        assertEquals(1, posted.size());
+        runPosted();
+        assertEquals(200, ran.size());
+        runPosted();
+        assertEquals(250, ran.size());
+        assertEquals(0, posted.size());
+        for (int i = 0; i < ran.size(); i++) {
+            assertEquals(i, (int) ran.get(i));
+        }
+    }
+
+    @Test
+    public void testDrainsAreTimeBounded() {
+        BatchingExecutor executor = new BatchingExecutor(target, 100, 1);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ran.add(ran.size());
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        runPosted();
+        assertEquals(1, ran.size());
+        runPosted();
+        runPosted();
+        assertEquals(3, ran.size());
+    }
+
+    @Test
+    public void testTaskQueuedDuringDrain() {
+        final BatchingExecutor executor = new BatchingExecutor(target, 100, 0);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.add(0);
+                executor.execute(task(1));
+            }
+        });
+
+        runPosted();
+        assertEquals(2, ran.size());
+        assertEquals(0, posted.size());
+    }
+
+    private void runPosted() {
+        List<Runnable> drains = new ArrayList<Runnable>(posted);
+        posted.clear();
+        for (Runnable drain : drains) {
+            drain.run();
+        }
+    }
+
+    private Runnable task(final int i) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(i);
+            }
+        };
+    }
+}
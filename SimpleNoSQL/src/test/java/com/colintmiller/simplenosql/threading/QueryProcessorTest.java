@@ -0,0 +1,249 @@
+package com.colintmiller.simplenosql.threading;
+
+import com.colintmiller.simplenosql.DataSerializer;
+import com.colintmiller.simplenosql.DeletionObserver;
+import com.colintmiller.simplenosql.MissingEntitiesCallback;
+import com.colintmiller.simplenosql.NoSQLEntity;
+import com.colintmiller.simplenosql.OperationObserver;
+import com.colintmiller.simplenosql.QueryBuilder;
+import com.colintmiller.simplenosql.RetrievalCallback;
+import com.colintmiller.simplenosql.db.DataStoreType;
+import com.colintmiller.simplenosql.db.SimpleDataStoreFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for performing queries right away on the calling thread, against an in-memory store.
+ */
+public class QueryProcessorTest {
+    private QueryQueue queue;
+    private QueryProcessor processor;
+    private SimpleDataStoreFactory dataStoreFactory;
+
+    @Before
+    public void setUp() {
+        queue = new QueryQueue();
+        dataStoreFactory = new SimpleDataStoreFactory(DataStoreType.MEMORY);
+        dataStoreFactory.open(null);
+        processor = new QueryProcessor(queue, null, null, dataStoreFactory);
+    }
+
+    @Test
+    public void testSaveRetrieveAndDeleteNow() {
+        using().saveNow(new NoSQLEntity<String>("test", "first", "one"));
+        using().saveNow(new NoSQLEntity<String>("test", "second", "two"));
+
+        List<NoSQLEntity<String>> entities = using().bucketId("test").retrieveNow();
+        assertEquals(2, entities.size());
+        assertEquals("one", using().bucketId("test").entityId("first").retrieveNow().get(0).getData());
+
+        using().bucketId("test").entityId("first").deleteNow();
+        assertEquals(1, using().bucketId("test").retrieveNow().size());
+        using().bucketId("test").deleteNow();
+        assertEquals(0, using().bucketId("test").retrieveNow().size());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testObserversAreNotifiedBeforeReturning() {
+        final boolean[] notified = new boolean[1];
+        using().addObserver(new OperationObserver() {
+            @Override
+            public void hasFinished() {
+                notified[0] = true;
+            }
+        }).saveNow(new NoSQLEntity<String>("test", "first", "one"));
+
+        assertTrue(notified[0]);
+    }
+
+    @Test
+    public void testRetrieveEntityIdsNow() {
+        using().saveNow(new NoSQLEntity<String>("test", "first", "one"));
+        using().saveNow(new NoSQLEntity<String>("test", "second", "two"));
+        using().saveNow(new NoSQLEntity<String>("test", "third", "three"));
+
+        final List<String> missing = new ArrayList<String>();
+        List<NoSQLEntity<String>> entities = using().bucketId("test")
+                .entityIds(Arrays.asList("third", "unknown", "first", "third"))
+                .onMissing(new MissingEntitiesCallback() {
+                    @Override
+                    public void entitiesMissing(List<String> entityIds) {
+                        missing.addAll(entityIds);
+                    }
+                })
+                .retrieveNow();
+
+        assertEquals(2, entities.size());
+        assertEquals("three", entities.get(0).getData());
+        assertEquals("one", entities.get(1).getData());
+        assertEquals(Collections.singletonList("unknown"), missing);
+    }
+
+    @Test
+    public void testDeleteSeveralNow() {
+        for (int i = 0; i < 10; i++) {
+            using().saveNow(new NoSQLEntity<String>("test", "entity" + i, "value" + i));
+        }
+
+        final int[] deleted = new int[1];
+        DeletionObserver observer = new DeletionObserver() {
+            @Override
+            public void entitiesDeleted(int count) {
+                deleted[0] = count;
+            }
+
+            @Override
+            public void hasFinished() {
+            }
+        };
+        using().bucketId("test").entityIds(Arrays.asList("entity0", "entity1", "missing")).addObserver(observer)
+                .deleteNow();
+        assertEquals(2, deleted[0]);
+
+        assertEquals(0, using().bucketId("test").entityIds(Arrays.asList("entity0", "entity1")).deleteNow());
+        assertEquals(8, using().bucketId("test").retrieveNow().size());
+
+        using().bucketId("test").addObserver(observer).deleteNow();
+        assertEquals(8, deleted[0]);
+    }
+
+    @Test
+    public void testRetrievalWithoutBucket() {
+        assertEquals(0, using().retrieveNow().size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuilderWithoutProcessor() {
+        new QueryBuilder<String>(String.class, queue).bucketId("test").retrieveNow();
+    }
+
+    @Test
+    public void testWriteAheadLoggingWaitsForQueries() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                using().addObserver(new OperationObserver() {
+                    @Override
+                    public void hasFinished() {
+                        started.countDown();
+                        try {
+                            finish.await();
+                        } catch (InterruptedException e) {
+                            // Finish right away.
+                        }
+                    }
+                }).saveNow(new NoSQLEntity<String>("test", "first", "one"));
+            }
+        };
+        writer.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Thread change = new Thread() {
+            @Override
+            public void run() {
+                processor.setWriteAheadLogging(true);
+            }
+        };
+        change.start();
+        change.join(100);
+        assertTrue("The mode must not change under a query in progress", change.isAlive());
+
+        finish.countDown();
+        writer.join();
+        change.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(change.isAlive());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWriteAheadLoggingFromWithinQuery() {
+        using().addObserver(new OperationObserver() {
+            @Override
+            public void hasFinished() {
+                processor.setWriteAheadLogging(true);
+            }
+        }).saveNow(new NoSQLEntity<String>("test", "first", "one"));
+    }
+
+    @Test
+    public void testFailedWriteInGroupDoesNotStopTheOthers() {
+        processor.setGroupCommit(10, 0);
+        processor.setDelivery(new QueryDelivery(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }));
+        final List<String> finished = new ArrayList<String>();
+        using().addObserver(finishedObserver(finished, "first")).save(new NoSQLEntity<String>("test", "first", "one"));
+        using().serializer(new DataSerializer() {
+            @Override
+            public <T> byte[] serialize(T data) {
+                throw new IllegalStateException("Can't serialize");
+            }
+        }).addObserver(finishedObserver(finished, "bad")).save(new NoSQLEntity<String>("test", "bad", "two"));
+        using().addObserver(finishedObserver(finished, "third")).save(new NoSQLEntity<String>("test", "third", "three"));
+        final List<NoSQLEntity<String>> retrieved = new ArrayList<NoSQLEntity<String>>();
+        using().bucketId("test").retrieve(new RetrievalCallback<String>() {
+            @Override
+            public void retrievedResults(List<NoSQLEntity<String>> entities) {
+                retrieved.addAll(entities);
+            }
+        });
+
+        try {
+            processor.process(queue.poll());
+            fail("The failure of the bad write should be thrown once the others are done");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        assertEquals(Arrays.asList("first", "third"), finished);
+        assertEquals(2, retrieved.size());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testNoQueriesWhileClosed() {
+        using().saveNow(new NoSQLEntity<String>("test", "first", "one"));
+        processor.closeDataStores();
+        try {
+            using().bucketId("test").retrieveNow();
+            fail("Queries shouldn't reopen a closed data store");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        dataStoreFactory.open(null);
+        assertEquals(1, using().bucketId("test").retrieveNow().size());
+    }
+
+    private static OperationObserver finishedObserver(final List<String> finished, final String name) {
+        return new OperationObserver() {
+            @Override
+            public void hasFinished() {
+                finished.add(name);
+            }
+        };
+    }
+
+    private QueryBuilder<String> using() {
+        return new QueryBuilder<String>(String.class, queue, processor);
+    }
+}
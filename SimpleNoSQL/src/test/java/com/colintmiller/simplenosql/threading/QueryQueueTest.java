@@ -0,0 +1,195 @@
+package com.colintmiller.simplenosql.threading;
+
+import com.colintmiller.simplenosql.NoSQLEntity;
+import com.colintmiller.simplenosql.NoSQLQuery;
+import com.colintmiller.simplenosql.OperationObserver;
+import com.colintmiller.simplenosql.QueryPriority;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for handing queries to dispatchers, including collapsing pending writes to the same entity.
+ */
+public class QueryQueueTest {
+    private QueryQueue queue;
+
+    @Before
+    public void setUp() {
+        queue = new QueryQueue();
+        queue.setCollapseWrites(true);
+    }
+
+    @Test
+    public void testLaterSaveReplacesPendingSave() throws InterruptedException {
+        NoSQLQuery<String> first = save("test", "first", "one");
+        NoSQLQuery<String> second = save("test", "first", "two");
+        first.addObserver(new Observer());
+        queue.add(first);
+        queue.add(second);
+
+        assertEquals("The replaced save no longer counts", 1, queue.size());
+        assertSame(second, queue.take());
+        assertEquals(1, second.getObservers().size());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testDeleteReplacesPendingSave() {
+        NoSQLQuery<String> save = save("test", "first", "one");
+        NoSQLQuery<String> delete = new NoSQLQuery<String>(String.class);
+        delete.setBucketId("test");
+        delete.setEntityId("first");
+        delete.delete();
+        queue.add(save);
+        queue.add(delete);
+
+        assertEquals(1, queue.size());
+        assertSame(delete, queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testStartedWriteIsNotReplaced() {
+        NoSQLQuery<String> first = save("test", "first", "one");
+        queue.add(first);
+        assertSame(first, queue.poll());
+
+        NoSQLQuery<String> second = save("test", "first", "two");
+        queue.add(second);
+        assertSame(second, queue.poll());
+    }
+
+    @Test
+    public void testOtherWritesAreKept() {
+        NoSQLQuery<String> first = save("test", "first", "one");
+        NoSQLQuery<String> other = save("test", "second", "two");
+        NoSQLQuery<String> bucketDelete = new NoSQLQuery<String>(String.class);
+        bucketDelete.setBucketId("test");
+        bucketDelete.delete();
+        queue.add(first);
+        queue.add(other);
+        queue.add(bucketDelete);
+
+        assertSame(first, queue.poll());
+        assertSame(other, queue.poll());
+        assertSame(bucketDelete, queue.poll());
+    }
+
+    @Test
+    public void testMixedDeliveryIsNotCollapsed() {
+        NoSQLQuery<String> delivered = save("test", "first", "one");
+        delivered.addObserver(new Observer());
+        NoSQLQuery<String> direct = save("test", "first", "two");
+        direct.setDirectDelivery(true);
+        NoSQLQuery<String> laterDirect = save("test", "first", "three");
+        laterDirect.setDirectDelivery(true);
+        NoSQLQuery<String> laterDelivered = save("test", "first", "four");
+        queue.add(delivered);
+        queue.add(direct);
+        queue.add(laterDirect);
+        queue.add(laterDelivered);
+
+        // Writes only replace the pending write with the same delivery, so no observer changes threads.
+        assertSame(delivered, queue.poll());
+        assertEquals(1, delivered.getObservers().size());
+        assertSame(laterDirect, queue.poll());
+        assertSame(laterDelivered, queue.poll());
+        assertEquals(0, laterDelivered.getObservers().size());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testCollapsingOff() {
+        queue.setCollapseWrites(false);
+        NoSQLQuery<String> first = save("test", "first", "one");
+        NoSQLQuery<String> second = save("test", "first", "two");
+        queue.add(first);
+        queue.add(second);
+
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+    }
+
+    @Test
+    public void testHigherPriorityFirst() {
+        queue.setAging(60000);
+        NoSQLQuery<String> background = save("test", "first", "one");
+        background.setPriority(QueryPriority.BACKGROUND);
+        NoSQLQuery<String> normal = save("test", "second", "two");
+        NoSQLQuery<String> immediate = save("test", "third", "three");
+        immediate.setPriority(QueryPriority.IMMEDIATE);
+        queue.add(background);
+        queue.add(normal);
+        queue.add(immediate);
+
+        assertSame(immediate, queue.poll());
+        assertSame(normal, queue.poll());
+        assertSame(background, queue.poll());
+    }
+
+    @Test
+    public void testAgingPromotesWaitingQueries() throws InterruptedException {
+        queue.setAging(10);
+        NoSQLQuery<String> background = save("test", "first", "one");
+        background.setPriority(QueryPriority.BACKGROUND);
+        queue.add(background);
+        Thread.sleep(50);
+        NoSQLQuery<String> immediate = save("test", "second", "two");
+        immediate.setPriority(QueryPriority.IMMEDIATE);
+        queue.add(immediate);
+
+        assertSame(background, queue.poll());
+        assertSame(immediate, queue.poll());
+    }
+
+    @Test
+    public void testReplacingWriteKeepsPriority() {
+        NoSQLQuery<String> first = save("test", "first", "one");
+        first.setPriority(QueryPriority.IMMEDIATE);
+        NoSQLQuery<String> second = save("test", "first", "two");
+        second.setPriority(QueryPriority.BACKGROUND);
+        queue.add(first);
+        queue.add(second);
+
+        assertEquals(QueryPriority.IMMEDIATE, second.getPriority());
+    }
+
+    @Test
+    public void testListenersAreNotified() {
+        final int[] queued = new int[1];
+        QueryQueue.Listener listener = new QueryQueue.Listener() {
+            @Override
+            public void queryQueued(QueryQueue queue) {
+                queued[0]++;
+            }
+        };
+        queue.addListener(listener);
+        queue.add(save("test", "first", "one"));
+        queue.add(save("test", "second", "two"));
+        queue.removeListener(listener);
+        queue.add(save("test", "third", "three"));
+
+        assertEquals(2, queued[0]);
+    }
+
+    private static NoSQLQuery<String> save(String bucket, String entityId, String data) {
+        NoSQLQuery<String> query = new NoSQLQuery<String>(String.class);
+        query.save(Collections.singletonList(new NoSQLEntity<String>(bucket, entityId, data)));
+        return query;
+    }
+
+    private static class Observer implements OperationObserver {
+        @Override
+        public void hasFinished() {
+        }
+    }
+}
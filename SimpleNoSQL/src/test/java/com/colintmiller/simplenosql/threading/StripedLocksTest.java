@@ -0,0 +1,185 @@
+package com.colintmiller.simplenosql.threading;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for which operations the striped lock table lets run at the same time.
+ */
+public class StripedLocksTest {
+    private static final long BLOCKED_MILLIS = 100;
+
+    private StripedLocks locks;
+
+    @Before
+    public void setUp() {
+        locks = new StripedLocks();
+    }
+
+    @Test
+    public void testIntentModesShareBucket() throws InterruptedException {
+        Holder writer = hold(locks.request().entity("test", null, true));
+        Holder otherWriter = hold(locks.request().entity("test", null, true));
+        Holder reader = hold(locks.request().entity("test", null, false));
+
+        assertTrue(writer.awaitAcquired());
+        assertTrue(otherWriter.awaitAcquired());
+        assertTrue(reader.awaitAcquired());
+        writer.release();
+        otherWriter.release();
+        reader.release();
+    }
+
+    @Test
+    public void testWriteAheadLoggingModes() throws InterruptedException {
+        // Under write-ahead logging, retrievals only hold INTENT_READ on the bucket, and deletes of a whole bucket or
+        // of the entities matching conditions only hold INTENT_WRITE, so none of them waits for writes of entities.
+        Holder entityWrite = hold(locks.request().entity("test", "first", true));
+        assertTrue(entityWrite.awaitAcquired());
+
+        Holder retrieval = hold(locks.request().bucket("test", StripedLocks.Mode.INTENT_READ));
+        Holder bucketDelete = hold(locks.request().bucket("test", StripedLocks.Mode.INTENT_WRITE));
+        assertTrue(retrieval.awaitAcquired());
+        assertTrue(bucketDelete.awaitAcquired());
+
+        // Index and compression changes still exclude all of them.
+        Holder indexChange = hold(locks.request().bucket("test", StripedLocks.Mode.WRITE));
+        assertFalse(indexChange.awaitAcquired(BLOCKED_MILLIS));
+        entityWrite.release();
+        retrieval.release();
+        bucketDelete.release();
+        assertTrue(indexChange.awaitAcquired());
+        indexChange.release();
+    }
+
+    @Test
+    public void testSameEntityWritesExcludeEachOther() throws InterruptedException {
+        Holder first = hold(locks.request().entity("test", "first", true));
+        assertTrue(first.awaitAcquired());
+
+        Holder second = hold(locks.request().entity("test", "first", true));
+        assertFalse(second.awaitAcquired(BLOCKED_MILLIS));
+        first.release();
+        assertTrue(second.awaitAcquired());
+        second.release();
+    }
+
+    @Test
+    public void testBucketReadExcludesEntityWrites() throws InterruptedException {
+        Holder scan = hold(locks.request().bucket("test", StripedLocks.Mode.READ));
+        assertTrue(scan.awaitAcquired());
+
+        Holder reader = hold(locks.request().entity("test", "first", false));
+        Holder writer = hold(locks.request().entity("test", "first", true));
+        assertTrue(reader.awaitAcquired());
+        assertFalse(writer.awaitAcquired(BLOCKED_MILLIS));
+        reader.release();
+        scan.release();
+        assertTrue(writer.awaitAcquired());
+        writer.release();
+    }
+
+    @Test
+    public void testBucketWriteExcludesEverything() throws InterruptedException {
+        Holder change = hold(locks.request().bucket("test", StripedLocks.Mode.WRITE));
+        assertTrue(change.awaitAcquired());
+
+        Holder reader = hold(locks.request().entity("test", null, false));
+        Holder other = hold(locks.request().bucket("other", StripedLocks.Mode.WRITE));
+        assertFalse(reader.awaitAcquired(BLOCKED_MILLIS));
+        change.release();
+        assertTrue(reader.awaitAcquired());
+        assertTrue(other.awaitAcquired());
+        reader.release();
+        other.release();
+    }
+
+    @Test
+    public void testWaitingBucketWriteGoesFirst() throws InterruptedException {
+        Holder reader = hold(locks.request().entity("test", null, false));
+        assertTrue(reader.awaitAcquired());
+
+        Holder change = hold(locks.request().bucket("test", StripedLocks.Mode.WRITE));
+        assertFalse(change.awaitAcquired(BLOCKED_MILLIS));
+        Holder laterReader = hold(locks.request().entity("test", null, false));
+        assertFalse(laterReader.awaitAcquired(BLOCKED_MILLIS));
+
+        reader.release();
+        assertTrue(change.awaitAcquired());
+        assertFalse(laterReader.awaitAcquired(BLOCKED_MILLIS));
+        change.release();
+        assertTrue(laterReader.awaitAcquired());
+        laterReader.release();
+    }
+
+    @Test
+    public void testConflictingModesInOneRequestCombine() throws InterruptedException {
+        Holder both = hold(locks.request()
+                .entity("test", "first", true)
+                .entity("test", "first", false)
+                .bucket("test", StripedLocks.Mode.READ));
+        assertTrue(both.awaitAcquired());
+
+        Holder reader = hold(locks.request().entity("test", "second", false));
+        assertFalse(reader.awaitAcquired(BLOCKED_MILLIS));
+        both.release();
+        assertTrue(reader.awaitAcquired());
+        reader.release();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoStripes() {
+        new StripedLocks(0);
+    }
+
+    private Holder hold(StripedLocks.Request request) {
+        Holder holder = new Holder(request);
+        holder.start();
+        return holder;
+    }
+
+    /**
+     * Acquires a request on its own thread and holds it until released, since entity locks must be released by the
+     * thread that took them.
+     */
+    private static class Holder extends Thread {
+        private final StripedLocks.Request request;
+        private final CountDownLatch acquired = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        Holder(StripedLocks.Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            request.acquire();
+            acquired.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                // Release right away.
+            }
+            request.release();
+        }
+
+        boolean awaitAcquired() throws InterruptedException {
+            return awaitAcquired(TimeUnit.SECONDS.toMillis(5));
+        }
+
+        boolean awaitAcquired(long millis) throws InterruptedException {
+            return acquired.await(millis, TimeUnit.MILLISECONDS);
+        }
+
+        void release() throws InterruptedException {
+            released.countDown();
+            join();
+        }
+    }
+}